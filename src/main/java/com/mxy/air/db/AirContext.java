@@ -11,15 +11,20 @@ import com.google.common.base.Strings;
 import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.name.Names;
+import com.mxy.air.db.cache.QueryCache;
+import com.mxy.air.db.cache.RowCache;
 import com.mxy.air.db.config.DatacolorConfig;
 import com.mxy.air.db.config.DatacolorConfig.Datasource;
 import com.mxy.air.db.config.TableConfig;
 import com.mxy.air.db.config.TableConfig.Column;
+import com.mxy.air.db.es.EsMappingCache;
 import com.mxy.air.db.jdbc.BasicRowProcessor;
 import com.mxy.air.db.jdbc.Dialect;
+import com.mxy.air.db.jdbc.DialectFactory;
 import com.mxy.air.db.jdbc.RowProcessor;
 import com.mxy.air.db.jdbc.dialect.ElasticsearchDialect;
 import com.mxy.air.db.jdbc.processor.ElasticsearchRowProcessor;
+import com.mxy.air.db.schema.SchemaCache;
 import com.mxy.air.json.JSONObject;
 
 /**
@@ -33,16 +38,40 @@ public class AirContext {
 
 	private static Injector injector;
 
+	// 所有数据库表配置的快照, 热加载时整体替换, 已发布的快照不再修改
+	private static volatile JSONObject dbsConfig;
+
+	// 当前请求使用的数据库表配置快照, 保证同一个请求处理过程中数据库表配置不变
+	private static ThreadLocal<JSONObject> threadLocalDbsConfig = new ThreadLocal<>();
+
+	// 延迟加载的数据库表配置, 未配置延迟加载时为null
+	private static SchemaCache schemaCache;
+
+	// ES索引mapping缓存, 没有ES数据源时为null
+	private static EsMappingCache esMappingCache;
+
+	// 查询结果缓存, 未配置时为null
+	private static QueryCache queryCache;
+
+	// 按主键的记录缓存
+	private static RowCache rowCache;
+
 	public static ThreadLocal<String> threadLocalDb = new ThreadLocal<>();
 
 	public static void init(JSONObject config, Injector injector) {
 		AirContext.config = config;
 		AirContext.injector = injector;
+		AirContext.dbsConfig = config.getObject(DatacolorConfig.DB_TABLE_CONFIG);
 		// 设置每个SQLSession的数据源
 		for (String db : config.getObject(DatacolorConfig.DATASOURCES).keySet()) {
 			DataSource dataSource = (DataSource) config.getObject(DatacolorConfig.DATASOURCES).getObject(db)
 					.get(Datasource.SOURCE);
 			getSqlSession(db).setDataSource(dataSource);
+			// 初始化方言, 如按数据库版本选择分页语法
+			Dialect dialect = getDialect(db);
+			if (dialect != null && !(dialect instanceof ElasticsearchDialect)) {
+				DialectFactory.initialize(dialect, dataSource);
+			}
 		}
 	}
 
@@ -55,7 +84,39 @@ public class AirContext {
 	}
 
 	public static JSONObject getDbsConfig() {
-		return config.getObject(DatacolorConfig.DB_TABLE_CONFIG);
+		JSONObject pinned = threadLocalDbsConfig.get();
+		return pinned != null ? pinned : dbsConfig;
+	}
+
+	/**
+	 * 当前线程固定使用最新的数据库表配置快照, 直到调用unpinDbsConfig
+	 * 
+	 * @return 当前线程是否新固定了快照, 已固定时返回false
+	 */
+	public static boolean pinDbsConfig() {
+		if (threadLocalDbsConfig.get() != null) {
+			return false;
+		}
+		threadLocalDbsConfig.set(dbsConfig);
+		return true;
+	}
+
+	/**
+	 * 当前线程固定使用指定的数据库表配置快照, 如其他线程中的请求使用的快照
+	 * 
+	 * @param snapshot
+	 * @return 当前线程是否新固定了快照, 已固定时返回false
+	 */
+	public static boolean pinDbsConfig(JSONObject snapshot) {
+		if (threadLocalDbsConfig.get() != null) {
+			return false;
+		}
+		threadLocalDbsConfig.set(snapshot);
+		return true;
+	}
+
+	public static void unpinDbsConfig() {
+		threadLocalDbsConfig.remove();
 	}
 
 	public static JSONObject getDbConfig(String db) {
@@ -75,6 +136,12 @@ public class AirContext {
 	}
 
 	public static JSONObject getTableConfig(String db, String table) {
+		if (esMappingCache != null && esMappingCache.contains(db)) {
+			return esMappingCache.get(db, table);
+		}
+		if (schemaCache != null && schemaCache.contains(db)) {
+			return schemaCache.get(db, table);
+		}
 		JSONObject tableConfig = getDbConfig(db).getObject(table);
 		if (tableConfig == null) {
 			return new JSONObject();
@@ -215,8 +282,20 @@ public class AirContext {
 		return (Dialect) getDataSource(db).get(Datasource.DIALECT);
 	}
 
-	public static void addDbTableConfig(String db, JSONObject dbTableConfig) {
-		getDbsConfig().put(db, dbTableConfig);
+	/**
+	 * 添加或替换数据源的数据库表配置, 复制当前快照后发布新的快照, 正在处理的请求继续使用原快照
+	 * 
+	 * @param db
+	 * @param dbTableConfig
+	 */
+	public static synchronized void addDbTableConfig(String db, JSONObject dbTableConfig) {
+		JSONObject snapshot = new JSONObject();
+		for (Entry<String, Object> entry : dbsConfig.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue());
+		}
+		snapshot.put(db, dbTableConfig);
+		config.put(DatacolorConfig.DB_TABLE_CONFIG, snapshot);
+		dbsConfig = snapshot;
 	}
 
 	/**
@@ -237,11 +316,46 @@ public class AirContext {
 		if (!getDbsConfig().containsKey(db)) {
 			throw new DbException(String.format("数据源 [%s] 不存在", db));
 		}
-		if (!getDbConfig(db).containsKey(table)) {
+		// 延迟加载时第一次访问读取该表结构, 不存在的表为空对象, 不缓存
+		boolean exists = schemaCache != null && schemaCache.contains(db) ? schemaCache.get(db, table).size() > 0
+				: getDbConfig(db).containsKey(table);
+		if (!exists) {
 			throw new DbException(String.format("数据库表 [%s] 不存在", table));
 		}
 	}
 
+	public static SchemaCache getSchemaCache() {
+		return schemaCache;
+	}
+
+	public static void setSchemaCache(SchemaCache schemaCache) {
+		AirContext.schemaCache = schemaCache;
+	}
+
+	public static EsMappingCache getEsMappingCache() {
+		return esMappingCache;
+	}
+
+	public static void setEsMappingCache(EsMappingCache esMappingCache) {
+		AirContext.esMappingCache = esMappingCache;
+	}
+
+	public static QueryCache getQueryCache() {
+		return queryCache;
+	}
+
+	public static void setQueryCache(QueryCache queryCache) {
+		AirContext.queryCache = queryCache;
+	}
+
+	public static RowCache getRowCache() {
+		return rowCache;
+	}
+
+	public static void setRowCache(RowCache rowCache) {
+		AirContext.rowCache = rowCache;
+	}
+
 	enum Association {
 		
 		PRIMARY_TABLE, PRIMARY_COLUMN, TARGET_TABLE, TARGET_COLUMN;
@@ -305,13 +419,25 @@ public class AirContext {
 	}
 
 	public static RestClient getEsClient() {
-		RestClient client = injector.getInstance(Key.get(RestClient.class, Names.named(getEsDb())));
+		String db = getCurrentDb();
+		return getEsClient(isElasticsearch(db) ? db : getEsDb());
+	}
+
+	public static RestClient getEsClient(String db) {
+		RestClient client = injector.getInstance(Key.get(RestClient.class, Names.named(db)));
 		return client;
 	}
 
+	/**
+	 * 关闭所有ES数据源的客户端
+	 */
 	public static void closeEsClient() {
 		try {
-			getEsClient().close();
+			for (String db : getDbsConfig().keySet()) {
+				if (isElasticsearch(db)) {
+					getEsClient(db).close();
+				}
+			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
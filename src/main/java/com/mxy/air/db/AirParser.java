@@ -1,6 +1,7 @@
 package com.mxy.air.db;
 
 import static com.mxy.air.db.Structure.TEMPLATE;
+import static com.mxy.air.db.Structure.Type.BULK;
 import static com.mxy.air.db.Structure.Type.DELETE;
 import static com.mxy.air.db.Structure.Type.DETAIL;
 import static com.mxy.air.db.Structure.Type.INSERT;
@@ -107,6 +108,9 @@ public class AirParser {
 		if (object.containsKey(DELETE)) {
 			types.add(DELETE);
 		}
+		if (object.containsKey(BULK)) {
+			types.add(BULK);
+		}
 		if (object.containsKey(TRANSACTION)) {
 			types.add(TRANSACTION);
 		}
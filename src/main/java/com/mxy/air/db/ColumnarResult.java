@@ -0,0 +1,225 @@
+package com.mxy.air.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.mxy.air.db.Structure.Result;
+import com.mxy.air.db.config.TableConfig;
+import com.mxy.air.json.JSON;
+import com.mxy.air.json.JSONArray;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * 列式结果, 查询结果的列名只在头部出现一次:
+ * columnar: {"columns":[...], "types":[...], "data":[[第1列的值], [第2列的值], ...]}
+ * rows: {"columns":[...], "types":[...], "data":[[第1行的值], [第2行的值], ...]}
+ * 分页查询时保留start/end/total. 指定了字典编码的列, 值替换为该列字典(dictionaries)中的下标
+ *
+ * @author mengxiangyun
+ *
+ */
+public class ColumnarResult {
+
+	/**
+	 * 列式结果属性
+	 *
+	 * @author mengxiangyun
+	 *
+	 */
+	public enum ATTRIBUTE {
+		COLUMNS, TYPES, DATA, DICTIONARIES
+	}
+
+	private ColumnarResult() {
+	}
+
+	/**
+	 * 请求中的返回结果是否为列式结果
+	 *
+	 * @param object
+	 *            请求JSON
+	 * @return
+	 */
+	public static boolean isColumnar(JSONObject object) {
+		return layout(object) != null;
+	}
+
+	private static Result layout(JSONObject object) {
+		String result = object.getString(Structure.RESULT);
+		if (Result.COLUMNAR.toString().equalsIgnoreCase(result)) {
+			return Result.COLUMNAR;
+		} else if (Result.ROWS.toString().equalsIgnoreCase(result)) {
+			return Result.ROWS;
+		}
+		return null;
+	}
+
+	/**
+	 * 查询结果转换为列式结果, 非查询结果原样返回
+	 *
+	 * @param object
+	 *            请求JSON
+	 * @param db
+	 * @param table
+	 * @param result
+	 *            查询结果, 分页结果/记录数组/单个记录
+	 * @return
+	 */
+	public static JSON wrap(JSONObject object, String db, String table, JSON result) {
+		Result layout = layout(object);
+		if (layout == null) {
+			return result;
+		}
+		Set<String> dictionary = dictionaryColumns(object.get(Structure.DICTIONARY), db, table);
+		if (result instanceof JSONArray) {
+			return wrap((JSONArray) result, db, table, layout, dictionary);
+		}
+		JSONObject resultObject = (JSONObject) result;
+		String data = PageResult.ATTRIBUTE.DATA.toString().toLowerCase();
+		if (resultObject.containsKey(PageResult.ATTRIBUTE.DATA)
+				&& resultObject.get(PageResult.ATTRIBUTE.DATA) instanceof JSONArray) { // 分页
+			JSONObject columnar = new JSONObject();
+			for (Map.Entry<String, Object> entry : resultObject.entrySet()) {
+				if (!entry.getKey().equals(data)) {
+					columnar.put(entry.getKey(), entry.getValue());
+				}
+			}
+			return columnar.merge(wrap(resultObject.getArray(PageResult.ATTRIBUTE.DATA), db, table, layout,
+					dictionary));
+		}
+		// 单个记录, 未查询到记录时没有列
+		JSONArray rows = new JSONArray();
+		if (!resultObject.isEmpty()) {
+			rows.add(resultObject);
+		}
+		return wrap(rows, db, table, layout, dictionary);
+	}
+
+	private static JSONObject wrap(JSONArray rows, String db, String table, Result layout,
+			Set<String> dictionary) {
+		// 列为所有记录的列的并集, 按出现的顺序
+		Set<String> columnSet = new LinkedHashSet<>();
+		List<Map<String, Object>> records = new ArrayList<>(rows.size());
+		for (Object row : rows.list()) {
+			Map<String, Object> record = row instanceof JSONObject ? ((JSONObject) row).map() : castMap(row);
+			columnSet.addAll(record.keySet());
+			records.add(record);
+		}
+		String[] columns = columnSet.toArray(new String[] {});
+		JSONObject columnsConfig = columnsConfig(db, table);
+		String[] types = new String[columns.length];
+		List<Map<Object, Integer>> dictionaries = new ArrayList<>(columns.length);
+		for (int i = 0; i < columns.length; i++) {
+			JSONObject columnConfig = columnsConfig == null ? null : columnsConfig.getObject(columns[i]);
+			if (columnConfig != null && columnConfig.containsKey(TableConfig.Column.TYPE)) {
+				types[i] = columnConfig.getString(TableConfig.Column.TYPE);
+			}
+			dictionaries.add(dictionary.contains(columns[i]) ? new LinkedHashMap<>() : null);
+		}
+		JSONArray data = new JSONArray();
+		if (layout == Result.COLUMNAR) {
+			for (int i = 0; i < columns.length; i++) {
+				data.add(new JSONArray());
+			}
+		}
+		for (Map<String, Object> record : records) {
+			JSONArray row = layout == Result.ROWS ? new JSONArray() : null;
+			for (int i = 0; i < columns.length; i++) {
+				Object value = record.get(columns[i]);
+				if (types[i] == null && value != null) {
+					types[i] = type(value);
+				}
+				Map<Object, Integer> columnDictionary = dictionaries.get(i);
+				if (columnDictionary != null && value != null) {
+					Integer index = columnDictionary.get(value);
+					if (index == null) {
+						index = columnDictionary.size();
+						columnDictionary.put(value, index);
+					}
+					value = index;
+				}
+				if (row != null) {
+					row.add(value);
+				} else {
+					((JSONArray) data.get(i)).add(value);
+				}
+			}
+			if (row != null) {
+				data.add(row);
+			}
+		}
+		JSONObject result = new JSONObject().put(ATTRIBUTE.COLUMNS, new JSONArray(Arrays.asList(columns)))
+				.put(ATTRIBUTE.TYPES, new JSONArray(Arrays.asList(types))).put(ATTRIBUTE.DATA, data);
+		JSONObject dictionariesObject = new JSONObject();
+		for (int i = 0; i < columns.length; i++) {
+			if (dictionaries.get(i) != null) {
+				dictionariesObject.put(columns[i], new JSONArray(dictionaries.get(i).keySet()));
+			}
+		}
+		if (!dictionariesObject.isEmpty()) {
+			result.put(ATTRIBUTE.DICTIONARIES, dictionariesObject);
+		}
+		return result;
+	}
+
+	/**
+	 * 字典编码的列, true为配置了CODE的列, 或指定列名数组
+	 */
+	private static Set<String> dictionaryColumns(Object dictionary, String db, String table) {
+		Set<String> columns = new HashSet<>();
+		if (dictionary instanceof JSONArray) {
+			for (Object column : ((JSONArray) dictionary).list()) {
+				columns.add(column.toString());
+			}
+		} else if (Boolean.TRUE.equals(dictionary) || "true".equals(dictionary)) {
+			JSONObject columnsConfig = columnsConfig(db, table);
+			if (columnsConfig != null) {
+				for (Map.Entry<String, Object> entry : columnsConfig.entrySet()) {
+					if (entry.getValue() instanceof JSONObject
+							&& ((JSONObject) entry.getValue()).containsKey(TableConfig.Column.CODE)) {
+						columns.add(entry.getKey());
+					}
+				}
+			}
+		}
+		return columns;
+	}
+
+	private static JSONObject columnsConfig(String db, String table) {
+		try {
+			return AirContext.getColumnsConfig(db, table);
+		} catch (RuntimeException e) { // 原生SQL等没有表配置的查询
+			return null;
+		}
+	}
+
+	/**
+	 * 没有列类型配置时, 按第一个非null值确定类型
+	 */
+	private static String type(Object value) {
+		if (value instanceof Number) {
+			return "number";
+		} else if (value instanceof Boolean) {
+			return "boolean";
+		} else if (value instanceof JSONObject || value instanceof Map) {
+			return "object";
+		} else if (value instanceof Collection || value instanceof JSONArray || value.getClass().isArray()) {
+			return "array";
+		}
+		return "string";
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> castMap(Object row) {
+		return row instanceof Map ? (Map<String, Object>) row : new HashMap<>();
+	}
+
+}
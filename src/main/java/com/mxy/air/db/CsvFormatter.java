@@ -0,0 +1,209 @@
+package com.mxy.air.db;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Strings;
+import com.mxy.air.db.config.TableConfig;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * CSV导出的列格式化计划. 每次导出按列编译一次, 预先确定每个列的编码器(代码值转换, 日期时间格式化)和显示名称,
+ * 逐行按列的下标取值格式化, 不再对每个单元格查找列配置
+ *
+ * @author mengxiangyun
+ *
+ */
+class CsvFormatter {
+
+	/**
+	 * 单个列的编码器, 值不为null
+	 */
+	private interface Encoder {
+
+		String encode(Object value);
+
+	}
+
+	private static final Encoder TO_STRING = Object::toString;
+
+	// 日期时间格式, 配置中的格式数量有限, 所有导出共用
+	private static final ConcurrentMap<String, DateTimeFormatter> FORMATTERS = new ConcurrentHashMap<>();
+
+	private final String[] columns;
+
+	private final String[] displays;
+
+	private final Encoder[] encoders;
+
+	private CsvFormatter(String[] columns, String[] displays, Encoder[] encoders) {
+		this.columns = columns;
+		this.displays = displays;
+		this.encoders = encoders;
+	}
+
+	/**
+	 * 按列编译格式化计划
+	 *
+	 * @param db
+	 * @param table
+	 * @param columns
+	 *            导出的列, 即CSV的列顺序
+	 * @return
+	 */
+	public static CsvFormatter compile(String db, String table, List<String> columns) {
+		JSONObject columnsConfig = table == null ? new JSONObject() : AirContext.getColumnsConfig(db, table);
+		ZoneId zone = ZoneId.systemDefault();
+		int size = columns.size();
+		String[] names = columns.toArray(new String[size]);
+		String[] displays = new String[size];
+		Encoder[] encoders = new Encoder[size];
+		for (int i = 0; i < size; i++) {
+			JSONObject columnConfig = columnsConfig.getObject(names[i]);
+			displays[i] = display(names[i], columnConfig);
+			encoders[i] = encoder(names[i], columnConfig, zone);
+		}
+		return new CsvFormatter(names, displays, encoders);
+	}
+
+	/**
+	 * CSV头部的列
+	 *
+	 * @return
+	 */
+	public String[] header() {
+		return columns.clone();
+	}
+
+	/**
+	 * CSV头部的列显示名称, 配置了CODE时附加所有代码值
+	 *
+	 * @return
+	 */
+	public String[] displayHeader() {
+		return displays.clone();
+	}
+
+	/**
+	 * 格式化一条记录, 缺少的列和null为空字符串, 关联对象暂不处理, 也为空字符串
+	 *
+	 * @param record
+	 * @return
+	 */
+	public String[] format(Map<String, Object> record) {
+		String[] row = new String[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			Object value = record.get(columns[i]);
+			row[i] = value == null || value instanceof Map ? "" : encoders[i].encode(value);
+		}
+		return row;
+	}
+
+	private static String display(String column, JSONObject columnConfig) {
+		if (columnConfig == null || columnConfig.size() == 0) {
+			return column;
+		}
+		String columnDisplay = Strings.nullToEmpty(columnConfig.getString(TableConfig.Column.DISPLAY));
+		if (!columnConfig.containsKey(TableConfig.Column.CODE)) {
+			return columnDisplay;
+		}
+		JSONObject columnCode = columnConfig.getObject(TableConfig.Column.CODE);
+		StringBuilder builder = new StringBuilder();
+		builder.append(columnDisplay).append("(");
+		String[] codeValues = columnCode.keySet().stream().map(k -> k + ":" + columnCode.get(k))
+				.toArray(String[]::new);
+		builder.append(String.join(",", codeValues));
+		builder.append(")");
+		return builder.toString();
+	}
+
+	private static Encoder encoder(String column, JSONObject columnConfig, ZoneId zone) {
+		if (columnConfig == null || columnConfig.size() == 0) {
+			return TO_STRING;
+		}
+		if (columnConfig.containsKey(TableConfig.Column.CODE)) {
+			// 代码值转换为显示值, 未配置的代码值保留原值
+			JSONObject columnCode = columnConfig.getObject(TableConfig.Column.CODE);
+			Map<String, String> codes = new HashMap<>();
+			columnCode.keySet().forEach(k -> codes.put(k, String.valueOf(columnCode.get(k))));
+			return value -> {
+				String code = value.toString();
+				return codes.getOrDefault(code, code);
+			};
+		}
+		JSONObject columnFormat = columnConfig.getObject(TableConfig.Column.FORMAT);
+		if (columnFormat == null || !columnFormat.containsKey(TableConfig.Format.DATETIME)) {
+			return TO_STRING;
+		}
+		DateTimeFormatter formatter = formatter(column, columnFormat.getString(TableConfig.Format.DATETIME));
+		if ("bigint".equals(columnConfig.getString(TableConfig.Column.TYPE))) {
+			// 毫秒时间戳
+			return value -> {
+				long millis;
+				if (value instanceof Number) {
+					millis = ((Number) value).longValue();
+				} else {
+					try {
+						millis = Long.parseLong(value.toString());
+					} catch (NumberFormatException e) {
+						return value.toString();
+					}
+				}
+				return formatter.format(Instant.ofEpochMilli(millis).atZone(zone));
+			};
+		}
+		return value -> formatDatetime(value, formatter, zone);
+	}
+
+	/**
+	 * 格式化日期时间, 无法解析的值保留原值
+	 */
+	private static String formatDatetime(Object value, DateTimeFormatter formatter, ZoneId zone) {
+		if (value instanceof Date) {
+			// java.sql.Date不支持toInstant
+			return formatter.format(Instant.ofEpochMilli(((Date) value).getTime()).atZone(zone));
+		} else if (value instanceof LocalDate) {
+			return formatter.format(((LocalDate) value).atStartOfDay());
+		} else if (value instanceof TemporalAccessor) {
+			try {
+				return formatter.format((TemporalAccessor) value);
+			} catch (RuntimeException e) {
+				return value.toString();
+			}
+		}
+		String text = value.toString();
+		try {
+			// ISO格式或 yyyy-MM-dd HH:mm:ss 格式
+			return LocalDateTime.parse(text.indexOf(' ') == 10 ? text.replace(' ', 'T') : text).format(formatter);
+		} catch (DateTimeParseException e) {
+			return text;
+		}
+	}
+
+	/**
+	 * 日期时间格式, 按格式缓存
+	 * 
+	 * @param column
+	 * @param pattern
+	 * @return
+	 */
+	static DateTimeFormatter formatter(String column, String pattern) {
+		try {
+			return FORMATTERS.computeIfAbsent(pattern, DateTimeFormatter::ofPattern);
+		} catch (IllegalArgumentException e) {
+			throw new DbException(String.format("列 [%s] 的日期时间格式 [%s] 错误", column, pattern), e);
+		}
+	}
+
+}
@@ -0,0 +1,381 @@
+package com.mxy.air.db;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.mxy.air.db.Structure.Import;
+import com.mxy.air.db.config.TableConfig;
+import com.mxy.air.db.jdbc.BulkLoadHelper;
+import com.mxy.air.db.jdbc.Dialect;
+import com.mxy.air.json.JSONArray;
+import com.mxy.air.json.JSONObject;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+
+/**
+ * CSV导入, 格式与CSV模板相同: 第一行为列, 第二行为列显示名称(可以省略), 之后每行为一条记录.
+ * 逐行读取, 每读取batchSize行按列配置转换类型(配置了CODE的列将显示值转换为代码值), 批量验证后在一个事务中写入.
+ * 整批写入失败时逐行写入, 找出失败的行. 验证或写入失败的行记录在结果中, 不影响其他行
+ *
+ * @author mengxiangyun
+ *
+ */
+class CsvImporter {
+
+	// 默认每批的行数
+	public static final int DEFAULT_BATCH_SIZE = BulkLoadHelper.BATCH_ROWS;
+
+	// 结果中最多返回的错误行数, 超过的只计入失败的行数
+	public static final int MAX_REPORTED_ERRORS = 1000;
+
+	/**
+	 * 单个列的解码器, 将CSV中的文本转换为写入数据库的值, 无法转换时抛出DbException
+	 */
+	private interface Decoder {
+
+		Object decode(String text);
+
+	}
+
+	private final DataProcessor processor;
+
+	private final String db;
+
+	private final String table;
+
+	private final int batchSize;
+
+	private final Import.Mode mode;
+
+	// 失败的行数超过该值时停止导入, 小于0为不限制
+	private final long maxErrors;
+
+	private final SQLSession sqlSession;
+
+	// CSV的列
+	private String[] header;
+
+	private Decoder[] decoders;
+
+	// 写入的列, CSV的列和配置了默认值的列
+	private String[] columns;
+
+	private String insertSql;
+
+	private long count;
+
+	private long failed;
+
+	private boolean stopped;
+
+	private final JSONArray errors = new JSONArray();
+
+	CsvImporter(DataProcessor processor, String db, String table, int batchSize, Import.Mode mode, long maxErrors) {
+		this.processor = processor;
+		this.db = db;
+		this.table = table;
+		this.batchSize = Math.max(1, batchSize);
+		this.mode = mode;
+		this.maxErrors = maxErrors;
+		this.sqlSession = AirContext.getSqlSession(db);
+	}
+
+	/**
+	 *
+	 * @param reader
+	 *            CSV数据, 由调用者关闭
+	 * @return {"count":导入的行数, "failed":失败的行数, "errors":[{"line":行号, "error":错误信息}, ...]},
+	 *         失败的行数超过max_errors停止导入时包含"aborted":true
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public JSONObject run(Reader reader) throws SQLException, IOException {
+		if (!sqlSession.isCloseConnection()) {
+			throw new DbException("CSV导入不能在事务中执行");
+		}
+		CSVReader csvReader = new CSVReaderBuilder(reader).build();
+		String[] first = csvReader.readNext();
+		if (first != null) {
+			compile(first);
+			String[] displays = CsvFormatter.compile(db, table, Arrays.asList(header)).displayHeader();
+			List<Map<String, Object>> batch = new ArrayList<>(batchSize);
+			List<Long> lines = new ArrayList<>(batchSize);
+			boolean second = true;
+			while (!stopped) {
+				long line = csvReader.getLinesRead() + 1;
+				String[] record = csvReader.readNext();
+				if (record == null) {
+					break;
+				}
+				// 第二行为列显示名称时跳过
+				if (second) {
+					second = false;
+					if (isDisplayRow(record, displays)) {
+						continue;
+					}
+				}
+				if (isBlank(record)) {
+					continue;
+				}
+				try {
+					batch.add(decode(record));
+					lines.add(line);
+				} catch (DbException e) {
+					error(line, e.getMessage());
+				}
+				if (batch.size() >= batchSize) {
+					write(batch, lines);
+					batch.clear();
+					lines.clear();
+				}
+			}
+			if (!stopped && !batch.isEmpty()) {
+				write(batch, lines);
+			}
+		}
+		JSONObject result = new JSONObject().put("count", count).put("failed", failed).put("errors", errors);
+		if (stopped) {
+			result.put("aborted", true);
+		}
+		return result;
+	}
+
+	/**
+	 * 按CSV的列编译每个列的解码器和写入的列
+	 */
+	private void compile(String[] first) {
+		JSONObject columnsConfig = AirContext.getColumnsConfig(db, table);
+		header = new String[first.length];
+		decoders = new Decoder[first.length];
+		Set<String> insertColumns = new LinkedHashSet<>();
+		ZoneId zone = ZoneId.systemDefault();
+		for (int i = 0; i < first.length; i++) {
+			String column = first[i].trim();
+			// 去掉Excel保存的UTF-8 BOM
+			if (i == 0 && column.startsWith("\uFEFF")) {
+				column = column.substring(1);
+			}
+			JSONObject columnConfig = columnsConfig.getObject(column);
+			if (columnConfig == null) {
+				throw new DbException(String.format("列 [%s] 不是表 [%s] 的列", column, table));
+			}
+			if (!insertColumns.add(column)) {
+				throw new DbException(String.format("列 [%s] 重复", column));
+			}
+			header[i] = column;
+			decoders[i] = decoder(column, columnConfig, zone);
+		}
+		// 配置了默认值的列由DataProcessor填充
+		for (Map.Entry<String, Object> entry : columnsConfig.entrySet()) {
+			if (((JSONObject) entry.getValue()).containsKey(TableConfig.Column.DEFAULT)) {
+				insertColumns.add(entry.getKey());
+			}
+		}
+		columns = insertColumns.toArray(new String[] {});
+		Dialect dialect = AirContext.getDialect(db);
+		insertSql = BulkLoadHelper.insertPrefix(dialect, table, columns) + "("
+				+ String.join(", ", Collections.nCopies(columns.length, "?")) + ")";
+	}
+
+	private Map<String, Object> decode(String[] record) {
+		if (record.length > header.length) {
+			throw new DbException(String.format("列数 [%d] 超过头部的列数 [%d]", record.length, header.length));
+		}
+		Map<String, Object> row = new LinkedHashMap<>();
+		for (int i = 0; i < record.length; i++) {
+			String text = record[i].trim();
+			// 空值为null, 由默认值填充
+			if (!text.isEmpty()) {
+				row.put(header[i], decoders[i].decode(text));
+			}
+		}
+		return row;
+	}
+
+	/**
+	 * 验证并写入一批数据
+	 */
+	private void write(List<Map<String, Object>> batch, List<Long> lines) throws SQLException {
+		String[] rowErrors = processor.process(db, table, batch);
+		List<Object[]> rows = new ArrayList<>();
+		List<Long> rowLines = new ArrayList<>();
+		for (int i = 0; i < batch.size(); i++) {
+			if (rowErrors[i] != null) {
+				error(lines.get(i), rowErrors[i]);
+				continue;
+			}
+			Map<String, Object> row = batch.get(i);
+			Object[] values = new Object[columns.length];
+			for (int j = 0; j < columns.length; j++) {
+				values[j] = row.get(columns[j]);
+			}
+			rows.add(values);
+			rowLines.add(lines.get(i));
+		}
+		if (rows.isEmpty()) {
+			return;
+		}
+		try {
+			sqlSession.trans(() -> {
+				try {
+					if (mode == Import.Mode.BULK) {
+						sqlSession.bulkLoad(AirContext.getDialect(db), table, columns, rows.iterator());
+					} else {
+						sqlSession.batch(insertSql, rows.toArray(new Object[][] {}));
+					}
+				} catch (SQLException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			count += rows.size();
+		} catch (SQLException | RuntimeException e) {
+			// 整批写入已回滚, 逐行写入找出失败的行
+			for (int i = 0; i < rows.size(); i++) {
+				try {
+					sqlSession.update(insertSql, rows.get(i));
+					count++;
+				} catch (SQLException | RuntimeException rowException) {
+					error(rowLines.get(i), message(rowException));
+				}
+			}
+		}
+	}
+
+	private void error(long line, String message) {
+		failed++;
+		if (errors.size() < MAX_REPORTED_ERRORS) {
+			errors.add(new JSONObject().put("line", line).put("error", message));
+		}
+		if (maxErrors >= 0 && failed > maxErrors) {
+			stopped = true;
+		}
+	}
+
+	private String message(Exception e) {
+		Throwable cause = e instanceof RuntimeException && e.getCause() != null ? e.getCause() : e;
+		return cause.getMessage();
+	}
+
+	/**
+	 * 是否为CSV模板的列显示名称行
+	 */
+	private boolean isDisplayRow(String[] record, String[] displays) {
+		if (record.length != displays.length) {
+			return false;
+		}
+		for (int i = 0; i < record.length; i++) {
+			if (!record[i].trim().equals(displays[i].trim())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isBlank(String[] record) {
+		for (String text : record) {
+			if (!text.trim().isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Decoder decoder(String column, JSONObject columnConfig, ZoneId zone) {
+		String type = columnConfig.containsKey(TableConfig.Column.TYPE)
+				? columnConfig.getString(TableConfig.Column.TYPE).toLowerCase()
+				: "";
+		Decoder typeDecoder = typeDecoder(column, type);
+		if (columnConfig.containsKey(TableConfig.Column.CODE)) {
+			// 显示值转换为代码值, 也可以直接填写代码值
+			JSONObject columnCode = columnConfig.getObject(TableConfig.Column.CODE);
+			Map<String, String> codes = new HashMap<>();
+			columnCode.keySet().forEach(k -> codes.putIfAbsent(String.valueOf(columnCode.get(k)), k));
+			columnCode.keySet().forEach(k -> codes.putIfAbsent(k, k));
+			return text -> {
+				String code = codes.get(text);
+				if (code == null) {
+					throw new DbException(String.format("列 [%s] 的值 [%s] 不在代码中", column, text));
+				}
+				return typeDecoder.decode(code);
+			};
+		}
+		JSONObject columnFormat = columnConfig.getObject(TableConfig.Column.FORMAT);
+		if (columnFormat != null && columnFormat.containsKey(TableConfig.Format.DATETIME)) {
+			DateTimeFormatter formatter = CsvFormatter.formatter(column,
+					columnFormat.getString(TableConfig.Format.DATETIME));
+			return text -> {
+				TemporalAccessor datetime;
+				try {
+					datetime = formatter.parseBest(text, LocalDateTime::from, LocalDate::from);
+				} catch (DateTimeParseException e) {
+					// 未按格式填写时按类型转换, 如毫秒时间戳或ISO格式
+					return typeDecoder.decode(text);
+				}
+				LocalDateTime localDateTime = datetime instanceof LocalDate ? ((LocalDate) datetime).atStartOfDay()
+						: (LocalDateTime) datetime;
+				if (type.contains("int")) { // 毫秒时间戳
+					return localDateTime.atZone(zone).toInstant().toEpochMilli();
+				}
+				return type.equals("date") ? localDateTime.toLocalDate() : localDateTime;
+			};
+		}
+		return typeDecoder;
+	}
+
+	/**
+	 * 按列类型转换
+	 */
+	private static Decoder typeDecoder(String column, String type) {
+		Decoder decoder;
+		if (type.contains("int")) {
+			decoder = Long::valueOf;
+		} else if (type.contains("decimal") || type.contains("numeric") || type.contains("double")
+				|| type.contains("float") || type.contains("real")) {
+			decoder = BigDecimal::new;
+		} else if (type.startsWith("bool")) {
+			decoder = text -> {
+				if ("true".equalsIgnoreCase(text) || "1".equals(text)) {
+					return true;
+				} else if ("false".equalsIgnoreCase(text) || "0".equals(text)) {
+					return false;
+				}
+				throw new IllegalArgumentException(text);
+			};
+		} else if (type.equals("date")) {
+			decoder = LocalDate::parse;
+		} else if (type.equals("time")) {
+			decoder = LocalTime::parse;
+		} else if (type.startsWith("datetime") || type.startsWith("timestamp")) {
+			// ISO格式或 yyyy-MM-dd HH:mm:ss 格式
+			decoder = text -> LocalDateTime.parse(text.indexOf(' ') == 10 ? text.replace(' ', 'T') : text);
+		} else {
+			return text -> text;
+		}
+		return text -> {
+			try {
+				return decoder.decode(text);
+			} catch (IllegalArgumentException | DateTimeParseException e) {
+				throw new DbException(String.format("列 [%s] 的值 [%s] 不是有效的 %s 类型", column, text, type));
+			}
+		};
+	}
+
+}
@@ -1,16 +1,23 @@
 package com.mxy.air.db;
 
+import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.google.common.collect.Lists;
 import com.mxy.air.db.SQLBuilder.StatementType;
+import com.mxy.air.db.Structure.Operator;
+import com.mxy.air.db.builder.Condition;
 import com.mxy.air.db.builder.Insert;
+import com.mxy.air.db.builder.Select;
 import com.mxy.air.db.builder.Update;
 import com.mxy.air.db.config.TableConfig.Column;
 import com.mxy.air.db.config.TableConfig.Keyword;
@@ -24,6 +31,9 @@ import com.mxy.air.json.JSONObject;
  */
 public class DataProcessor {
 
+	// 唯一性验证时每条查询语句的最大值个数
+	private static final int UNIQUE_BATCH_SIZE = 1000;
+
 	/**
 	 * 对请求数据做验证和处理
 	 * 
@@ -128,6 +138,93 @@ public class DataProcessor {
 		return value;
 	}
 
+	/**
+	 * 批量验证和处理新增的数据, 用于导入. 默认值和必填按行处理, 唯一字段每批只查询一次数据库中已存在的值,
+	 * 同一批中重复的值也视为已存在. 验证失败的行不影响其他行
+	 * 
+	 * @param db
+	 * @param table
+	 * @param rows
+	 *            新增的数据, 处理后的默认值直接写入
+	 * @return 每行的错误信息, 验证通过的行为null
+	 * @throws SQLException
+	 */
+	public String[] process(String db, String table, List<Map<String, Object>> rows) throws SQLException {
+		JSONObject columnConfigs = AirContext.getColumnsConfig(db, table);
+		String[] errors = new String[rows.size()];
+		List<String> uniqueColumns = new ArrayList<>();
+		for (Map.Entry<String, Object> columnConfig : columnConfigs.entrySet()) {
+			JSONObject config = (JSONObject) columnConfig.getValue();
+			if (config.containsKey(Column.UNIQUE) && config.getBoolean(Column.UNIQUE)) {
+				uniqueColumns.add(columnConfig.getKey());
+			}
+		}
+		// 默认值和必填
+		Insert insert = SQLBuilder.insert(table, null);
+		insert.db(db);
+		for (int i = 0; i < rows.size(); i++) {
+			Map<String, Object> row = rows.get(i);
+			for (Map.Entry<String, Object> columnConfig : columnConfigs.entrySet()) {
+				String column = columnConfig.getKey();
+				JSONObject config = (JSONObject) columnConfig.getValue();
+				if (row.get(column) != null) {
+					continue;
+				}
+				try {
+					Object value = process(column, null, config, insert);
+					if (value != null) {
+						row.put(column, value);
+					}
+				} catch (DbException e) {
+					errors[i] = e.getMessage();
+					break;
+				}
+			}
+		}
+		// 唯一性验证
+		SQLSession sqlSession = AirContext.getSqlSession(db);
+		for (String column : uniqueColumns) {
+			List<Object> values = new ArrayList<>();
+			for (int i = 0; i < rows.size(); i++) {
+				Object value = rows.get(i).get(column);
+				if (errors[i] == null && value != null) {
+					values.add(value);
+				}
+			}
+			Set<String> existing = new HashSet<>();
+			for (int from = 0; from < values.size(); from += UNIQUE_BATCH_SIZE) {
+				List<Object> chunk = values.subList(from, Math.min(values.size(), from + UNIQUE_BATCH_SIZE));
+				List<Condition> conditions = new ArrayList<>();
+				conditions.add(new Condition(db, table, "t", Operator.AND, Operator.IN, column, chunk.toArray()));
+				Select select = SQLBuilder.select(table, "t", null, new String[] { column }, conditions, null, null,
+						null);
+				select.db(db);
+				select.build();
+				for (Map<String, Object> record : sqlSession.list(select.sql(), select.params().toArray())) {
+					// 部分数据库返回大写的列名
+					record.values().forEach(v -> existing.add(uniqueKey(v)));
+				}
+			}
+			for (int i = 0; i < rows.size(); i++) {
+				Object value = rows.get(i).get(column);
+				if (errors[i] == null && value != null && !existing.add(uniqueKey(value))) {
+					errors[i] = "记录 " + column + "[" + value + "] 已存在";
+				}
+			}
+		}
+		return errors;
+	}
+
+	/**
+	 * 唯一性比较的值, 数据库返回的数字类型可能与导入的不同
+	 */
+	private String uniqueKey(Object value) {
+		if (value instanceof Number) {
+			return new BigDecimal(value.toString()).stripTrailingZeros().toPlainString();
+		}
+		return String.valueOf(value);
+	}
+
 	private void convertToDbType(Object value, String dataType) {
 		if (dataType.equals("int")) {
 			value = Integer.parseInt(value.toString());
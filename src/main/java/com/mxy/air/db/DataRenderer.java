@@ -1,7 +1,12 @@
 package com.mxy.air.db;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.mxy.air.db.config.TableConfig;
 import com.mxy.air.json.JSONArray;
@@ -52,235 +57,212 @@ public class DataRenderer {
 			return new JSONArray(data);
 		}
 		JSONArray result = new JSONArray();
-		/*
-		 * 存储每个主表记录下的join表数据, key为主表每条记录的唯一标识, value为该条记录的join表数据
-		 * {
-		 *   "table_unique":{
-		 *     "table1":[
-		 *       {
-		 *         "column1":column1_value,
-		 *         ...
-		 *       }
-		 *       ...
-		 *     ]
-		 *     ...
-		 *   }
-		 *   ...
-		 * }
-		 */
-		JSONObject uniqueRecordTableData = new JSONObject();
-
-		JSONObject columnsConfig = AirContext.getColumnsConfig(builder.db(), builder.table());
-
-		for (int i = 0; i < data.size(); i++) {
-
-			Map<String, Object> record = data.get(i);
-
-			/*
-			 * 获取主表记录唯一编号
-			 */
-			StringBuilder uniqueCode = new StringBuilder();
-			for (Map.Entry<String, Object> entry : record.entrySet()) {
-				String column = entry.getKey();
-				if (column.indexOf(".") == -1) { // 主表的字段
-					// 拼接唯一编号
-					uniqueCode.append(entry.getValue());
-				}
+		if (data.isEmpty()) {
+			return result;
+		}
+		// 同一个查询结果的每条记录的列相同, 只生成一次渲染计划
+		JoinPlan plan = new JoinPlan(builder, data.get(0).keySet());
+		// 主表记录, key为主表记录的唯一标识
+		Map<Object, JSONObject> records = new LinkedHashMap<>();
+		// 每条记录中每个表的当前对象, 不存在关联时为null
+		JSONObject[] current = new JSONObject[plan.nodes.length];
+		Object[] values = new Object[plan.keys.length];
+		for (Map<String, Object> row : data) {
+			for (int c = 0; c < values.length; c++) {
+				values[c] = row.get(plan.keys[c]);
 			}
-			/*
-			 * 主表唯一记录
-			 */
-			JSONObject uniqueRecord;
-			/*
-			 * 当前操作表的索引位置
-			 */
-			JSONObject currentTableIndexObject;
-			// 是否已经出现过
-			boolean appeared = false;
-			if (uniqueRecordTableData.containsKey(uniqueCode.toString())) {
-				uniqueRecord = uniqueRecordTableData.getObject(uniqueCode.toString()).getObject("record");
-				currentTableIndexObject = uniqueRecordTableData.getObject(uniqueCode.toString())
-						.getObject("tableIndex");
-				appeared = true;
-			} else {
-				uniqueRecord = new JSONObject();
-				currentTableIndexObject = new JSONObject();
-				JSONObject uniqueRecordIndex = new JSONObject();
-				uniqueRecordIndex.put("record", uniqueRecord);
-				uniqueRecordIndex.put("tableIndex", currentTableIndexObject);
-				uniqueRecordTableData.put(uniqueCode.toString(), uniqueRecordIndex);
+			Object uniqueKey = plan.uniqueKey(values);
+			JSONObject record = records.get(uniqueKey);
+			boolean appeared = record != null;
+			if (!appeared) {
+				record = new JSONObject();
+				records.put(uniqueKey, record);
 			}
-			currentTableIndexObject.put(builder.table(), i);
-
-			/*
-			 * 每条记录中的join表的数据, key为表名, value为关联表的数据
-			 * {
-			 *   "join_table1":{
-			 *     "join_column1":join_column1_value,
-			*       ...
-			 *   }
-			 *   ...
-			 * }
-			 */
-			JSONObject tempJoinTablesData = new JSONObject();
-
-			/*
-			 * 每个主表记录的唯一编号, 以每行记录的所有主表字段值拼成的字符串作为唯一编号
-			 */
-			for (Map.Entry<String, Object> recordEntry : record.entrySet()) {
-				String column = recordEntry.getKey();
-				Object value = recordEntry.getValue();
-				if (column.indexOf(".") == -1) { // 主表的字段
-					if (!appeared) {
-						JSONObject columnConfig = columnsConfig.getObject(column);
-						uniqueRecord.put(column, render(value, columnConfig));
+			current[0] = record;
+			for (int n = 0; n < plan.nodes.length; n++) {
+				JoinNode node = plan.nodes[n];
+				JSONObject object;
+				if (n == 0) {
+					if (appeared) {
+						continue;
 					}
-				} else { // Join表的字段
-					/*
-					 * a.b.column -> [a, b, column], 表名为b
-					 */
-					String[] joinTableColumnParts = column.split("\\.");
-					String joinTableName = joinTableColumnParts[joinTableColumnParts.length - 2];
-
-					int lastComma = column.lastIndexOf(".");
-					String joinColumn = column.substring(lastComma + 1);
-					String joinTableString = column.substring(0, lastComma);
-
-					/*
-					 * 返回最内层表的数据, 假如join表的字符串joinTableString为a.b.c, 则返回c表的数据
-					 */
-					String[] prefixJoinTables = joinTableString.split("\\.");
-					JSONObject innerJoinTable = uniqueRecord;
-					JSONArray innerJoinTableArray;
-					for (int j = 0; j < prefixJoinTables.length; j++) {
-						String parentTable = j == 0 ? builder.table() : prefixJoinTables[j - 1];
-						String currentTable = prefixJoinTables[j];
-						TableConfig.Association.Type associationType = AirContext.getAssociation(builder.db(),
-								parentTable, currentTable);
+					object = record;
+				} else {
+					JSONObject parent = current[node.parent];
+					// 全部字段为空, 则代表不存在该关联关系
+					if (parent == null || !node.hasValue(values)) {
+						current[n] = null;
+						continue;
+					}
+					if (node.many) { // 一对多或多对多, 每条记录添加一个关联对象
+						JSONArray array = parent.getArray(node.name);
+						if (array == null) {
+							array = new JSONArray();
+							parent.put(node.name, array);
+						}
+						object = new JSONObject();
+						array.add(object);
+					} else { // 一对一或多对一
+						object = parent.getObject(node.name);
+						if (object == null) {
+							object = new JSONObject();
+							parent.put(node.name, object);
+						}
+					}
+					current[n] = object;
+				}
+				for (int c : node.columns) {
+					object.put(plan.columns[c], render(values[c], plan.columnConfigs[c]));
+				}
+			}
+		}
+		records.values().forEach(result::add);
+		return result;
+	}
 
-						if (innerJoinTable.containsKey(currentTable)) {
+	/**
+	 * 关联查询结果的渲染计划, 由查询结果的列生成, 每个列对应的表(嵌套路径)和列配置只计算一次
+	 */
+	private static class JoinPlan {
 
-							switch (associationType) {
-							case ONE_TO_ONE:
-							case MANY_TO_ONE:
-								innerJoinTable = innerJoinTable.getObject(currentTable);
-								break;
-							case ONE_TO_MANY:
-							case MANY_TO_MANY:
-								int currentTableIndex = currentTableIndexObject.containsKey(currentTable)
-										? currentTableIndexObject.getInt(currentTable)
-										: 0;
-								innerJoinTableArray = innerJoinTable.getArray(currentTable);
-								if (innerJoinTableArray.size() > currentTableIndex) {
-									innerJoinTable = (JSONObject) innerJoinTableArray.get(currentTableIndex);
-								} else {
-									JSONObject joinTableObject = new JSONObject();
-									innerJoinTableArray.add(joinTableObject);
-									innerJoinTable = joinTableObject;
-									currentTableIndexObject.put(currentTable, currentTableIndex);
-								}
-								break;
+		// 查询结果的列, 关联表的列为 a.b.column 的形式
+		private final String[] keys;
 
-							default:
-								break;
-							}
-						} else {
-							JSONObject joinTableObject = new JSONObject();
-							switch (associationType) {
-							case ONE_TO_ONE:
-							case MANY_TO_ONE:
-								innerJoinTable.put(prefixJoinTables[j], joinTableObject);
-								innerJoinTable = joinTableObject;
-								break;
-							case ONE_TO_MANY:
-							case MANY_TO_MANY:
-								innerJoinTableArray = new JSONArray();
-								innerJoinTableArray.add(joinTableObject);
-								innerJoinTable.put(prefixJoinTables[j], innerJoinTableArray);
+		// 去掉表路径的列名
+		private final String[] columns;
 
-								innerJoinTable = joinTableObject;
+		private final JSONObject[] columnConfigs;
 
-								currentTableIndexObject.put(currentTable, 0);
-								break;
+		// 主表和所有关联表, 父表在子表之前, 第一个为主表
+		private final JoinNode[] nodes;
 
-							default:
-								break;
-							}
-						}
-					}
+		// 唯一标识主表记录的列, 为主键列或所有主表列
+		private final int[] uniqueColumns;
 
+		private JoinPlan(SQLBuilder builder, Set<String> keySet) {
+			String db = builder.db();
+			keys = keySet.toArray(new String[0]);
+			columns = new String[keys.length];
+			columnConfigs = new JSONObject[keys.length];
+			Map<String, Integer> nodeIndexes = new HashMap<>();
+			List<JoinNode> nodeList = new ArrayList<>();
+			List<List<Integer>> nodeColumns = new ArrayList<>();
+			nodeIndexes.put("", 0);
+			nodeList.add(new JoinNode(builder.table(), -1, false));
+			nodeColumns.add(new ArrayList<>());
+			for (int c = 0; c < keys.length; c++) {
+				String key = keys[c];
+				int lastDot = key.lastIndexOf('.');
+				columns[c] = key.substring(lastDot + 1);
+				String path = lastDot == -1 ? "" : key.substring(0, lastDot);
+				Integer index = nodeIndexes.get(path);
+				if (index == null) {
 					/*
-					 * 保存每次循环的join表信息, 以便后续做处理, key为关联表及父表组成的字符串, value为关联表数据
+					 * a.b.column -> 依次创建表a和a.b
 					 */
-					JSONObject joinColumnsConfig = AirContext.getColumnsConfig(builder.db(), joinTableName);
-					JSONObject joinColumnConfig = joinColumnsConfig.getObject(joinColumn);
-
-					innerJoinTable.put(joinColumn, render(value, joinColumnConfig));
-
-					JSONObject tempJoinTableData;
-					if (tempJoinTablesData.containsKey(joinTableString)) {
-						tempJoinTableData = tempJoinTablesData.getObject(joinTableString);
-					} else {
-						tempJoinTableData = new JSONObject();
-						tempJoinTablesData.put(joinTableString, tempJoinTableData);
+					String[] tables = path.split("\\.");
+					int parent = 0;
+					StringBuilder prefix = new StringBuilder();
+					for (int j = 0; j < tables.length; j++) {
+						if (j > 0) {
+							prefix.append('.');
+						}
+						prefix.append(tables[j]);
+						Integer tableIndex = nodeIndexes.get(prefix.toString());
+						if (tableIndex == null) {
+							String parentTable = j == 0 ? builder.table() : tables[j - 1];
+							TableConfig.Association.Type associationType = AirContext.getAssociation(db, parentTable,
+									tables[j]);
+							boolean many = associationType == TableConfig.Association.Type.ONE_TO_MANY
+									|| associationType == TableConfig.Association.Type.MANY_TO_MANY;
+							tableIndex = nodeList.size();
+							nodeIndexes.put(prefix.toString(), tableIndex);
+							nodeList.add(new JoinNode(tables[j], parent, many));
+							nodeColumns.add(new ArrayList<>());
+						}
+						parent = tableIndex;
 					}
-					tempJoinTableData.put(joinColumn, render(value, joinColumnConfig));
+					index = parent;
 				}
+				nodeColumns.get(index).add(c);
+				columnConfigs[c] = AirContext.getColumnsConfig(db, nodeList.get(index).name).getObject(columns[c]);
+			}
+			nodes = nodeList.toArray(new JoinNode[0]);
+			for (int n = 0; n < nodes.length; n++) {
+				nodes[n].columns = nodeColumns.get(n).stream().mapToInt(Integer::intValue).toArray();
 			}
-			/**
-			 * 删除空关联
-			 */
-			for (String joinTableString : tempJoinTablesData.keySet()) {
-				JSONObject tempJoinTableData = tempJoinTablesData.getObject(joinTableString);
-				/*
-				 * 全部字段为空, 则代表不存在该关联关系, 删除该关联属性
-				 */
-				boolean exist = tempJoinTableData.values().stream().anyMatch(v -> v != null);
-				if (!exist) {
-					String[] prefixJoinTables = joinTableString.split("\\.");
-					JSONObject innerJoinTableObject = uniqueRecord;
-					for (int k = 0; k < prefixJoinTables.length; k++) {
-						String parentTable = k == 0 ? builder.table() : prefixJoinTables[k - 1];
-						String currentTable = prefixJoinTables[k];
-						TableConfig.Association.Type associationType = AirContext.getAssociation(builder.db(),
-								parentTable, currentTable);
-						switch (associationType) {
-						case ONE_TO_ONE:
-						case MANY_TO_ONE:
-							innerJoinTableObject = innerJoinTableObject.getObject(currentTable);
-							if (k == prefixJoinTables.length - 1) {
-								innerJoinTableObject.remove(currentTable);
-							}
-							break;
-						case ONE_TO_MANY:
-						case MANY_TO_MANY:
-							JSONArray innerJoinTableArray = innerJoinTableObject.getArray(currentTable);
-							// 删除该循环刚刚添加的对象, 即最后一个
-							if (k == prefixJoinTables.length - 1) {
-								innerJoinTableArray.remove(innerJoinTableArray.size() - 1);
-								if (innerJoinTableArray.size() == 0) {
-									innerJoinTableObject.remove(currentTable);
-								}
-							}
-							break;
+			uniqueColumns = uniqueColumns(AirContext.getTableConfig(db, builder.table()), nodes[0].columns);
+		}
 
-						default:
-							break;
-						}
+		/**
+		 * 配置了主键(多个主键以逗号分隔)并且查询了所有主键时, 以主键作为主表记录的唯一标识, 否则以所有主表列的值作为唯一标识
+		 */
+		private int[] uniqueColumns(JSONObject tableConfig, int[] primaryTableColumns) {
+			if (tableConfig == null || !tableConfig.containsKey(TableConfig.PRIMARY_KEY)) {
+				return primaryTableColumns;
+			}
+			String[] primaryKeys = tableConfig.getString(TableConfig.PRIMARY_KEY).split(",");
+			int[] keyColumns = new int[primaryKeys.length];
+			for (int k = 0; k < primaryKeys.length; k++) {
+				keyColumns[k] = -1;
+				for (int c : primaryTableColumns) {
+					if (columns[c].equals(primaryKeys[k].trim())) {
+						keyColumns[k] = c;
+						break;
 					}
 				}
+				if (keyColumns[k] == -1) {
+					return primaryTableColumns;
+				}
+			}
+			return keyColumns;
+		}
 
+		private Object uniqueKey(Object[] values) {
+			if (uniqueColumns.length == 1) {
+				return values[uniqueColumns[0]];
 			}
-			for (Map.Entry<String, Object> map : currentTableIndexObject.entrySet()) {
-				map.setValue((int) map.getValue() + 1);
+			Object[] key = new Object[uniqueColumns.length];
+			for (int k = 0; k < uniqueColumns.length; k++) {
+				key[k] = values[uniqueColumns[k]];
 			}
+			return Arrays.asList(key);
+		}
+
+	}
+
+	/**
+	 * 查询结果中的表
+	 */
+	private static class JoinNode {
+
+		// 表名
+		private final String name;
 
+		// 父表在渲染计划中的位置, 主表为-1
+		private final int parent;
+
+		// 是否为一对多或多对多关联
+		private final boolean many;
+
+		// 表的列在查询结果中的位置
+		private int[] columns;
+
+		private JoinNode(String name, int parent, boolean many) {
+			this.name = name;
+			this.parent = parent;
+			this.many = many;
 		}
 
-		for (String key : uniqueRecordTableData.keySet()) {
-			result.add(uniqueRecordTableData.getObject(key).getObject("record"));
+		private boolean hasValue(Object[] values) {
+			for (int c : columns) {
+				if (values[c] != null) {
+					return true;
+				}
+			}
+			return false;
 		}
-		return result;
+
 	}
 
 	/**
@@ -21,6 +21,7 @@ import static com.mxy.air.db.Structure.Operator.NOT_IN;
 import static com.mxy.air.db.Structure.Operator.NOT_LIKE;
 import static com.mxy.air.db.Structure.Order.MINUS;
 import static com.mxy.air.db.Structure.Order.PLUS;
+import static com.mxy.air.db.Structure.Type.BULK;
 import static com.mxy.air.db.Structure.Type.DELETE;
 import static com.mxy.air.db.Structure.Type.DETAIL;
 import static com.mxy.air.db.Structure.Type.INSERT;
@@ -151,6 +152,9 @@ public class Engine {
 		case DELETE:
 			builder = delete(object);
 			break;
+		case BULK:
+			builder = bulk(object);
+			break;
 
 		default:
 			break;
@@ -188,6 +192,9 @@ public class Engine {
 		if (object.containsKey(DELETE)) {
 			types.add(DELETE);
 		}
+		if (object.containsKey(BULK)) {
+			types.add(BULK);
+		}
 		if (object.containsKey(TRANSACTION)) {
 			types.add(TRANSACTION);
 		}
@@ -228,6 +235,14 @@ public class Engine {
 	private SQLBuilder select(JSONObject object) {
 		// join
 		joins = parseJoin(object.get(JOIN));
+		// 请求中指定的查询方式覆盖关联配置
+		if (object.containsKey(Structure.FETCH)) {
+			Association.Fetch fetch = Association.Fetch.from(object.getString(Structure.FETCH));
+			if (fetch == null) {
+				throw new DbException(String.format("查询方式 [%s] 错误, 只能为join或batch", object.getString(Structure.FETCH)));
+			}
+			joins.forEach(join -> join.setFetch(fetch));
+		}
 		// 字段, 默认查询所有
 		String[] fields = object.containsKey(FIELDS) ? object.getArray(FIELDS).toStringArray() : null;
 		// where
@@ -290,6 +305,23 @@ public class Engine {
 		return SQLBuilder.delete(table, alias, conditions);
 	}
 
+	/**
+	 * 批量导入
+	 * 
+	 * @param object
+	 * @return
+	 */
+	private SQLBuilder bulk(JSONObject object) {
+		List<Map<String, Object>> rows = new ArrayList<>();
+		Object values = object.get(VALUES);
+		if (values instanceof JSONArray) {
+			rows = ((JSONArray) values).toMapList();
+		} else if (values instanceof JSONObject) {
+			rows.add(((JSONObject) values).map());
+		}
+		return SQLBuilder.bulk(table, rows);
+	}
+
 	/**
 	 * 解析join 
 	 *   1. 字符串： 
@@ -316,14 +348,14 @@ public class Engine {
 			JSONArray joinArray = (JSONArray) join;
 			for (Object joinObject : joinArray.list()) {
 				if (joinObject instanceof JSONObject) {
-					String joinTable = ((JSONObject) joinObject).entrySet().iterator().next().getValue().toString();
+					String joinTable = joinEntry((JSONObject) joinObject).getValue().toString();
 					aliases.put(joinTable, DEFAULT_JOIN_TABLE_ALIAS_PREFIX + joinTable);
 				} else {
 					aliases.put(joinObject.toString(), DEFAULT_JOIN_TABLE_ALIAS_PREFIX + joinObject.toString());
 				}
 			}
 		} else if (join instanceof JSONObject) {
-			String joinTable = ((JSONObject) join).entrySet().iterator().next().getValue().toString();
+			String joinTable = joinEntry((JSONObject) join).getValue().toString();
 			aliases.put(joinTable, DEFAULT_JOIN_TABLE_ALIAS_PREFIX + joinTable);
 		} else {
 			aliases.put(join.toString(), DEFAULT_JOIN_TABLE_ALIAS_PREFIX + join.toString());
@@ -366,13 +398,55 @@ public class Engine {
 	 * @return
 	 */
 	private Join parseJoin(JSONObject join) {
-		Entry<String, Object> entry = join.entrySet().iterator().next();
+		Entry<String, Object> entry = joinEntry(join);
 		String joinType = entry.getKey();
 		String joinTable = entry.getValue().toString();
 		Join parseJoin = parseJoin(joinTable, JoinType.from(joinType));
+		if (parseJoin == null || (!join.containsKey(LIMIT) && !join.containsKey(ORDER))) {
+			return parseJoin;
+		}
+		/*
+		 * 一对多或多对多关联中每条主表记录的关联记录数和排序, 如 {"left":"order", "limit":5, "order":"-create_time"}
+		 */
+		if (!parseJoin.isMany()) {
+			throw new DbException(String.format("关联表 [%s] 不是一对多或多对多关联, 不能指定limit和order", joinTable));
+		}
+		if (join.containsKey(LIMIT)) {
+			int limit = join.getInt(LIMIT);
+			if (limit <= 0) {
+				throw new DbException(String.format("关联表 [%s] 的limit [%s] 错误, 必须大于0", joinTable, limit));
+			}
+			parseJoin.setLimit(limit);
+		}
+		if (join.containsKey(ORDER)) {
+			Object order = join.get(ORDER);
+			String[] orderFields = order instanceof JSONArray ? ((JSONArray) order).toStringArray()
+					: new String[] { order.toString() };
+			parseJoin.setOrders(Arrays.stream(orderFields).map(this::parseOrderField).map(field -> {
+				// 关联表的列, 可以带关联表名
+				return field.startsWith(joinTable + ".") ? field.substring(joinTable.length() + 1) : field;
+			}).toArray(String[]::new));
+		}
 		return parseJoin;
 	}
 
+	/**
+	 * 对象形式join中的连接类型和连接表, 其余的键为limit和order
+	 * 
+	 * @param join
+	 * @return
+	 */
+	private Entry<String, Object> joinEntry(JSONObject join) {
+		String limitKey = LIMIT.toString().toLowerCase();
+		String orderKey = ORDER.toString().toLowerCase();
+		for (Entry<String, Object> entry : join.entrySet()) {
+			if (!entry.getKey().equals(limitKey) && !entry.getKey().equals(orderKey)) {
+				return entry;
+			}
+		}
+		throw new DbException(String.format("join [%s] 中没有连接表", join));
+	}
+
 	/**
 	 * 解析String类型join, 从主表的配置中找到关联关系
 	 * 
@@ -407,8 +481,8 @@ public class Engine {
 				} else {
 					associationType = Association.Type.from(type);
 				}
-				return new Join(table, alias, column, joinTable, aliases.get(joinTable),
-						targetColumn, joinType, associationType);
+				return fetch(new Join(table, alias, column, joinTable, aliases.get(joinTable),
+						targetColumn, joinType, associationType), association);
 			}
 		}
 		// 2. 查看join表的配置文件中时候配置了关联
@@ -447,8 +521,8 @@ public class Engine {
 				default:
 					break;
 				}
-				return new Join(table, alias, targetColumn, joinTable, aliases.get(joinTable), joinTableColumn,
-						joinType, associationType);
+				return fetch(new Join(table, alias, targetColumn, joinTable, aliases.get(joinTable), joinTableColumn,
+						joinType, associationType), association);
 			}
 		}
 		/*
@@ -480,14 +554,30 @@ public class Engine {
 					} else {
 						associationType = Association.Type.from(type);
 					}
-					return new Join(tab, aliases.get(tab), otherJoinColumn, joinTable, aliases.get(joinTable),
-							targetColumn, joinType, associationType);
+					return fetch(new Join(tab, aliases.get(tab), otherJoinColumn, joinTable, aliases.get(joinTable),
+							targetColumn, joinType, associationType), association);
 				}
 			}
 		}
 		return null;
 	}
 
+	/**
+	 * 设置关联配置中指定的查询方式
+	 * 
+	 * @param join
+	 * @param association
+	 *            关联配置
+	 * @return
+	 */
+	private Join fetch(Join join, JSONObject association) {
+		Association.Fetch fetch = Association.Fetch.from(association.getString(TableConfig.Association.FETCH));
+		if (fetch != null) {
+			join.setFetch(fetch);
+		}
+		return join;
+	}
+
 	private List<Condition> parseWhere(Object where) {
 		if (where == null) {
 			return Collections.emptyList();
@@ -0,0 +1,492 @@
+package com.mxy.air.db;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.mxy.air.db.Structure.Operator;
+import com.mxy.air.db.builder.Condition;
+import com.mxy.air.db.builder.Join;
+import com.mxy.air.db.builder.Select;
+import com.mxy.air.db.config.TableConfig.Association;
+import com.mxy.air.db.jdbc.Dialect;
+import com.mxy.air.db.jdbc.Page;
+import com.mxy.air.json.JSON;
+import com.mxy.air.json.JSONArray;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * 一对多或多对多关联的批量查询. 先查询主表(包括一对一和多对一关联), 再按主表记录的关联字段值分批查询每个关联表
+ * (where 关联字段 in (...)), 按关联字段值将关联表记录组装到主表记录中. 避免多个一对多关联join产生的笛卡尔积,
+ * 分页时也不需要将主表作为子查询. 不在事务中时, 多个批量查询并行执行.
+ * 限制了每条主表记录的关联记录数的关联总是批量查询: 数据库支持窗口函数时, 用row_number()对这一批主表记录的关联记录
+ * 按关联字段分组编号取前n条, 否则按每条主表记录分别查询
+ *
+ * @author mengxiangyun
+ *
+ */
+class JoinFetcher {
+
+	// 每次批量查询in条件中最多的值数
+	static final int BATCH_SIZE = 1000;
+
+	private static final ExecutorService executor = Executors
+			.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()), r -> {
+				Thread thread = new Thread(r, "air-db-join-fetch");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+	/**
+	 * 批量查询的关联表
+	 */
+	private static class Child {
+
+		// 主表与关联表的关联
+		private final Join join;
+
+		// 关联表的下级关联, 与关联表一起查询
+		private final List<Join> joins = new ArrayList<>();
+
+		// 关联表及其下级关联表
+		private final Set<String> tables = new HashSet<>();
+
+		// 查询的列, 为null时查询所有列
+		private List<String> columns;
+
+		// 关联字段不在查询的列中, 组装后删除
+		private boolean keyAdded;
+
+		private Child(Join join) {
+			this.join = join;
+			tables.add(join.getTargetTable());
+		}
+
+	}
+
+	private final String db;
+
+	private final Dialect dialect;
+
+	private final Select parent;
+
+	private final List<Child> children;
+
+	// 为批量查询附加到主表查询中的关联字段, 组装后删除
+	private final Set<String> addedParentColumns;
+
+	// 主表查询是否已构建, 分页查询中的一对多关联会修改查询条件, 只能构建一次
+	private boolean parentBuilt;
+
+	private JoinFetcher(String db, Select parent, List<Child> children, Set<String> addedParentColumns) {
+		this.db = db;
+		this.dialect = AirContext.getDialect(db);
+		this.parent = parent;
+		this.children = children;
+		this.addedParentColumns = addedParentColumns;
+	}
+
+	/**
+	 * 生成批量查询计划. 只有主表直接关联的一对多或多对多关联可以批量查询, 关联表的下级关联与关联表一起查询.
+	 * 限制了关联记录数的关联总是批量查询, 数据库支持窗口函数时按这一批主表记录的关联字段值编号取前n条, 否则按每条主表记录分别查询.
+	 * 分组查询, 或者查询条件/排序包含批量查询的关联表时, 结果依赖于join, 仍然使用join查询
+	 *
+	 * @param select
+	 *            未构建SQL的查询
+	 * @return 没有需要批量查询的关联时返回null
+	 */
+	static JoinFetcher plan(Select select) {
+		String db = select.db();
+		String table = select.table();
+		List<Join> joins = select.joins();
+		if (joins == null || joins.isEmpty() || (select.groups() != null && select.groups().length > 0)) {
+			return null;
+		}
+		List<Child> children = new ArrayList<>();
+		Set<Join> childJoins = new HashSet<>();
+		for (Join join : joins) {
+			// 限制了关联记录数时批量查询, 窗口函数只对这一批主表记录的关联记录编号, 不对整个关联表编号
+			boolean batch = join.getFetch() == Association.Fetch.BATCH || join.getLimit() != null;
+			if (join.isMany() && batch && join.getTable().equals(table)) {
+				children.add(new Child(join));
+				childJoins.add(join);
+			}
+		}
+		if (children.isEmpty()) {
+			return null;
+		}
+		// 关联表的下级关联, A -> B -> C
+		boolean found = true;
+		while (found) {
+			found = false;
+			for (Join join : joins) {
+				if (childJoins.contains(join)) {
+					continue;
+				}
+				for (Child child : children) {
+					if (child.tables.contains(join.getTable())) {
+						child.joins.add(join);
+						child.tables.add(join.getTargetTable());
+						childJoins.add(join);
+						found = true;
+						break;
+					}
+				}
+			}
+		}
+		Set<String> childTables = new HashSet<>();
+		children.forEach(child -> childTables.addAll(child.tables));
+		if (references(select.conditions(), childTables)) {
+			return null;
+		}
+		if (select.orders() != null) {
+			for (String order : select.orders()) {
+				if (childTables.contains(owner(order, db, table, joins))) {
+					return null;
+				}
+			}
+		}
+		JSONObject columnsConfig = AirContext.getColumnsConfig(db, table);
+		Set<String> addedParentColumns = new HashSet<>();
+		List<String> parentColumns = null;
+		if (select.columns() != null) {
+			parentColumns = new ArrayList<>();
+			for (String column : select.columns()) {
+				String owner = owner(column, db, table, joins);
+				Child child = null;
+				for (Child c : children) {
+					if (c.tables.contains(owner)) {
+						child = c;
+						break;
+					}
+				}
+				if (child == null) {
+					parentColumns.add(column);
+				} else {
+					if (child.columns == null) {
+						child.columns = new ArrayList<>();
+					}
+					child.columns.add(column);
+				}
+			}
+		}
+		for (Child child : children) {
+			String column = child.join.getColumn();
+			if (parentColumns == null) {
+				if (!columnsConfig.containsKey(column)) {
+					return null;
+				}
+			} else if (!contains(parentColumns, table, column) && !addedParentColumns.contains(column)) {
+				parentColumns.add(column);
+				addedParentColumns.add(column);
+			}
+			String targetTable = child.join.getTargetTable();
+			String targetColumn = child.join.getTargetColumn();
+			if (child.columns == null) {
+				if (!AirContext.getColumnsConfig(db, targetTable).containsKey(targetColumn)) {
+					return null;
+				}
+			} else if (!contains(child.columns, targetTable, targetColumn)) {
+				child.columns.add(targetColumn);
+				child.keyAdded = true;
+			}
+		}
+		List<Join> parentJoins = new ArrayList<>(joins);
+		parentJoins.removeAll(childJoins);
+		Select parentSelect = new Select(table, select.alias(), parentJoins,
+				parentColumns == null ? null : parentColumns.toArray(new String[] {}),
+				new ArrayList<>(select.conditions()), null, select.orders(), select.limit());
+		parentSelect.db(db);
+		return new JoinFetcher(db, parentSelect, children, addedParentColumns);
+	}
+
+	/**
+	 * 条件(包括嵌套条件)是否包含指定的表
+	 */
+	private static boolean references(Collection<?> conditions, Set<String> tables) {
+		for (Object object : conditions) {
+			Condition condition = (Condition) object;
+			if (condition.getValue() instanceof Collection) {
+				if (references((Collection<?>) condition.getValue(), tables)) {
+					return true;
+				}
+			} else if (tables.contains(condition.getTable())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 列(或排序)所属的表, 与构建SQL时的判断方式相同: 指定了表名时为该表, 否则为主表或第一个包含该列的关联表
+	 *
+	 * @return 函数等不属于任何表时返回null
+	 */
+	private static String owner(String column, String db, String table, List<Join> joins) {
+		String name = column.trim().split(" +")[0];
+		if (name.contains(".")) {
+			return name.substring(0, name.indexOf('.'));
+		}
+		if (AirContext.getColumnsConfig(db, table).containsKey(name)) {
+			return table;
+		}
+		for (Join join : joins) {
+			if (AirContext.getColumnsConfig(db, join.getTargetTable()).containsKey(name)) {
+				return join.getTargetTable();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 查询的列中是否包含表的指定列
+	 */
+	private static boolean contains(List<String> columns, String table, String column) {
+		for (String c : columns) {
+			String name = c.trim().split(" +")[0];
+			if (name.equals("*") || name.equals(column) || name.equals(table + "." + column)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 查询主表, 批量查询关联表并组装
+	 *
+	 * @param handler
+	 * @return 与join查询的结果结构相同
+	 * @throws SQLException
+	 */
+	JSON query(SQLHandler handler) throws SQLException {
+		buildParent();
+		JSON result = handler.query(parent);
+		JSONArray data = result instanceof JSONArray ? (JSONArray) result
+				: ((JSONObject) result).getArray(PageResult.ATTRIBUTE.DATA);
+		List<Map<String, Object>> records = new ArrayList<>(data.size());
+		data.list().forEach(record -> records.add(map(record)));
+		if (records.isEmpty()) {
+			return result;
+		}
+		// 每个关联表的批量查询, 按关联字段值分批
+		List<Callable<JSONArray>> tasks = new ArrayList<>();
+		List<Child> taskChildren = new ArrayList<>();
+		for (Child child : children) {
+			Map<Object, Object> values = new LinkedHashMap<>();
+			for (Map<String, Object> record : records) {
+				Object value = record.get(child.join.getColumn());
+				if (value != null) {
+					values.putIfAbsent(key(value), value);
+				}
+			}
+			List<Object> distinctValues = new ArrayList<>(values.values());
+			if (child.join.getLimit() != null && !dialect.supportsWindowFunction()) {
+				// 每条主表记录分别查询前n条关联记录
+				for (Object value : distinctValues) {
+					tasks.add(() -> (JSONArray) handler.query(childSelect(child, Operator.EQUAL, value)));
+					taskChildren.add(child);
+				}
+				continue;
+			}
+			for (int i = 0; i < distinctValues.size(); i += BATCH_SIZE) {
+				Object[] batch = distinctValues.subList(i, Math.min(i + BATCH_SIZE, distinctValues.size())).toArray();
+				tasks.add(() -> (JSONArray) handler.query(childSelect(child, Operator.IN, batch)));
+				taskChildren.add(child);
+			}
+		}
+		List<JSONArray> results = execute(tasks);
+		// 按关联字段值组装
+		Map<Child, Map<Object, JSONArray>> groups = new HashMap<>();
+		for (int i = 0; i < results.size(); i++) {
+			Child child = taskChildren.get(i);
+			Map<Object, JSONArray> childGroups = groups.computeIfAbsent(child, c -> new HashMap<>());
+			for (Object object : results.get(i).list()) {
+				Map<String, Object> childRecord = map(object);
+				// 每条主表记录分别查询时, 分页sql附加的列
+				if (child.join.getLimit() != null && !dialect.supportsWindowFunction()) {
+					for (String limitColumn : dialect.limitColumns()) {
+						// 部分数据库返回大写的列名
+						childRecord.keySet().removeIf(limitColumn::equalsIgnoreCase);
+					}
+				}
+				Object value = child.keyAdded ? childRecord.remove(child.join.getTargetColumn())
+						: childRecord.get(child.join.getTargetColumn());
+				if (value != null) {
+					childGroups.computeIfAbsent(key(value), k -> new JSONArray()).add(object);
+				}
+			}
+		}
+		for (Map<String, Object> record : records) {
+			for (Child child : children) {
+				Object value = record.get(child.join.getColumn());
+				JSONArray array = value == null ? null
+						: groups.getOrDefault(child, Collections.emptyMap()).get(key(value));
+				// 与join查询相同, 不存在关联记录时没有该属性
+				if (array != null) {
+					record.put(child.join.getTargetTable(), array);
+				}
+			}
+			addedParentColumns.forEach(record::remove);
+		}
+		return result;
+	}
+
+	// 构建主表查询, 只构建一次
+	private void buildParent() {
+		if (!parentBuilt) {
+			parent.build();
+			parentBuilt = true;
+		}
+	}
+
+	/**
+	 * 主表查询的SQL和参数, 以及每个关联表的批量查询方式, 用于查询结果缓存的键
+	 *
+	 * @return
+	 */
+	String statement() {
+		buildParent();
+		StringBuilder builder = new StringBuilder();
+		builder.append(parent.sql()).append('\n').append(parent.params());
+		for (Child child : children) {
+			Join join = child.join;
+			builder.append('\n').append(join.getColumn()).append(" -> ").append(join.getTargetTable()).append('.')
+					.append(join.getTargetColumn()).append(' ').append(child.columns).append(' ')
+					.append(join.getLimit()).append(' ').append(Arrays.toString(join.getOrders()));
+			for (Join subJoin : child.joins) {
+				builder.append(' ').append(subJoin.getTable()).append(" -> ").append(subJoin.getTargetTable());
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * 关联表的查询
+	 *
+	 * @param child
+	 * @param operator
+	 *            IN: 按一批关联字段值查询, EQUAL: 按一条主表记录的关联字段值查询前n条
+	 * @param value
+	 * @return
+	 */
+	private Select childSelect(Child child, Operator operator, Object value) {
+		Join join = child.join;
+		String alias = join.getTargetAlias();
+		boolean window = join.getLimit() != null && operator == Operator.IN;
+		List<Condition> conditions = new ArrayList<>();
+		// 使用窗口函数时关联字段的条件在分组子查询中
+		if (!window) {
+			conditions.add(new Condition(db, join.getTargetTable(), alias, Operator.AND, operator,
+					join.getTargetColumn(), value));
+		}
+		String[] orders = null;
+		if (window) {
+			orders = new String[] { alias + "." + Select.ROW_NUMBER_COLUMN };
+		} else if (join.getOrders() != null) {
+			orders = Arrays.stream(join.getOrders()).map(order -> alias + "." + order).toArray(String[]::new);
+		}
+		Select select = new Select(join.getTargetTable(), alias, new ArrayList<>(child.joins),
+				child.columns == null ? null : child.columns.toArray(new String[] {}), conditions, null, orders, null);
+		select.db(db);
+		if (window) {
+			Object[] keys = (Object[]) value;
+			select.from(Select.partitionLimit(join.getTargetTable(), join.getTargetColumn(), join.getOrders(),
+					join.getLimit(), keys.length), new ArrayList<>(Arrays.asList(keys)));
+		}
+		select.build();
+		if (operator == Operator.EQUAL && join.getLimit() != null) {
+			select.sql(dialect.processLimit(select.sql()));
+			select.params().addAll(Arrays.asList(dialect.processLimitParams(new Page(0L, join.getLimit()))));
+		}
+		return select;
+	}
+
+	/**
+	 * 执行批量查询, 不在事务中并且有多个查询时并行执行, 事务中的查询需要使用当前线程的连接
+	 */
+	private List<JSONArray> execute(List<Callable<JSONArray>> tasks) throws SQLException {
+		List<JSONArray> results = new ArrayList<>(tasks.size());
+		if (tasks.size() == 1 || !AirContext.getSqlSession(db).isCloseConnection()) {
+			for (Callable<JSONArray> task : tasks) {
+				results.add(call(task));
+			}
+			return results;
+		}
+		JSONObject dbsConfig = AirContext.getDbsConfig();
+		List<Future<JSONArray>> futures = new ArrayList<>(tasks.size());
+		for (Callable<JSONArray> task : tasks) {
+			futures.add(executor.submit(() -> {
+				// 与请求线程使用相同的配置快照和数据源
+				boolean pinned = AirContext.pinDbsConfig(dbsConfig);
+				AirContext.inState(db);
+				try {
+					return task.call();
+				} finally {
+					AirContext.outState();
+					if (pinned) {
+						AirContext.unpinDbsConfig();
+					}
+				}
+			}));
+		}
+		try {
+			for (Future<JSONArray> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			futures.forEach(future -> future.cancel(true));
+			Thread.currentThread().interrupt();
+			throw new DbException(e);
+		} catch (ExecutionException e) {
+			futures.forEach(future -> future.cancel(true));
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new DbException(cause);
+		}
+		return results;
+	}
+
+	private JSONArray call(Callable<JSONArray> task) throws SQLException {
+		try {
+			return task.call();
+		} catch (SQLException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * 关联字段值的比较键, 数值类型不同(如int和bigint)的相同值视为相同
+	 */
+	private static Object key(Object value) {
+		if (value instanceof Number) {
+			return new BigDecimal(value.toString()).stripTrailingZeros();
+		}
+		return value;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> map(Object record) {
+		return record instanceof JSONObject ? ((JSONObject) record).map() : (Map<String, Object>) record;
+	}
+
+}
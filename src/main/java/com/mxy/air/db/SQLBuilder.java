@@ -8,6 +8,7 @@ import java.util.Map;
 
 import com.google.common.base.Strings;
 import com.mxy.air.db.Structure.Operator;
+import com.mxy.air.db.builder.Bulk;
 import com.mxy.air.db.builder.Condition;
 import com.mxy.air.db.builder.Delete;
 import com.mxy.air.db.builder.Insert;
@@ -108,6 +109,10 @@ public abstract class SQLBuilder {
 	public static Delete delete(String table, String alias, List<Condition> conditions) {
 		return new Delete(table, alias, conditions);
     }
+
+	public static Bulk bulk(String table, List<Map<String, Object>> rows) {
+		return new Bulk(table, rows);
+	}
     
 	protected SQLBuilder build() {
 		if (Strings.isNullOrEmpty(table)) {
@@ -253,6 +258,10 @@ public abstract class SQLBuilder {
 		return this;
 	}
 
+	public String alias() {
+		return alias;
+	}
+
 	public List<Join> joins() {
 		return joins;
 	}
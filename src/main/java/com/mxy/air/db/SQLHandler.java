@@ -1,16 +1,42 @@
 package com.mxy.air.db;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.google.inject.Inject;
+import com.mxy.air.db.Structure.Import;
+import com.mxy.air.db.Structure.Operator;
 import com.mxy.air.db.Structure.Type;
+import com.mxy.air.db.builder.Bulk;
+import com.mxy.air.db.builder.Condition;
 import com.mxy.air.db.builder.Insert;
 import com.mxy.air.db.builder.Select;
 import com.mxy.air.db.builder.Update;
+import com.mxy.air.db.builder.es.EsAggregation;
+import com.mxy.air.db.builder.es.EsSelect;
+import com.mxy.air.db.cache.QueryCache;
+import com.mxy.air.db.cache.RowCache;
 import com.mxy.air.db.config.DatacolorConfig;
 import com.mxy.air.db.config.TableConfig;
+import com.mxy.air.db.es.EsHandler;
+import com.mxy.air.db.es.EsWriter;
+import com.mxy.air.db.jdbc.Dialect;
+import com.mxy.air.db.jdbc.handlers.ArrowStreamHandler;
+import com.mxy.air.db.jdbc.handlers.BeanListHandler;
 import com.mxy.air.db.jdbc.trans.Atom;
 import com.mxy.air.json.JSON;
 import com.mxy.air.json.JSONArray;
@@ -30,13 +56,81 @@ public class SQLHandler {
 	@Inject
 	private DataRenderer renderer;
 
+	@Inject
+	private EsHandler esHandler;
+
 	public JSON handle(Engine engine) throws SQLException {
 		Type type = engine.getType();
 		SQLBuilder builder = engine.getBuilder();
-		// 构建SQL语句
-		builder.build();
-		/////// ES 生成原生SQL
+		// 按主键的详细查询读取记录缓存
+		if (type == Type.DETAIL) {
+			Condition primaryCondition = rowCacheCondition(builder);
+			if (primaryCondition != null) {
+				return cachedDetail(builder, primaryCondition);
+			}
+		}
+		// 一对多或多对多关联批量查询时, 分别构建主表和关联表的SQL
+		JoinFetcher fetcher = null;
+		if ((type == Type.QUERY || type == Type.SELECT) && builder instanceof Select
+				&& !AirContext.isElasticsearch(builder.db())) {
+			fetcher = JoinFetcher.plan((Select) builder);
+		}
+		if (fetcher == null) {
+			// 构建SQL语句
+			builder.build();
+		}
+		// 查询结果缓存
+		QueryCache.Key cacheKey = cacheKey(type, builder, fetcher);
+		if (cacheKey != null) {
+			JSON cached = AirContext.getQueryCache().get(cacheKey);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		JSON result = fetcher != null ? fetcher.query(this) : execute(engine);
+		if (cacheKey != null) {
+			AirContext.getQueryCache().put(cacheKey, result);
+		}
+		return result;
+	}
+
+	/**
+	 * 执行已构建SQL的请求
+	 * 
+	 * @param engine
+	 * @return
+	 * @throws SQLException
+	 */
+	private JSON execute(Engine engine) throws SQLException {
+		Type type = engine.getType();
+		SQLBuilder builder = engine.getBuilder();
+		/////// ES 查询直接转换为Query DSL, 分组查询转换为聚合, 写操作通过_bulk API, 其他情况生成原生SQL
 		if (AirContext.isElasticsearch(builder.db())) {
+			if (isWrite(type)) {
+				JSONObject result = esWrite(builder.db(), Collections.singletonList(engine)).getObject(0);
+				if (type == Type.INSERT && result.containsKey("error")) {
+					throw new DbException(String.format("ES新增文档失败: %s", result.getString("error")));
+				}
+				return result;
+			}
+			if (builder instanceof EsSelect && ((EsSelect) builder).isDsl()
+					&& (type == Type.DETAIL || type == Type.QUERY || type == Type.SELECT)) {
+				try {
+					return type == Type.DETAIL ? esHandler.detail((EsSelect) builder)
+							: esHandler.query((EsSelect) builder);
+				} catch (IOException e) {
+					throw new DbException(e);
+				}
+			}
+			// 分组查询转换为ES聚合
+			EsAggregation aggregation = builder instanceof EsSelect ? ((EsSelect) builder).aggregation() : null;
+			if (aggregation != null && (type == Type.QUERY || type == Type.SELECT)) {
+				try {
+					return esHandler.aggregate((EsSelect) builder, aggregation);
+				} catch (IOException e) {
+					throw new DbException(e);
+				}
+			}
 			builder.nativeSQL();
 		}
 		/////////////////////
@@ -52,6 +146,8 @@ public class SQLHandler {
 			return update(builder);
 		case DELETE:
 			return delete(builder);
+		case BULK:
+			return bulk(builder);
 
 		default:
 			break;
@@ -59,6 +155,189 @@ public class SQLHandler {
 		throw new DbException("操作类型错误[" + type + "]");
 	}
 
+	/**
+	 * 关系数据库查询的缓存键. 未开启查询结果缓存, 查询涉及的表未开启缓存, 或在事务中(可能读到未提交的数据)时返回null
+	 * 
+	 * @param type
+	 * @param builder
+	 *            已构建SQL的请求, 批量查询时为原请求
+	 * @param fetcher
+	 *            批量查询, 没有时为null
+	 * @return
+	 */
+	private QueryCache.Key cacheKey(Type type, SQLBuilder builder, JoinFetcher fetcher) {
+		QueryCache queryCache = AirContext.getQueryCache();
+		String db = builder.db();
+		if (queryCache == null || (type != Type.DETAIL && type != Type.QUERY && type != Type.SELECT)
+				|| builder.table() == null || AirContext.isElasticsearch(db)
+				|| !AirContext.getSqlSession(db).isCloseConnection()) {
+			return null;
+		}
+		Set<String> tables = new LinkedHashSet<>();
+		tables.add(builder.table());
+		if (builder.joins() != null) {
+			builder.joins().forEach(join -> tables.add(join.getTargetTable()));
+		}
+		String statement = fetcher == null ? builder.sql() + "\n" + builder.params() : fetcher.statement();
+		return queryCache.key(db, tables, type + "\n" + statement);
+	}
+
+	/**
+	 * 写操作后使涉及该表的查询结果缓存失效, 无法确定表时(原生SQL)使数据源的所有缓存失效.
+	 * 记录缓存中更新或删除条件为主键时只移除这些主键的记录, 否则移除该表的所有记录
+	 * 
+	 * @param builder
+	 */
+	private void invalidateCache(SQLBuilder builder) {
+		String db = builder.db() == null ? AirContext.getDefaultDb() : builder.db();
+		QueryCache queryCache = AirContext.getQueryCache();
+		if (queryCache != null) {
+			if (builder.table() == null) {
+				queryCache.invalidateAll(db);
+			} else {
+				queryCache.invalidate(db, builder.table());
+			}
+		}
+		RowCache rowCache = AirContext.getRowCache();
+		if (rowCache != null) {
+			if (builder.table() == null) {
+				rowCache.invalidateAll(db);
+			} else if (builder instanceof Insert) {
+				// 新增的记录不在缓存中, 只防止并发的查询缓存旧数据
+				rowCache.touch(db, builder.table());
+			} else {
+				List<Object> ids = primaryKeyValues(db, builder);
+				if (ids == null) {
+					rowCache.invalidateTable(db, builder.table());
+				} else {
+					ids.forEach(id -> rowCache.invalidate(db, builder.table(), id));
+				}
+			}
+		}
+	}
+
+	/**
+	 * 可以读取记录缓存的详细查询的主键条件. 未开启记录缓存, 表未开启记录缓存或没有主键, 关联或分组查询, 在事务中,
+	 * 条件不是唯一的主键等于条件, 或查询的列不都是主表配置的列时返回null
+	 * 
+	 * @param builder
+	 * @return
+	 */
+	private Condition rowCacheCondition(SQLBuilder builder) {
+		String db = builder.db();
+		String table = builder.table();
+		if (AirContext.getRowCache() == null || table == null || !(builder instanceof Select)
+				|| AirContext.isElasticsearch(db) || !builder.isEmpty(builder.joins())
+				|| !builder.isEmpty(builder.groups()) || builder.limit() != null
+				|| !AirContext.getSqlSession(db).isCloseConnection()) {
+			return null;
+		}
+		Condition condition = primaryKeyCondition(db, builder);
+		if (condition == null || condition.getOperator() != Operator.EQUAL || condition.getValue() == null
+				|| condition.getValue().getClass().isArray()) {
+			return null;
+		}
+		if (builder.columns() != null) {
+			JSONObject columnsConfig = AirContext.getColumnsConfig(db, table);
+			for (String column : builder.columns()) {
+				if (!columnsConfig.containsKey(cachedColumn(table, column))) {
+					return null;
+				}
+			}
+		}
+		return condition;
+	}
+
+	/**
+	 * 开启了记录缓存的表的唯一条件为主键条件时返回该条件, 否则返回null
+	 */
+	private Condition primaryKeyCondition(String db, SQLBuilder builder) {
+		JSONObject tableConfig = AirContext.getTableConfig(db, builder.table());
+		if (!Boolean.TRUE.equals(tableConfig.get(TableConfig.ROW_CACHE))
+				|| !tableConfig.containsKey(TableConfig.PRIMARY_KEY) || builder.conditions() == null
+				|| builder.conditions().size() != 1) {
+			return null;
+		}
+		Condition condition = builder.conditions().get(0);
+		if (condition.getValue() instanceof Collection || !builder.table().equals(condition.getTable())
+				|| !tableConfig.getString(TableConfig.PRIMARY_KEY).equals(condition.getColumn())) {
+			return null;
+		}
+		return condition;
+	}
+
+	/**
+	 * 更新或删除条件中的主键值
+	 * 
+	 * @return 表未开启记录缓存时返回空列表, 条件不是主键的等于或in条件时返回null
+	 */
+	private List<Object> primaryKeyValues(String db, SQLBuilder builder) {
+		if (!Boolean.TRUE.equals(AirContext.getTableConfig(db, builder.table()).get(TableConfig.ROW_CACHE))) {
+			return Collections.emptyList();
+		}
+		Condition condition = primaryKeyCondition(db, builder);
+		if (condition == null || condition.getValue() == null) {
+			return null;
+		}
+		Object value = condition.getValue();
+		if (condition.getOperator() == Operator.EQUAL && !value.getClass().isArray()) {
+			return Collections.singletonList(value);
+		} else if (condition.getOperator() == Operator.IN) {
+			return Arrays.asList(value instanceof Object[] ? (Object[]) value : value.toString().split(","));
+		}
+		return null;
+	}
+
+	/**
+	 * 查询的列对应的主表的列名, 列可以带主表名前缀
+	 */
+	private String cachedColumn(String table, String column) {
+		return column.startsWith(table + ".") ? column.substring(table.length() + 1) : column;
+	}
+
+	/**
+	 * 按主键查询单个记录, 先读取记录缓存, 未命中时查询所有列并缓存. 缓存数据库中的原始值, 返回前按查询的列和列配置渲染
+	 * 
+	 * @param builder
+	 * @param primaryCondition
+	 *            主键条件
+	 * @return
+	 * @throws SQLException
+	 */
+	private JSONObject cachedDetail(SQLBuilder builder, Condition primaryCondition) throws SQLException {
+		RowCache rowCache = AirContext.getRowCache();
+		String db = builder.db();
+		String table = builder.table();
+		Object id = primaryCondition.getValue();
+		Map<String, Object> detail = rowCache.get(db, table, id);
+		if (detail == null) {
+			RowCache.Stamp stamp = rowCache.stamp(db, table);
+			Select select = SQLBuilder.select(table);
+			select.db(db);
+			select.conditions().add(new Condition(db, table, select.alias(), Operator.AND, Operator.EQUAL,
+					primaryCondition.getColumn(), id));
+			select.build();
+			detail = AirContext.getSqlSession(db).detail(select.sql(), select.params().toArray());
+			if (detail != null) {
+				rowCache.put(db, table, id, detail, stamp);
+			}
+		}
+		if (detail != null && builder.columns() != null) {
+			Map<String, Object> columns = new LinkedHashMap<>();
+			for (String column : builder.columns()) {
+				String name = cachedColumn(table, column);
+				// 部分数据库返回大写的列名
+				detail.entrySet().stream().filter(e -> e.getKey().equalsIgnoreCase(name)).findFirst()
+						.ifPresent(e -> columns.put(e.getKey(), e.getValue()));
+			}
+			detail = columns;
+		}
+		// 结果渲染
+		JSONObject columnsConfig = AirContext.getColumnsConfig(db, table);
+		renderer.render(detail, columnsConfig);
+		return new JSONObject(detail);
+	}
+
 	/**
 	 * 查询单个记录
 	 * 
@@ -85,13 +364,23 @@ public class SQLHandler {
 	public JSON query(SQLBuilder builder) throws SQLException {
 		SQLSession sqlSession = AirContext.getSqlSession(builder.db());
 		List<Map<String, Object>> list = sqlSession.list(builder.sql(), builder.params().toArray());
+		// 删除分页附加的列, 如果总记录数随查询结果一起返回, 从中取出总记录数
+		Long resultTotal = null;
+		if (builder.limit() != null) {
+			resultTotal = removeLimitColumns(list, AirContext.getDialect(builder.db()));
+		}
 		// 结果渲染
 		JSONArray data = renderer.render(list, builder);
 		// 分页查询, 查询总记录数
 		if (builder.limit() != null) {
-			String countSql = ((Select) builder).getCountSql();
-			Object[] countParams = ((Select) builder).getWhereParams().toArray();
-			long total = sqlSession.count(countSql, countParams);
+			long total;
+			if (resultTotal != null && ((Select) builder).isTotalInResult()) {
+				total = resultTotal;
+			} else {
+				String countSql = ((Select) builder).getCountSql();
+				Object[] countParams = ((Select) builder).getWhereParams().toArray();
+				total = sqlSession.count(countSql, countParams);
+			}
 			long[] limit = builder.limit();
 			JSONObject result = PageResult.wrap(limit[0], limit[1], total, data);
 			return result;
@@ -100,6 +389,221 @@ public class SQLHandler {
 		}
 	}
 
+	/**
+	 * 删除分页sql附加到查询结果中的列
+	 * 
+	 * @param list
+	 * @param dialect
+	 * @return 总记录数, 查询结果中不包含总记录数时返回null
+	 */
+	private Long removeLimitColumns(List<Map<String, Object>> list, Dialect dialect) {
+		String[] limitColumns = dialect.limitColumns();
+		if (limitColumns.length == 0) {
+			return null;
+		}
+		Long total = null;
+		for (Map<String, Object> record : list) {
+			Long recordTotal = removeLimitColumns(record, limitColumns);
+			if (total == null) {
+				total = recordTotal;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * 删除单条记录中分页sql附加的列
+	 * 
+	 * @param record
+	 * @param limitColumns
+	 * @return 总记录数, 记录中不包含总记录数时返回null
+	 */
+	private Long removeLimitColumns(Map<String, Object> record, String[] limitColumns) {
+		Long total = null;
+		Iterator<Map.Entry<String, Object>> iterator = record.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Object> entry = iterator.next();
+			for (String limitColumn : limitColumns) {
+				// 部分数据库返回大写的列名
+				if (limitColumn.equalsIgnoreCase(entry.getKey())) {
+					if (total == null && Dialect.TOTAL_COLUMN.equalsIgnoreCase(entry.getKey())
+							&& entry.getValue() != null) {
+						total = ((Number) entry.getValue()).longValue();
+					}
+					iterator.remove();
+					break;
+				}
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * 处理请求并将JSON结果写入writer. 关系数据库的单表查询逐行读取, 每行渲染后直接写入, 不生成完整的结果;
+	 * 其他请求写入完整的结果
+	 * 
+	 * @param engine
+	 * @param writer
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public void handle(Engine engine, Writer writer) throws SQLException, IOException {
+		Type type = engine.getType();
+		SQLBuilder builder = engine.getBuilder();
+		boolean stream = (type == Type.QUERY || type == Type.SELECT) && !AirContext.isElasticsearch(builder.db())
+				&& (builder.joins() == null || builder.joins().isEmpty());
+		if (!stream) {
+			writer.write(handle(engine).toString());
+			return;
+		}
+		builder.build();
+		try {
+			stream(builder, writer);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * 查询并将结果以Arrow IPC流格式写入输出流, 每读取batchSize行写入一个RecordBatch. 只支持关系数据库的查询,
+	 * 关联查询的列为SQL查询结果的列, 不嵌套关联对象; 分页查询只写入当前页的数据. 写入的是数据库中的原始值,
+	 * 不按CODE/FORMAT等配置渲染
+	 * 
+	 * @param engine
+	 * @param out
+	 *            输出流, 写入完成后不关闭
+	 * @param batchSize
+	 *            每个RecordBatch的行数
+	 * @return 写入的行数
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public long arrow(Engine engine, OutputStream out, int batchSize) throws SQLException, IOException {
+		Type type = engine.getType();
+		SQLBuilder builder = engine.getBuilder();
+		if ((type != Type.QUERY && type != Type.SELECT) || AirContext.isElasticsearch(builder.db())) {
+			throw new DbException("Arrow格式只支持关系数据库的查询");
+		}
+		builder.build();
+		SQLSession sqlSession = AirContext.getSqlSession(builder.db());
+		String[] limitColumns = builder.limit() == null ? new String[0]
+				: AirContext.getDialect(builder.db()).limitColumns();
+		JSONObject columnsConfig = builder.table() == null ? null
+				: AirContext.getColumnsConfig(builder.db(), builder.table());
+		try {
+			return sqlSession.query(builder.sql(), builder.params().toArray(),
+					new ArrowStreamHandler(out, columnsConfig, limitColumns, batchSize));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * 查询并将结果映射为指定类型的对象. 关系数据库的单表查询直接从ResultSet映射, 不生成Map和JSON;
+	 * 关联查询和ES查询将JSON结果转换为对象. 分页查询只返回当前页的数据
+	 * 
+	 * @param engine
+	 * @param type
+	 * @return
+	 * @throws SQLException
+	 */
+	public <T> List<T> handle(Engine engine, Class<T> type) throws SQLException {
+		Type operation = engine.getType();
+		SQLBuilder builder = engine.getBuilder();
+		if (operation != Type.DETAIL && operation != Type.QUERY && operation != Type.SELECT) {
+			throw new DbException(String.format("操作类型 [%s] 不支持映射为对象", operation));
+		}
+		if (!AirContext.isElasticsearch(builder.db()) && (builder.joins() == null || builder.joins().isEmpty())) {
+			builder.build();
+			SQLSession sqlSession = AirContext.getSqlSession(builder.db());
+			// 分页sql附加的列不映射, 查询单个记录时只读取第一行
+			String[] limitColumns = builder.limit() == null ? new String[0]
+					: AirContext.getDialect(builder.db()).limitColumns();
+			return sqlSession.list(builder.sql(), builder.params().toArray(),
+					new BeanListHandler<>(type, limitColumns, operation == Type.DETAIL ? 1 : 0));
+		}
+		JSON result = handle(engine);
+		List<T> list = new ArrayList<>();
+		if (operation == Type.DETAIL) {
+			if (!((JSONObject) result).isEmpty()) {
+				list.add(((JSONObject) result).toBean(type));
+			}
+			return list;
+		}
+		JSONArray data = result instanceof JSONArray ? (JSONArray) result
+				: ((JSONObject) result).getArray(PageResult.ATTRIBUTE.DATA);
+		for (Object record : data.list()) {
+			JSONObject object = record instanceof JSONObject ? (JSONObject) record
+					: new JSONObject(castMap(record));
+			list.add(object.toBean(type));
+		}
+		return list;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> castMap(Object record) {
+		return (Map<String, Object>) record;
+	}
+
+	/**
+	 * 逐行写入查询结果, 分页查询时写入分页结果, 总记录数在数据之后写入
+	 * 
+	 * @param builder
+	 * @param writer
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	private void stream(SQLBuilder builder, Writer writer) throws SQLException, IOException {
+		SQLSession sqlSession = AirContext.getSqlSession(builder.db());
+		JSONObject columnsConfig = AirContext.getColumnsConfig(builder.db(), builder.table());
+		long[] limit = builder.limit();
+		String[] limitColumns = limit == null ? new String[0] : AirContext.getDialect(builder.db()).limitColumns();
+		if (limit != null) {
+			writer.write("{" + key(PageResult.ATTRIBUTE.START) + limit[0] + "," + key(PageResult.ATTRIBUTE.END)
+					+ limit[1] + "," + key(PageResult.ATTRIBUTE.DATA));
+		}
+		writer.write('[');
+		// 查询结果中的总记录数
+		Long[] resultTotal = { null };
+		boolean[] first = { true };
+		sqlSession.each(builder.sql(), builder.params().toArray(), record -> {
+			if (limitColumns.length > 0) {
+				Long recordTotal = removeLimitColumns(record, limitColumns);
+				if (resultTotal[0] == null) {
+					resultTotal[0] = recordTotal;
+				}
+			}
+			renderer.render(record, columnsConfig);
+			try {
+				if (!first[0]) {
+					writer.write(',');
+				}
+				first[0] = false;
+				writer.write(new JSONObject(record).toString());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		writer.write(']');
+		if (limit == null) {
+			return;
+		}
+		// 分页查询, 查询总记录数
+		long total;
+		if (resultTotal[0] != null && ((Select) builder).isTotalInResult()) {
+			total = resultTotal[0];
+		} else {
+			String countSql = ((Select) builder).getCountSql();
+			Object[] countParams = ((Select) builder).getWhereParams().toArray();
+			total = sqlSession.count(countSql, countParams);
+		}
+		writer.write("," + key(PageResult.ATTRIBUTE.TOTAL) + total + "}");
+	}
+
+	private String key(PageResult.ATTRIBUTE attribute) {
+		return "\"" + attribute.toString().toLowerCase() + "\":";
+	}
+
 	/**
 	 * 插入一条记录
 	 * 
@@ -116,6 +620,7 @@ public class SQLHandler {
 		// 重新构建SQLBuilder, 生成新的SQL语句和参数
 		builder.build();
 		Object key = sqlSession.insert(builder.sql(), builder.params().toArray());
+		invalidateCache(builder);
 		// 方法返回值, 多个数据库生成的id组成的数组, 包括关联表id
 		JSONObject result = new JSONObject(builder.values());
 		// 返回插入的主键
@@ -153,6 +658,7 @@ public class SQLHandler {
 		// 重新构建SQLBuilder, 生成新的SQL语句和参数
 		builder.build();
 		int updateCount = sqlSession.update(builder.sql(), builder.params().toArray());
+		invalidateCache(builder);
 		return new JSONObject("count", updateCount);
 	}
 
@@ -167,9 +673,123 @@ public class SQLHandler {
 	public JSONObject delete(SQLBuilder builder) throws SQLException {
 		SQLSession sqlSession = AirContext.getSqlSession(builder.db());
 		int deleteCount = sqlSession.delete(builder.sql(), builder.params().toArray());
+		invalidateCache(builder);
 		return new JSONObject("count", deleteCount);
 	}
 
+	/**
+	 * 批量导入
+	 * 
+	 * @param builder
+	 * @return
+	 * @throws SQLException
+	 */
+	public JSONObject bulk(SQLBuilder builder) throws SQLException {
+		SQLSession sqlSession = AirContext.getSqlSession(builder.db());
+		Bulk bulk = (Bulk) builder;
+		// 验证并处理请求数据
+		processBulk(bulk);
+		if (bulk.columns().length == 0) {
+			return new JSONObject("count", 0);
+		}
+		long count;
+		try {
+			count = sqlSession.bulkLoad(AirContext.getDialect(builder.db()), bulk.table(), bulk.columns(),
+					bulk.rowIterator());
+		} finally {
+			// 导入失败时可能已经导入了部分数据
+			invalidateCache(builder);
+		}
+		return new JSONObject("count", count);
+	}
+
+	/**
+	 * 验证和处理批量导入的数据(默认值, 必填, 唯一), 与新增相同, 任意一行验证失败时不导入任何数据.
+	 * 唯一字段按批查询数据库中已存在的值, 不逐行查询
+	 * 
+	 * @param bulk
+	 * @throws SQLException
+	 */
+	private void processBulk(Bulk bulk) throws SQLException {
+		List<Map<String, Object>> rows = bulk.rows();
+		if (rows == null || rows.isEmpty()) {
+			return;
+		}
+		String[] errors = processor.process(bulk.db(), bulk.table(), rows);
+		for (int i = 0; i < errors.length; i++) {
+			if (errors[i] != null) {
+				throw new DbException(String.format("第 %d 条数据错误: %s", i + 1, errors[i]));
+			}
+		}
+		// 默认值可能增加了导入的列, 重新构建
+		bulk.build();
+	}
+
+	/**
+	 * 导入CSV数据, 只支持关系数据库
+	 * 
+	 * @param db
+	 * @param table
+	 * @param reader
+	 *            CSV数据, 由调用者关闭
+	 * @param batchSize
+	 *            每批验证和写入的行数
+	 * @param mode
+	 *            写入方式
+	 * @param maxErrors
+	 *            失败的行数超过该值时停止导入, 小于0为不限制
+	 * @return
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public JSONObject importCsv(String db, String table, Reader reader, int batchSize, Import.Mode mode,
+			long maxErrors) throws SQLException, IOException {
+		if (AirContext.isElasticsearch(db)) {
+			throw new DbException("CSV导入只支持关系数据库");
+		}
+		try {
+			return new CsvImporter(processor, db, table, batchSize, mode, maxErrors).run(reader);
+		} finally {
+			// 导入失败时可能已经导入了部分数据
+			invalidateCache(SQLBuilder.bulk(table, null).db(db));
+		}
+	}
+
+	private boolean isWrite(Type type) {
+		return type == Type.INSERT || type == Type.UPDATE || type == Type.DELETE || type == Type.BULK;
+	}
+
+	/**
+	 * ES写操作, 所有操作通过一次批量写入执行
+	 * 
+	 * @param db
+	 * @param engines
+	 * @return 每个操作的执行结果
+	 * @throws SQLException
+	 */
+	private JSONArray esWrite(String db, List<Engine> engines) throws SQLException {
+		List<SQLBuilder> builders = new ArrayList<>();
+		for (Engine engine : engines) {
+			if (!isWrite(engine.getType())) {
+				throw new DbException(String.format("ES事务不支持操作类型 [%s]", engine.getType()));
+			}
+			SQLBuilder builder = engine.getBuilder();
+			// 验证并处理请求数据
+			if (engine.getType() == Type.INSERT || engine.getType() == Type.UPDATE) {
+				processor.process(builder);
+			} else if (engine.getType() == Type.BULK) {
+				processBulk((Bulk) builder);
+			}
+			builder.build();
+			builders.add(builder);
+		}
+		try {
+			return new EsWriter(esHandler).write(db, builders);
+		} catch (IOException e) {
+			throw new DbException(e);
+		}
+	}
+
 	/**
 	 * 事务操作
 	 * 
@@ -178,23 +798,39 @@ public class SQLHandler {
 	 * @throws SQLException
 	 */
 	public JSONArray transaction(String db, List<Engine> engines) throws SQLException {
+		// ES不支持事务, 所有写操作合并为一次批量写入
+		if (AirContext.isElasticsearch(db)) {
+			return esWrite(db, engines);
+		}
 		JSONArray result = new JSONArray();
 		// 跨数据库事务暂不支持
 		SQLSession sqlSession = AirContext.getSqlSession(db);
-		sqlSession.trans(new Atom() {
-
-			@Override
-			public void run() {
-				for (Engine engine : engines) {
-					try {
-						result.add(handle(engine));
-					} catch (SQLException e) {
-						throw new RuntimeException(e);
+		try {
+			sqlSession.trans(new Atom() {
+
+				@Override
+				public void run() {
+					for (Engine engine : engines) {
+						try {
+							result.add(handle(engine));
+						} catch (SQLException e) {
+							throw new RuntimeException(e);
+						}
 					}
-				}
 
+				}
+			});
+		} finally {
+			/*
+			 * 事务中的写操作执行后已经使缓存失效, 但在提交之前其他线程仍然可能读到并缓存旧数据,
+			 * 事务结束后再次使写操作的表的缓存失效
+			 */
+			for (Engine engine : engines) {
+				if (isWrite(engine.getType())) {
+					invalidateCache(engine.getBuilder());
+				}
 			}
-		});
+		}
 
 		return result;
 	}
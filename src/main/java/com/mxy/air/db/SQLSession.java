@@ -2,8 +2,10 @@ package com.mxy.air.db;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import javax.sql.DataSource;
 
@@ -11,11 +13,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mxy.air.db.annotation.SQLLog;
+import com.mxy.air.db.jdbc.Dialect;
 import com.mxy.air.db.jdbc.JdbcRunner;
 import com.mxy.air.db.jdbc.ResultSetHandler;
 import com.mxy.air.db.jdbc.handlers.EsObjectHandler;
 import com.mxy.air.db.jdbc.handlers.MapHandler;
 import com.mxy.air.db.jdbc.handlers.MapListHandler;
+import com.mxy.air.db.jdbc.handlers.MapStreamHandler;
 import com.mxy.air.db.jdbc.handlers.ObjectHandler;
 import com.mxy.air.db.jdbc.trans.Atom;
 
@@ -183,6 +187,50 @@ public class SQLSession {
 				params);
 	}
 
+	/**
+	 * 查询并将每行映射为对象
+	 * 
+	 * @param sql
+	 * @param params
+	 * @param handler
+	 * @return
+	 * @throws SQLException
+	 */
+	@SQLLog
+	public <T> List<T> list(String sql, Object[] params, ResultSetHandler<List<T>> handler) throws SQLException {
+		return runner.query(getConnection(), isCloseConnection(), sql, handler, params);
+	}
+
+	/**
+	 * 逐行读取查询结果
+	 * 
+	 * @param sql
+	 * @param params
+	 * @param consumer
+	 *            每行数据的消费者
+	 * @return 读取的行数
+	 * @throws SQLException
+	 */
+	@SQLLog
+	public long each(String sql, Object[] params, Consumer<Map<String, Object>> consumer) throws SQLException {
+		return runner.query(getConnection(), isCloseConnection(), sql,
+				new MapStreamHandler(AirContext.getRowProcessor(), consumer), params);
+	}
+
+	/**
+	 * 查询并由handler处理查询结果
+	 * 
+	 * @param sql
+	 * @param params
+	 * @param handler
+	 * @return
+	 * @throws SQLException
+	 */
+	@SQLLog
+	public <T> T query(String sql, Object[] params, ResultSetHandler<T> handler) throws SQLException {
+		return runner.query(getConnection(), isCloseConnection(), sql, handler, params);
+	}
+
 	@SQLLog
 	public long count(String sql, Object[] params) throws SQLException {
 		ResultSetHandler<Object> resultSetHandler = AirContext.isElasticsearch() ? new EsObjectHandler()
@@ -213,4 +261,19 @@ public class SQLSession {
 		return runner.update(getConnection(), isCloseConnection(), sql, params);
 	}
 
+	/**
+	 * 批量导入, 导入方式由数据库方言决定
+	 * 
+	 * @param dialect
+	 * @param table
+	 * @param columns
+	 * @param rows
+	 * @return 导入的行数
+	 * @throws SQLException
+	 */
+	public long bulkLoad(Dialect dialect, String table, String[] columns, Iterator<Object[]> rows)
+			throws SQLException {
+		return runner.bulkLoad(getConnection(), isCloseConnection(), dialect, table, columns, rows);
+	}
+
 }
@@ -51,11 +51,31 @@ public enum Structure {
 	 * 返回结果
 	 */
 	RESULT,
+
+	/*
+	 * 列式结果中字典编码的列
+	 */
+	DICTIONARY,
+
+	/*
+	 * 一对多或多对多关联的查询方式, 覆盖关联配置中的fetch
+	 */
+	FETCH,
 	
 	/*
 	 * 模板
 	 */
-	TEMPLATE;
+	TEMPLATE,
+
+	/*
+	 * ES深度导出
+	 */
+	EXPORT,
+
+	/*
+	 * CSV导入
+	 */
+	IMPORT;
 	
 	/**
 	 * 操作类型
@@ -86,6 +106,11 @@ public enum Structure {
 		 */
 		DELETE,
 
+		/*
+		 * 批量导入, 由数据库方言决定导入方式
+		 */
+		BULK,
+
 		/*
 		 * 事务
 		 */
@@ -293,7 +318,72 @@ public enum Structure {
 	 * 返回结果
 	 */
 	public enum Result {
-		CSV
+		CSV, JSON,
+		/*
+		 * 列式结果, 每列的值为一个数组
+		 */
+		COLUMNAR,
+		/*
+		 * 行数组结果, 每行的值为一个数组, 列名只在头部出现一次
+		 */
+		ROWS,
+		/*
+		 * Arrow IPC流格式
+		 */
+		ARROW
+	}
+
+	/*
+	 * ES深度导出参数
+	 */
+	public enum Export {
+		/*
+		 * 并行读取的分片数
+		 */
+		SLICES,
+		/*
+		 * 每页文档数
+		 */
+		SIZE,
+		/*
+		 * scroll上下文保持时间
+		 */
+		KEEP_ALIVE
+	}
+
+	/*
+	 * CSV导入参数
+	 */
+	public enum Import {
+		/*
+		 * 每批验证和写入的行数
+		 */
+		BATCH_SIZE,
+		/*
+		 * 写入方式: batch为JDBC批处理, bulk为数据库方言的批量导入
+		 */
+		MODE,
+		/*
+		 * 失败的行数超过该值时停止导入
+		 */
+		MAX_ERRORS;
+
+		/*
+		 * 写入方式
+		 */
+		public enum Mode {
+			BATCH, BULK;
+
+			public static Mode from(String name) {
+				for (Mode mode : values()) {
+					// 不区分大小写
+					if (mode.toString().equalsIgnoreCase(name)) {
+						return mode;
+					}
+				}
+				return null;
+			}
+		}
 	}
 
 }
@@ -0,0 +1,324 @@
+package com.mxy.air.db;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mxy.air.db.config.DatacolorConfig.Datasource;
+import com.mxy.air.db.es.EsMappingCache;
+import com.mxy.air.db.schema.ColumnInfo;
+import com.mxy.air.db.schema.SchemaCache;
+import com.mxy.air.db.schema.SchemaLoader;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * 数据库表配置热加载. 监听数据库表配置路径(根目录及各数据源目录)下的文件变化, 只重新读取变化的数据库表配置文件,
+ * 与该表的数据库表结构合并后生成新的数据源配置, 然后整体替换数据库表配置快照. 正在处理的请求继续使用原快照
+ *
+ * @author mengxiangyun
+ *
+ */
+class TableConfigReloader implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(TableConfigReloader.class);
+
+	// 合并短时间内的多次文件变化, 如编辑器保存文件时的多次写入
+	private static final long DEBOUNCE_MILLIS = 200;
+
+	// 数据库表配置根路径
+	private final Path configPath;
+
+	private final Set<String> dbs;
+
+	private final String defaultDb;
+
+	private final WatchService watchService;
+
+	// 监听的目录
+	private final Map<WatchKey, Path> dirs = new HashMap<>();
+
+	// 每个数据库表配置文件最后一次读取成功的内容
+	private final Map<Path, TableFile> files = new HashMap<>();
+
+	private TableConfigReloader(Path configPath, Set<String> dbs, String defaultDb) throws IOException {
+		this.configPath = configPath.toAbsolutePath().normalize();
+		this.dbs = dbs;
+		this.defaultDb = defaultDb;
+		this.watchService = this.configPath.getFileSystem().newWatchService();
+		register(this.configPath);
+		for (String db : dbs) {
+			Path dbPath = this.configPath.resolve(db);
+			if (Files.isDirectory(dbPath)) {
+				register(dbPath);
+			}
+		}
+		for (Path file : listFiles()) {
+			TableFile tableFile = read(file);
+			if (tableFile != null) {
+				files.put(file, tableFile);
+			}
+		}
+	}
+
+	/**
+	 * 启动数据库表配置热加载线程
+	 *
+	 * @param configPath
+	 *            数据库表配置路径
+	 * @param dbs
+	 *            数据源名称集合
+	 * @param defaultDb
+	 *            默认数据源, 根目录下的数据库表配置为默认数据源的数据库表配置
+	 */
+	static void start(Path configPath, Set<String> dbs, String defaultDb) {
+		// 位于jar包等非默认文件系统中的配置文件无法监听
+		if (configPath.getFileSystem() != FileSystems.getDefault()) {
+			logger.warn("数据库表配置路径 [{}] 不在本地文件系统中, 不支持热加载", configPath);
+			return;
+		}
+		TableConfigReloader reloader;
+		try {
+			reloader = new TableConfigReloader(configPath, dbs, defaultDb);
+		} catch (IOException e) {
+			throw new DbException(e);
+		}
+		Thread thread = new Thread(reloader, "air-db-config-reloader");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				Thread.sleep(DEBOUNCE_MILLIS);
+				Set<Path> changed = new LinkedHashSet<>();
+				boolean overflow = false;
+				do {
+					Path dir = dirs.get(key);
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == OVERFLOW) {
+							overflow = true;
+						} else if (dir != null) {
+							changed.add(dir.resolve((Path) event.context()));
+						}
+					}
+					key.reset();
+				} while ((key = watchService.poll()) != null);
+				// 事件丢失时重新检查所有文件
+				if (overflow) {
+					changed.addAll(files.keySet());
+					changed.addAll(listFiles());
+				}
+				reload(changed);
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// 线程结束
+		}
+	}
+
+	/**
+	 * 重新读取变化的数据库表配置文件, 按数据源生成并发布新的数据库表配置
+	 *
+	 * @param changed
+	 *            变化的文件
+	 */
+	private void reload(Set<Path> changed) {
+		// 每个数据源受影响的表
+		Map<String, Set<String>> affected = new LinkedHashMap<>();
+		for (Path file : changed) {
+			String db = getDb(file);
+			if (db == null || Files.isDirectory(file)) {
+				continue;
+			}
+			TableFile old = files.get(file);
+			if (Files.isRegularFile(file)) {
+				TableFile tableFile = read(file);
+				// 读取失败时保留原配置
+				if (tableFile == null) {
+					continue;
+				}
+				files.put(file, tableFile);
+				affected.computeIfAbsent(db, k -> new LinkedHashSet<>()).add(tableFile.table);
+			} else {
+				files.remove(file);
+			}
+			// 原配置的表名可能与新配置不同
+			if (old != null) {
+				affected.computeIfAbsent(db, k -> new LinkedHashSet<>()).add(old.table);
+			}
+		}
+		affected.forEach(this::reload);
+	}
+
+	private void reload(String db, Set<String> tables) {
+		SchemaCache schemaCache = AirContext.getSchemaCache();
+		EsMappingCache esMappingCache = AirContext.getEsMappingCache();
+		boolean es = esMappingCache != null && esMappingCache.contains(db);
+		boolean lazy = es || schemaCache != null && schemaCache.contains(db);
+		// 先读取配置文件和数据库表结构, 每个表的新配置, 为null时删除该表
+		Map<String, JSONObject> tableConfigs = new LinkedHashMap<>();
+		for (String table : tables) {
+			JSONObject userConfig = getUserConfig(db, table);
+			// 延迟加载和ES数据源的数据库表配置只保存用户配置, 访问时再与数据库表结构或索引mapping合并
+			if (lazy) {
+				tableConfigs.put(table, userConfig);
+				continue;
+			}
+			List<ColumnInfo> columns;
+			try {
+				columns = readTableSchema(db, table);
+			} catch (SQLException e) {
+				logger.error(String.format("读取数据库表 [%s] 结构失败, 保留原数据库表配置", table), e);
+				continue;
+			}
+			if (userConfig == null && columns.isEmpty()) {
+				tableConfigs.put(table, null);
+				continue;
+			}
+			JSONObject tableConfig = userConfig == null ? new JSONObject() : userConfig;
+			columns.forEach(column -> SchemaLoader.apply(tableConfig, column));
+			tableConfigs.put(table, tableConfig);
+		}
+		// 复制当前数据源配置, 只替换受影响的表. 与数据库表结构校验发布的配置互斥, 防止覆盖对方的更新
+		synchronized (AirContext.class) {
+			JSONObject dbTableConfig = new JSONObject();
+			AirContext.getDbConfig(db).entrySet().forEach(e -> dbTableConfig.put(e.getKey(), e.getValue()));
+			tableConfigs.forEach((table, tableConfig) -> {
+				if (tableConfig == null) {
+					dbTableConfig.remove(table);
+				} else {
+					dbTableConfig.put(table, tableConfig);
+				}
+			});
+			AirContext.addDbTableConfig(db, dbTableConfig);
+		}
+		if (es) {
+			tables.forEach(table -> esMappingCache.invalidate(db, table));
+		} else if (lazy) {
+			tables.forEach(table -> schemaCache.invalidate(db, table));
+		}
+		logger.info("数据源 [{}] 的数据库表配置已重新加载: {}", db, tables);
+	}
+
+	/**
+	 * 获取数据库表的用户配置的副本, 数据源目录下的配置优先于根目录下的配置
+	 *
+	 * @param db
+	 * @param table
+	 * @return 没有配置文件时返回null
+	 */
+	private JSONObject getUserConfig(String db, String table) {
+		TableFile found = null;
+		for (Map.Entry<Path, TableFile> entry : files.entrySet()) {
+			TableFile tableFile = entry.getValue();
+			if (!tableFile.db.equals(db) || !tableFile.table.equals(table)) {
+				continue;
+			}
+			found = tableFile;
+			if (!entry.getKey().getParent().equals(configPath)) {
+				break;
+			}
+		}
+		return found == null ? null : new JSONObject(found.config.toString());
+	}
+
+	private List<ColumnInfo> readTableSchema(String db, String table) throws SQLException {
+		DataSource dataSource = (DataSource) AirContext.getDataSource(db).get(Datasource.SOURCE);
+		try (Connection conn = dataSource.getConnection()) {
+			return AirContext.getDialect(db).readTableSchema(conn, table);
+		}
+	}
+
+	/**
+	 * 配置文件所属的数据源, 根目录下为默认数据源
+	 *
+	 * @param file
+	 * @return 不是数据库表配置文件时返回null
+	 */
+	private String getDb(Path file) {
+		Path parent = file.getParent();
+		if (parent == null) {
+			return null;
+		}
+		if (parent.equals(configPath)) {
+			return defaultDb;
+		}
+		String db = parent.getFileName().toString();
+		return configPath.equals(parent.getParent()) && dbs.contains(db) ? db : null;
+	}
+
+	private TableFile read(Path file) {
+		try {
+			Map.Entry<String, JSONObject> tableConfig = Translator.readTableConfigFile(file);
+			if (tableConfig == null) {
+				return null;
+			}
+			return new TableFile(getDb(file), tableConfig.getKey(), tableConfig.getValue());
+		} catch (IOException | URISyntaxException | RuntimeException e) {
+			logger.error(String.format("读取数据库表配置文件 [%s] 失败", file), e);
+			return null;
+		}
+	}
+
+	private List<Path> listFiles() {
+		try (Stream<Path> stream = Files.walk(configPath, 2)) {
+			return stream.filter(Files::isRegularFile).filter(file -> getDb(file) != null)
+					.collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new DbException(e);
+		}
+	}
+
+	private void register(Path dir) throws IOException {
+		WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+		dirs.put(key, dir);
+	}
+
+	/**
+	 * 数据库表配置文件的内容
+	 */
+	private static class TableFile {
+
+		private final String db;
+
+		private final String table;
+
+		private final JSONObject config;
+
+		private TableFile(String db, String table, JSONObject config) {
+			this.db = db;
+			this.table = table;
+			this.config = config;
+		}
+
+	}
+
+}
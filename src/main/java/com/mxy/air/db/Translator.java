@@ -2,26 +2,33 @@ package com.mxy.air.db;
 
 import static com.mxy.air.db.Structure.FIELDS;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -30,8 +37,6 @@ import java.util.stream.Stream;
 import javax.sql.DataSource;
 
 import org.apache.http.HttpHost;
-import org.apache.http.util.EntityUtils;
-import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,23 +47,32 @@ import com.google.common.base.Strings;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
-import com.google.inject.Key;
 import com.google.inject.Singleton;
 import com.google.inject.matcher.Matchers;
 import com.google.inject.name.Names;
+import com.mxy.air.db.Structure.Export;
+import com.mxy.air.db.Structure.Import;
 import com.mxy.air.db.Structure.Template;
 import com.mxy.air.db.Structure.Type;
 import com.mxy.air.db.annotation.SQLLog;
+import com.mxy.air.db.arrow.ArrowStreamWriter;
+import com.mxy.air.db.cache.QueryCache;
+import com.mxy.air.db.cache.RowCache;
 import com.mxy.air.db.config.DatacolorConfig;
+import com.mxy.air.db.config.DatacolorConfig.Cache;
 import com.mxy.air.db.config.DatacolorConfig.Datasource;
 import com.mxy.air.db.config.DatacolorConfig.Es;
+import com.mxy.air.db.config.DatacolorConfig.LazySchema;
 import com.mxy.air.db.config.TableConfig;
-import com.mxy.air.db.config.TableConfig.Column;
+import com.mxy.air.db.es.EsExporter;
 import com.mxy.air.db.es.EsHandler;
+import com.mxy.air.db.es.EsMappingCache;
 import com.mxy.air.db.interceptors.SQLLogInterceptor;
 import com.mxy.air.db.jdbc.Dialect;
 import com.mxy.air.db.jdbc.DialectFactory;
 import com.mxy.air.db.jdbc.dialect.ElasticsearchDialect;
+import com.mxy.air.db.schema.SchemaCache;
+import com.mxy.air.db.schema.SchemaLoader;
 import com.mxy.air.json.JSON;
 import com.mxy.air.json.JSONArray;
 import com.mxy.air.json.JSONObject;
@@ -236,116 +250,116 @@ public class Translator {
 		this.handler = injector.getInstance(SQLHandler.class);
 		this.esHandler = injector.getInstance(EsHandler.class);
 		AirContext.init(config, injector);;
-		try {
-			initTableInfo();
-		} catch (SQLException e) {
-			e.printStackTrace();
+		initTableInfo();
+		// 查询结果缓存
+		JSONObject cacheConfig = config.getObject(DatacolorConfig.CACHE);
+		AirContext.setQueryCache(cacheConfig == null ? null
+				: new QueryCache(
+						cacheConfig.containsKey(Cache.MAX_SIZE) ? cacheConfig.getLong(Cache.MAX_SIZE)
+								: QueryCache.DEFAULT_MAX_SIZE,
+						cacheConfig.containsKey(Cache.TTL) ? cacheConfig.getLong(Cache.TTL) : QueryCache.DEFAULT_TTL,
+						cacheConfig.containsKey(Cache.MAX_ROWS) ? cacheConfig.getLong(Cache.MAX_ROWS)
+								: QueryCache.DEFAULT_MAX_ROWS));
+		// 按主键的记录缓存
+		JSONObject rowCacheConfig = config.getObject(DatacolorConfig.ROW_CACHE);
+		AirContext.setRowCache(rowCacheConfig == null ? null
+				: new RowCache(
+						rowCacheConfig.containsKey(DatacolorConfig.RowCache.MAX_SIZE)
+								? rowCacheConfig.getLong(DatacolorConfig.RowCache.MAX_SIZE)
+								: RowCache.DEFAULT_MAX_SIZE,
+						rowCacheConfig.containsKey(DatacolorConfig.RowCache.MAX_BYTES)
+								? rowCacheConfig.getLong(DatacolorConfig.RowCache.MAX_BYTES)
+								: RowCache.DEFAULT_MAX_BYTES));
+		// 数据库表配置热加载
+		if (config.getBoolean(DatacolorConfig.HOT_RELOAD)) {
+			Path configPath;
+			try {
+				configPath = JSON.getPath(tablesConfigPath);
+			} catch (IOException | URISyntaxException e) {
+				throw new DbException(e);
+			}
+			if (configPath != null) {
+				TableConfigReloader.start(configPath, dbs, defaultDb);
+			}
 		}
 	}
 
 	/**
-	 * 初始数据库表信息
-	 * @param dataSource
-	 * @param jdbcRunner
-	 * @param tableConfigs 用户配置的数据库表配置
-	 * @throws SQLException
+	 * 初始数据库表信息, 传统数据源并行读取数据库表结构, 配置了快照路径时优先从快照加载;
+	 * 配置了延迟加载时只加载预先加载的数据库表, 其余在第一次访问时加载
 	 */
-	private void initTableInfo() throws SQLException {
+	private void initTableInfo() {
 		JSONObject dbsConfig = AirContext.getConfig().getObject(DatacolorConfig.DATASOURCES);
 		Set<String> dbs = dbsConfig.keySet();
+		List<String> rdbs = new ArrayList<>();
+		List<String> esDbs = new ArrayList<>();
 		for (String db : dbs) {
+			if (AirContext.getDialect(db) instanceof ElasticsearchDialect) {
+				esDbs.add(db);
+			} else {
+				rdbs.add(db);
+			}
+		}
+		// 传统数据源
+		JSONObject lazySchema = AirContext.getConfig().getObject(DatacolorConfig.LAZY_SCHEMA);
+		if (lazySchema != null) {
+			initLazyTableInfo(rdbs, lazySchema);
+		} else {
+			String snapshotPath = AirContext.getConfig().getString(DatacolorConfig.SCHEMA_SNAPSHOT_PATH);
+			new SchemaLoader(Strings.isNullOrEmpty(snapshotPath) ? null : Paths.get(snapshotPath)).load(rdbs);
+		}
+		// ES数据源, 索引的mapping在第一次访问时读取
+		Map<String, Long> ttls = new LinkedHashMap<>();
+		for (String db : esDbs) {
 			JSONObject dbTableConfig = AirContext.getDbConfig(db);
 			if (dbTableConfig.size() == 0) {
 				AirContext.addDbTableConfig(db, dbTableConfig);
 			}
-			Dialect dialect = AirContext.getDialect(db);
-
-			if (dialect instanceof ElasticsearchDialect) { // ES数据源
-				initESTableInfo(db, dbTableConfig);
-				break;
-			} else { // 传统数据源
-				initRMDBTableInfo(db, dbTableConfig);
-			}
-
+			JSONObject dataSourceConfig = AirContext.getDataSource(db);
+			ttls.put(db, dataSourceConfig.containsKey(Es.MAPPING_TTL) ? dataSourceConfig.getLong(Es.MAPPING_TTL)
+					: EsMappingCache.DEFAULT_TTL);
+		}
+		if (!ttls.isEmpty()) {
+			AirContext.setEsMappingCache(new EsMappingCache(ttls));
 		}
 	}
 
 	/**
-	 * 初始化传统数据源数据表信息
-	 * @param db
-	 * @param dbTableConfig
-	 * @throws SQLException
+	 * 延迟加载数据库表结构
+	 * 
+	 * @param rdbs
+	 * @param lazySchema
 	 */
-	private void initRMDBTableInfo(String db, JSONObject dbTableConfig) throws SQLException {
-		SQLSession sqlSession = AirContext.getSqlSession(db);
-		String realDbName = sqlSession.getDbName();
-		String sql = "select t.table_name, t.table_comment, c.column_name, c.data_type, c.column_key, c.extra, c.column_comment from information_schema.tables t left join information_schema.columns c on t.table_name = c.table_name where t.table_schema = ? and c.table_schema = ?";
-		List<Map<String, Object>> tableInfos = sqlSession.list(sql, new String[] { realDbName, realDbName });
-		for (Map<String, Object> tableInfo : tableInfos) {
-			String tableName = tableInfo.get("table_name").toString();
-			String tableComment = tableInfo.get("table_comment").toString();
-			String column = tableInfo.get("column_name").toString();
-			String dataType = tableInfo.get("data_type").toString();
-			String columnKey = tableInfo.get("column_key").toString();
-			//				String extra = tableInfo.get("extra").toString();
-			String columnComment = tableInfo.get("column_comment").toString();
-			// 获取数据库表配置
-			JSONObject tableConfig = null;
-			if (dbTableConfig.containsKey(tableName)) {
-				tableConfig = dbTableConfig.getObject(tableName);
-			} else {
-				tableConfig = new JSONObject();
-				dbTableConfig.put(tableName, tableConfig);
-			}
-			// 主键
-			if (columnKey.equals("PRI")) {
-				tableConfig.put(TableConfig.PRIMARY_KEY, column);
-			}
-			// 数据库表注释
-			tableConfig.put(TableConfig.COMMENT, tableComment);
-			// 获取所有列配置
-			JSONObject columns = null;
-			if (tableConfig.containsKey(TableConfig.COLUMNS)) {
-				columns = tableConfig.getObject(TableConfig.COLUMNS);
-			} else {
-				columns = new JSONObject();
-				tableConfig.put(TableConfig.COLUMNS, columns);
-			}
-			// 获取列配置
-			JSONObject columnConfig = null;
-			if (columns.containsKey(column)) {
-				columnConfig = columns.getObject(column);
-			} else {
-				columnConfig = new JSONObject();
-				columns.put(column, columnConfig);
+	private void initLazyTableInfo(List<String> rdbs, JSONObject lazySchema) {
+		long maxTables = lazySchema.containsKey(LazySchema.MAX_TABLES) ? lazySchema.getLong(LazySchema.MAX_TABLES)
+				: SchemaCache.DEFAULT_MAX_TABLES;
+		long expireMinutes = lazySchema.containsKey(LazySchema.EXPIRE_MINUTES)
+				? lazySchema.getLong(LazySchema.EXPIRE_MINUTES) : 0;
+		SchemaCache schemaCache = new SchemaCache(rdbs, maxTables, expireMinutes);
+		for (String db : rdbs) {
+			JSONObject dbTableConfig = AirContext.getDbConfig(db);
+			if (dbTableConfig.size() == 0) {
+				AirContext.addDbTableConfig(db, dbTableConfig);
 			}
-			// 更新列配置
-			columnConfig.put(Column.TYPE, dataType);
-			columnConfig.put(Column.COMMENT, columnComment);
 		}
-	}
-
-	private void initESTableInfo(String db, JSONObject dbTableConfig) {
-		Injector injector = AirContext.getInjector();
-		RestClient client = injector.getInstance(Key.get(RestClient.class, Names.named(db)));
-		try {
-			// 查询所有索引的mapping
-			Response response = client.performRequest("GET", "/_all/_mapping");
-			String responseBody = EntityUtils.toString(response.getEntity());
-			JSONObject allMappings = new JSONObject(responseBody);
-			for (String index : allMappings.keySet()) {
-				JSONObject indexConfig = new JSONObject();
-				dbTableConfig.put(index, indexConfig);
-				JSONObject indexObject = allMappings.getObject(index);
-				JSONObject mappings = indexObject.getObject("mappings");
-				if (mappings.size() > 0) {
-					JSONObject type = (JSONObject) mappings.entrySet().iterator().next().getValue();
-					indexConfig.put(TableConfig.COLUMNS, type.getObject("properties"));
-				}
+		AirContext.setSchemaCache(schemaCache);
+		// 预先加载的数据库表, 格式为 table 或 db.table
+		JSONArray preload = lazySchema.getArray(LazySchema.PRELOAD);
+		if (preload == null) {
+			return;
+		}
+		Map<String, List<String>> preloadTables = new LinkedHashMap<>();
+		for (Object item : preload.list()) {
+			String name = item.toString();
+			int dot = name.indexOf('.');
+			String db = dot > 0 ? name.substring(0, dot) : AirContext.getDefaultDb();
+			String table = dot > 0 ? name.substring(dot + 1) : name;
+			if (!schemaCache.contains(db)) {
+				throw new DbException(String.format("数据源 [%s] 不存在", db));
 			}
-		} catch (IOException e) {
-			logger.error(String.format("读取ES索引mapping失败"), e);
+			preloadTables.computeIfAbsent(db, k -> new ArrayList<>()).add(table);
 		}
+		preloadTables.forEach(schemaCache::preload);
 	}
 
 	private List<HttpHost> parseEsHttpHost(String url, int httpPort) {
@@ -439,23 +453,38 @@ public class Translator {
 	private JSONObject readDbTableConfig(JSONObject dbConfig, String dbName, Path tableFilePath) {
 		if (dbConfig == null)
 			dbConfig = new JSONObject();
-		// 默认表名为文件名
-		String filename = tableFilePath.getFileName().toString();
-		String tableName = filename.substring(0, filename.lastIndexOf("."));
-		JSONObject tableConfig = null;
+		Map.Entry<String, JSONObject> tableConfig = null;
 		try {
-			tableConfig = JSON.readObject(tableFilePath);
+			tableConfig = readTableConfigFile(tableFilePath);
 		} catch (IOException | URISyntaxException e) {
 			e.printStackTrace();
 		}
 		if (tableConfig == null)
 			return dbConfig;
+		dbConfig.put(tableConfig.getKey(), tableConfig.getValue());
+		return dbConfig;
+	}
+
+	/**
+	 * 读取数据库表配置文件, 默认表名为文件名, 用户配置了数据库表名时以配置为准
+	 * @param tableFilePath
+	 * @return 表名和数据库表配置, 文件内容为空时返回null
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	static Map.Entry<String, JSONObject> readTableConfigFile(Path tableFilePath)
+			throws IOException, URISyntaxException {
+		// 默认表名为文件名
+		String filename = tableFilePath.getFileName().toString();
+		String tableName = filename.substring(0, filename.lastIndexOf("."));
+		JSONObject tableConfig = JSON.readObject(tableFilePath);
+		if (tableConfig == null)
+			return null;
 		// 如果用户配置了数据库表名
 		if (tableConfig.containsKey(TableConfig.TABLE)) {
 			tableName = tableConfig.getString(TableConfig.TABLE);
 		}
-		dbConfig.put(tableName, tableConfig);
-		return dbConfig;
+		return new AbstractMap.SimpleImmutableEntry<>(tableName, tableConfig);
 	}
 
 	/**
@@ -471,6 +500,157 @@ public class Translator {
 	}
 
 	public JSON translateToJson(String json) throws SQLException {
+		// 请求处理过程中使用同一个数据库表配置快照
+		boolean pinned = AirContext.pinDbsConfig();
+		try {
+			return doTranslateToJson(json);
+		} finally {
+			if (pinned) {
+				AirContext.unpinDbsConfig();
+			}
+		}
+	}
+
+	/**
+	 * 查询结果缓存的统计: 缓存数量(size), 命中数(hits), 未命中数(misses), 命中率(hit_rate),
+	 * 按容量移除数(evictions), 失效数(invalidations)
+	 * 
+	 * @return 未开启查询结果缓存时返回null
+	 */
+	public JSONObject cacheStats() {
+		QueryCache queryCache = AirContext.getQueryCache();
+		return queryCache == null ? null : queryCache.stats();
+	}
+
+	/**
+	 * 记录缓存的统计: 缓存记录数(size), 估算字节数(bytes), 命中数(hits), 未命中数(misses), 命中率(hit_rate),
+	 * 按容量移除数(evictions)
+	 * 
+	 * @return 未开启记录缓存时返回null
+	 */
+	public JSONObject rowCacheStats() {
+		RowCache rowCache = AirContext.getRowCache();
+		return rowCache == null ? null : rowCache.stats();
+	}
+
+	/**
+	 * 处理请求并将JSON结果以UTF-8编码写入输出流. 关系数据库的单表查询逐行读取并写入, 不生成完整的结果,
+	 * 分页查询的总记录数在数据之后写入; result为arrow时以Arrow IPC流格式写入; 其他请求(包括列式结果)写入完整的结果.
+	 * 写入完成后不关闭输出流
+	 * 
+	 * @param json
+	 *            描述请求的JSON字符串
+	 * @param out
+	 *            输出流
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public void translate(String json, OutputStream out) throws SQLException, IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		boolean pinned = AirContext.pinDbsConfig();
+		try {
+			AirParser parser = new AirParser(json);
+			JSONObject object = parser.getObject();
+			if (isArrow(object)) {
+				arrow(object, out);
+				return;
+			}
+			if (object.containsKey(Type.STRUCT) || object.containsKey(Type.TRANSACTION) || isEsNative(parser)
+					|| ColumnarResult.isColumnar(object)) {
+				writer.write(doTranslateToJson(json).toString());
+			} else {
+				Engine engine = new Engine(object).parse();
+				AirContext.inState(engine.getBuilder().db());
+				try {
+					handler.handle(engine, writer);
+				} finally {
+					AirContext.outState();
+				}
+			}
+			writer.flush();
+		} finally {
+			if (pinned) {
+				AirContext.unpinDbsConfig();
+			}
+		}
+	}
+
+	/**
+	 * 请求的返回结果是否为Arrow格式
+	 */
+	private boolean isArrow(JSONObject object) {
+		return Structure.Result.ARROW.toString().equalsIgnoreCase(object.getString(Structure.RESULT));
+	}
+
+	/**
+	 * 查询并以Arrow IPC流格式写入输出流, export.size为每个RecordBatch的行数
+	 * 
+	 * @param object
+	 *            请求JSON
+	 * @param out
+	 * @return 写入的行数
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	private long arrow(JSONObject object, OutputStream out) throws SQLException, IOException {
+		JSONObject export = object.containsKey(Structure.EXPORT) ? object.getObject(Structure.EXPORT)
+				: new JSONObject();
+		int batchSize = export.containsKey(Export.SIZE) ? export.getInt(Export.SIZE)
+				: ArrowStreamWriter.DEFAULT_BATCH_SIZE;
+		boolean pinned = AirContext.pinDbsConfig();
+		try {
+			Engine engine = new Engine(object).parse();
+			AirContext.inState(engine.getBuilder().db());
+			try {
+				return handler.arrow(engine, out, batchSize);
+			} finally {
+				AirContext.outState();
+			}
+		} finally {
+			if (pinned) {
+				AirContext.unpinDbsConfig();
+			}
+		}
+	}
+
+	/**
+	 * 查询并将结果映射为指定类型的对象. 关系数据库的单表查询直接从查询结果映射, 不生成中间的Map和JSON对象.
+	 * 列名忽略大小写和下划线后与属性名匹配
+	 * 
+	 * @param json
+	 *            描述查询请求的JSON字符串
+	 * @param type
+	 *            对象类型, 需要有无参构造方法, 或参数与查询列对应的构造方法
+	 * @return 查询结果, 查询单个记录时最多包含一个对象, 分页查询时为当前页的数据
+	 * @throws SQLException
+	 */
+	public <T> List<T> translate(String json, Class<T> type) throws SQLException {
+		boolean pinned = AirContext.pinDbsConfig();
+		try {
+			Engine engine = new Engine(new AirParser(json).getObject()).parse();
+			AirContext.inState(engine.getBuilder().db());
+			try {
+				return handler.handle(engine, type);
+			} finally {
+				AirContext.outState();
+			}
+		} finally {
+			if (pinned) {
+				AirContext.unpinDbsConfig();
+			}
+		}
+	}
+
+	/**
+	 * 是否为ES原生JSON查询
+	 */
+	private boolean isEsNative(AirParser parser) {
+		JSONObject object = parser.getObject();
+		return AirContext.isElasticsearch(parser.getDb()) && object.containsKey(Structure.NATIVE)
+				&& (object.containsKey(Type.SELECT) || object.containsKey(Type.QUERY));
+	}
+
+	private JSON doTranslateToJson(String json) throws SQLException {
 		AirParser parser = new AirParser(json);
 		JSONObject object = parser.getObject();
 		if (object.containsKey(Type.STRUCT)) {
@@ -513,8 +693,7 @@ public class Translator {
 							object.getObject(Structure.NATIVE));
 					return result;
 				} catch (IOException e) {
-					e.printStackTrace();
-					throw new DbException(e.getMessage());
+					throw new DbException(e);
 				}
 			}
 		}
@@ -523,11 +702,79 @@ public class Translator {
 		AirContext.inState(db);
 		JSON result = handler.handle(engine);
 		AirContext.outState();
-		return result;
+		return ColumnarResult.wrap(object, db, engine.getBuilder().table(), result);
+	}
+
+	/**
+	 * 异步处理请求. ES原生JSON查询异步发送, 不阻塞调用线程; 其他请求在调用线程中执行, 返回已完成的结果
+	 * 
+	 * @param json
+	 *            描述请求的JSON字符串
+	 * @return 请求结果, 处理失败时以异常结束
+	 */
+	public CompletableFuture<JSON> translateAsync(String json) {
+		try {
+			AirParser parser = new AirParser(json);
+			JSONObject object = parser.getObject();
+			if (isEsNative(parser)) {
+				return esHandler.handleAsync(parser.getDb(), parser.getTable(), object.getObject(Structure.NATIVE));
+			}
+			return CompletableFuture.completedFuture(translateToJson(json));
+		} catch (SQLException | RuntimeException e) {
+			CompletableFuture<JSON> future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+			return future;
+		}
+	}
+
+	/**
+	 * 批量异步处理请求. 同一个ES数据源的原生JSON查询通过一次_msearch请求发送, 其他请求与translateAsync相同
+	 * 
+	 * @param jsons
+	 *            描述请求的JSON字符串
+	 * @return 每个请求的结果, 与jsons顺序相同, 单个请求失败时只有该请求以异常结束
+	 */
+	public List<CompletableFuture<JSON>> translateBatch(List<String> jsons) {
+		List<CompletableFuture<JSON>> futures = new ArrayList<>(Collections.nCopies(jsons.size(), null));
+		// 每个ES数据源的原生JSON查询在jsons中的位置
+		Map<String, List<Integer>> esIndexes = new LinkedHashMap<>();
+		List<AirParser> parsers = new ArrayList<>();
+		for (int i = 0; i < jsons.size(); i++) {
+			AirParser parser = null;
+			try {
+				parser = new AirParser(jsons.get(i));
+			} catch (RuntimeException e) {
+				CompletableFuture<JSON> future = new CompletableFuture<>();
+				future.completeExceptionally(e);
+				futures.set(i, future);
+			}
+			parsers.add(parser);
+			if (parser == null) {
+				continue;
+			}
+			if (isEsNative(parser)) {
+				esIndexes.computeIfAbsent(parser.getDb(), k -> new ArrayList<>()).add(i);
+			} else {
+				futures.set(i, translateAsync(jsons.get(i)));
+			}
+		}
+		esIndexes.forEach((db, indexes) -> {
+			List<String> tables = new ArrayList<>();
+			List<JSONObject> queries = new ArrayList<>();
+			for (int i : indexes) {
+				tables.add(parsers.get(i).getTable());
+				queries.add(parsers.get(i).getObject().getObject(Structure.NATIVE));
+			}
+			List<CompletableFuture<JSON>> results = esHandler.multiSearch(db, tables, queries);
+			for (int i = 0; i < indexes.size(); i++) {
+				futures.set(indexes.get(i), results.get(i));
+			}
+		});
+		return futures;
 	}
 
 	/**
-	 * 将请求JSON解析后的结果写入流, 
+	 * 将请求JSON解析后的结果写入流, 支持CSV模板, CSV数据(result为csv)和Arrow数据(result为arrow)
 	 * @param json
 	 * @return 输入流
 	 * @throws SQLException
@@ -546,43 +793,26 @@ public class Translator {
 			if (jsonObject.containsKey(Structure.FIELDS)) { // 指定了列
 				columns = jsonObject.getArray(FIELDS).toStringArray();
 			}
-			// CSV头部(列)
-			List<String> columnHeader = new ArrayList<>();
-			// CSV头部(列显示名称)
-			List<String> columnHeaderDisplay = new ArrayList<>();
-			for (String column : columns) {
-				if (column.equals(primaryKey)) { // CSV模板不导出主键
-					continue;
-				}
-				columnHeader.add(column);
-				JSONObject columnConfig = columnsConfig.getObject(column);
-				String columnDisplay = columnConfig.getString(TableConfig.Column.DISPLAY);
-				if (columnConfig.containsKey(TableConfig.Column.CODE)) {
-					JSONObject columnCode = columnConfig.getObject(TableConfig.Column.CODE);
-					StringBuilder builder = new StringBuilder();
-					builder.append(columnDisplay).append("(");
-					String[] codeValues = columnCode.keySet().stream().map(k -> k + ":" + columnCode.get(k))
-							.toArray(String[]::new);
-					builder.append(String.join(",", codeValues));
-					builder.append(")");
-					columnHeaderDisplay.add(builder.toString());
-				} else {
-					columnHeaderDisplay.add(columnDisplay);
-				}
-			}
-			// CSV头部, 数据表每个列的DISPLAY
-			//			String[] header = columnsConfig.values().stream()
-			//					.map(o -> ((JSONObject) o).getString(TableConfig.Column.DISPLAY)).toArray(String[]::new);
+			// CSV头部(列), CSV模板不导出主键
+			List<String> columnHeader = Arrays.stream(columns).filter(column -> !column.equals(primaryKey))
+					.collect(Collectors.toList());
+			CsvFormatter formatter = CsvFormatter.compile(db, table, columnHeader);
 			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
 			CSVWriterBuilder csvWriterBuilder = new CSVWriterBuilder(
 					new OutputStreamWriter(byteArrayOutputStream, StandardCharsets.UTF_8));
 			try (ICSVWriter icsvWriter = csvWriterBuilder.build()) {
-				icsvWriter.writeNext(columnHeader.toArray(new String[] {}));
-				icsvWriter.writeNext(columnHeaderDisplay.toArray(new String[] {}));
+				icsvWriter.writeNext(formatter.header());
+				// CSV头部(列显示名称)
+				icsvWriter.writeNext(formatter.displayHeader());
 			}
 			return new ByteArrayInputStream(byteArrayOutputStream.toByteArray());
 		} else if (jsonObject.containsKey(Structure.RESULT)) { // 导出CSV数据
 			String result = jsonObject.getString(Structure.RESULT);
+			if (result.equalsIgnoreCase(Structure.Result.ARROW.toString())) { // 导出Arrow数据
+				ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+				arrow(jsonObject, byteArrayOutputStream);
+				return new ByteArrayInputStream(byteArrayOutputStream.toByteArray());
+			}
 			if (result.equalsIgnoreCase(Structure.Result.CSV.toString())) {
 				JSON jsonResult = translateToJson(json);
 				List<Map<String, Object>> resultList = null;
@@ -596,62 +826,27 @@ public class Translator {
 						resultList = ((JSONArray) jsonResult).toMapList();
 					}
 				}
-				/*
-				 * CSV需要的格式数据
-				 */
-				List<String[]> csvData = new ArrayList<>();
-				// CSV头部(列)
+				// CSV头部(列), 按第一条记录的列, 关联对象的情况暂不处理
 				List<String> columnHeader = new ArrayList<>();
-				// CSV头部(列显示名称)
-				List<String> columnHeaderDisplay = new ArrayList<>();
-
-				if (resultList.size() > 0) {
-					/*
-					 * 构建头部数据
-					 */
-					Map<String, Object> firstRecord = resultList.iterator().next();
-					for (Map.Entry<String, Object> entry : firstRecord.entrySet()) {
-						String column = entry.getKey();
-						Object value = entry.getValue();
-						if (value instanceof Map) { // 关联对象的情况暂不处理
-							// header.addAll(buildHeader((JSONObject) value, db, column));
-						} else {
+				if (!resultList.isEmpty()) {
+					resultList.get(0).forEach((column, value) -> {
+						if (!(value instanceof Map)) {
 							columnHeader.add(column);
-							JSONObject columnConfig = AirContext.getColumnsConfig(db, table).getObject(column);
-							if (columnConfig == null || columnConfig.size() == 0) {
-								columnHeaderDisplay.add(column);
-							} else {
-								String columnDisplay = Strings
-										.nullToEmpty(columnConfig.getString(TableConfig.Column.DISPLAY));
-								if (columnConfig.containsKey(TableConfig.Column.CODE)) {
-									JSONObject columnCode = columnConfig.getObject(TableConfig.Column.CODE);
-									StringBuilder builder = new StringBuilder();
-									builder.append(columnDisplay).append("(");
-									String[] codeValues = columnCode.keySet().stream()
-											.map(k -> k + ":" + columnCode.get(k)).toArray(String[]::new);
-									builder.append(String.join(",", codeValues));
-									builder.append(")");
-									columnHeaderDisplay.add(builder.toString());
-								} else {
-									columnHeaderDisplay.add(columnDisplay);
-								}
-							}
 						}
-					}
-					// 构建具体数据
-					if (!resultList.isEmpty()) {
-						csvData = resultList.stream()
-								.map(o -> buildRecord(o, db, table).toArray(new String[] {}))
-								.collect(Collectors.toList());
-					}
+					});
 				}
+				// 每次导出只编译一次列的格式化, 逐行按列的下标格式化
+				CsvFormatter formatter = CsvFormatter.compile(db, table, columnHeader);
 				ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
 				CSVWriterBuilder csvWriterBuilder = new CSVWriterBuilder(
 						new OutputStreamWriter(byteArrayOutputStream, StandardCharsets.UTF_8));
 				try (ICSVWriter icsvWriter = csvWriterBuilder.build()) {
-					icsvWriter.writeNext(columnHeader.toArray(new String[] {}));
-					icsvWriter.writeNext(columnHeaderDisplay.toArray(new String[] {}));
-					icsvWriter.writeAll(csvData);
+					icsvWriter.writeNext(formatter.header());
+					// CSV头部(列显示名称)
+					icsvWriter.writeNext(formatter.displayHeader());
+					for (Map<String, Object> record : resultList) {
+						icsvWriter.writeNext(formatter.format(record));
+					}
 				}
 				return new ByteArrayInputStream(byteArrayOutputStream.toByteArray());
 			}
@@ -659,48 +854,129 @@ public class Translator {
 		throw new DbException("请求JSON解析失败");
 	}
 
-	private List<String> buildRecord(Map<String, Object> record, String db, String table) {
-		List<String> csvRecord = new ArrayList<>();
-		for (Map.Entry<String, Object> entry : record.entrySet()) {
-			String column = entry.getKey();
-			Object value = entry.getValue();
-			if (value == null) {
-				csvRecord.add("");
-			} else if (value instanceof Map) { // 关联对象的情况暂不处理
-				// csvRecord.addAll(buildRecord((JSONObject) value));
-			} else {
-				JSONObject columnConfig = AirContext.getColumnsConfig(db, table).getObject(column);
-				if (columnConfig == null || columnConfig.size() == 0) {
-					csvRecord.add(value.toString());
-				} else if (columnConfig.containsKey(TableConfig.Column.CODE)) {
-					JSONObject columnCode = columnConfig.getObject(TableConfig.Column.CODE);
-					csvRecord.add(columnCode.get(value.toString()).toString());
-				} else if (columnConfig.containsKey(TableConfig.Column.FORMAT)) {
-					String columnType = columnConfig.getString(TableConfig.Column.TYPE);
-					JSONObject columnFormat = columnConfig.getObject(TableConfig.Column.FORMAT);
-					if (columnFormat.containsKey(TableConfig.Format.DATETIME)) {
-						String pattern = columnFormat.getString(TableConfig.Format.DATETIME);
-						String formatedValue = "";
-						if ("bigint".equals(columnType)) {
-							Instant instant = Instant.ofEpochMilli(Long.valueOf(value.toString()));
-							DateTimeFormatter fmt = DateTimeFormatter.ofPattern(pattern);
-							formatedValue = fmt.format(instant.atZone(ZoneId.systemDefault()));
-						} else {
-							try {
-								LocalDateTime datetime = LocalDateTime.parse(value.toString());
-								formatedValue = datetime.format(DateTimeFormatter.ofPattern(pattern));
-							} catch (Exception e) {
-								e.printStackTrace();
-							}
-						}
-						csvRecord.add(formatedValue);
-					}
-				} else {
-					csvRecord.add(value.toString());
+	/**
+	 * 导入CSV数据, 格式与CSV模板相同: 第一行为列, 第二行为列显示名称(可以省略), 之后每行为一条记录.
+	 * 配置了CODE的列可以填写显示值或代码值, 配置了FORMAT的日期时间列按格式解析. 逐批验证和写入,
+	 * 验证或写入失败的行记录在结果中, 不影响其他行
+	 * 
+	 * @param json
+	 *            请求JSON, 如 {"bulk":"db.table", "import":{"batch_size":1000, "mode":"batch", "max_errors":100}}
+	 * @param in
+	 *            UTF-8编码的CSV输入流, 由调用者关闭
+	 * @return {"count":导入的行数, "failed":失败的行数, "errors":[{"line":行号, "error":错误信息}, ...]}
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public JSONObject importCsv(String json, InputStream in) throws SQLException, IOException {
+		AirParser parser = new AirParser(json);
+		if (parser.getType() != Type.BULK) {
+			throw new DbException("CSV导入的操作类型只能为bulk");
+		}
+		JSONObject object = parser.getObject();
+		JSONObject options = object.containsKey(Structure.IMPORT) ? object.getObject(Structure.IMPORT)
+				: new JSONObject();
+		int batchSize = options.containsKey(Import.BATCH_SIZE) ? options.getInt(Import.BATCH_SIZE)
+				: CsvImporter.DEFAULT_BATCH_SIZE;
+		Import.Mode mode = options.containsKey(Import.MODE) ? Import.Mode.from(options.getString(Import.MODE))
+				: Import.Mode.BATCH;
+		if (mode == null) {
+			throw new DbException(String.format("导入方式 [%s] 错误, 只能为batch或bulk", options.getString(Import.MODE)));
+		}
+		long maxErrors = options.containsKey(Import.MAX_ERRORS) ? options.getLong(Import.MAX_ERRORS) : -1;
+		String db = parser.getDb();
+		String table = parser.getTable();
+		boolean pinned = AirContext.pinDbsConfig();
+		try {
+			AirContext.check(db, table);
+			AirContext.inState(db);
+			try {
+				return handler.importCsv(db, table,
+						new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), batchSize, mode,
+						maxErrors);
+			} finally {
+				AirContext.outState();
+			}
+		} finally {
+			if (pinned) {
+				AirContext.unpinDbsConfig();
+			}
+		}
+	}
+
+	/**
+	 * ES深度导出, 分片并行读取索引的所有匹配文档, 按result指定的格式(csv或json, 默认json)逐页写入输出流,
+	 * 不受index.max_result_window限制
+	 * 
+	 * @param json
+	 *            请求JSON, 如 {"select":"es.logs-*", "native":{"query":{...}}, "result":"csv", "export":{"slices":4}}
+	 * @param out
+	 *            输出流, 由调用者关闭
+	 * @return 导出的文档数
+	 * @throws IOException
+	 */
+	public long export(String json, OutputStream out) throws IOException {
+		AirParser parser = new AirParser(json);
+		JSONObject object = parser.getObject();
+		String db = parser.getDb();
+		String table = parser.getTable();
+		if (!AirContext.isElasticsearch(db)) {
+			throw new DbException(String.format("数据源 [%s] 不是ES数据源, 不支持深度导出", db));
+		}
+		JSONObject query = object.containsKey(Structure.NATIVE) ? object.getObject(Structure.NATIVE)
+				: new JSONObject();
+		JSONObject export = object.containsKey(Structure.EXPORT) ? object.getObject(Structure.EXPORT)
+				: new JSONObject();
+		int slices = export.containsKey(Export.SLICES) ? export.getInt(Export.SLICES) : 1;
+		int size = export.containsKey(Export.SIZE) ? export.getInt(Export.SIZE) : EsExporter.DEFAULT_SIZE;
+		String keepAlive = export.containsKey(Export.KEEP_ALIVE) ? export.getString(Export.KEEP_ALIVE)
+				: EsExporter.DEFAULT_KEEP_ALIVE;
+		boolean csv = object.containsKey(Structure.RESULT)
+				&& Structure.Result.CSV.toString().equalsIgnoreCase(object.getString(Structure.RESULT));
+		// 指定了列时按指定的列导出CSV, 否则按第一个文档的列
+		String[] fields = object.containsKey(FIELDS) ? object.getArray(FIELDS).toStringArray() : null;
+		EsExporter exporter = new EsExporter(esHandler);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		if (csv) {
+			ICSVWriter icsvWriter = new CSVWriterBuilder(writer).build();
+			// 列确定后编译一次列的格式化
+			CsvFormatter[] formatter = { fields == null ? null : CsvFormatter.compile(db, table, Arrays.asList(fields)) };
+			boolean[] headerWritten = { false };
+			long count = exporter.export(db, table, query, slices, size, keepAlive, source -> {
+				if (formatter[0] == null) {
+					formatter[0] = CsvFormatter.compile(db, table, new ArrayList<>(source.keySet()));
 				}
+				if (!headerWritten[0]) {
+					headerWritten[0] = true;
+					icsvWriter.writeNext(formatter[0].header());
+					icsvWriter.writeNext(formatter[0].displayHeader());
+				}
+				// 按列的顺序取值, 缺少的列为空, 嵌套对象转为JSON字符串
+				Map<String, Object> record = new LinkedHashMap<>();
+				for (String column : formatter[0].header()) {
+					Object value = source.get(column);
+					record.put(column, value instanceof JSON ? value.toString() : value);
+				}
+				icsvWriter.writeNext(formatter[0].format(record));
+			});
+			// 没有文档时只输出指定的列
+			if (!headerWritten[0] && formatter[0] != null && fields.length > 0) {
+				icsvWriter.writeNext(formatter[0].header());
+				icsvWriter.writeNext(formatter[0].displayHeader());
 			}
+			icsvWriter.flush();
+			return count;
 		}
-		return csvRecord;
+		writer.write('[');
+		long[] written = { 0 };
+		long count = exporter.export(db, table, query, slices, size, keepAlive, source -> {
+			if (written[0]++ > 0) {
+				writer.write(',');
+			}
+			writer.write(source.toString());
+		});
+		writer.write(']');
+		writer.flush();
+		return count;
 	}
 
 	/**
@@ -740,8 +1016,11 @@ public class Translator {
 			if (dialect instanceof ElasticsearchDialect) {
 				Properties properties = new Properties();
 				for (Map.Entry<String, Object> dsEntry : dsJSONOjbect.entrySet()) {
-					if (dsEntry.getKey().equalsIgnoreCase(Es.HTTPPORT.toString())) {
-						dataSourceConfig.put(Es.HTTPPORT, dsEntry.getValue());
+					// ES的配置项不是DataSource的属性
+					Es esKey = Arrays.stream(Es.values())
+							.filter(key -> key.toString().equalsIgnoreCase(dsEntry.getKey())).findFirst().orElse(null);
+					if (esKey != null) {
+						dataSourceConfig.put(esKey, dsEntry.getValue());
 						continue;
 					}
 					properties.put(dsEntry.getKey(), dsEntry.getValue());
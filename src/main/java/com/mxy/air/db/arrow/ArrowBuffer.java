@@ -0,0 +1,114 @@
+package com.mxy.air.db.arrow;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 可扩容的字节缓冲区, 数值按小端字节序写入, 用于Arrow的列数据和元数据
+ *
+ * @author mengxiangyun
+ *
+ */
+class ArrowBuffer {
+
+	private byte[] bytes = new byte[64];
+
+	private int size;
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	private void ensure(int capacity) {
+		if (capacity > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, capacity));
+		}
+	}
+
+	/**
+	 * 跳过n个字节, 跳过的字节为0
+	 */
+	void skip(int n) {
+		ensure(size + n);
+		Arrays.fill(bytes, size, size + n, (byte) 0);
+		size += n;
+	}
+
+	/**
+	 * 填充0直到长度为alignment的倍数
+	 */
+	void align(int alignment) {
+		skip(FlatBuffer.align(size, alignment) - size);
+	}
+
+	void putByte(int value) {
+		ensure(size + 1);
+		bytes[size++] = (byte) value;
+	}
+
+	void putShort(int value) {
+		ensure(size + 2);
+		setShort(size, value);
+		size += 2;
+	}
+
+	void putInt(int value) {
+		ensure(size + 4);
+		setInt(size, value);
+		size += 4;
+	}
+
+	void putLong(long value) {
+		ensure(size + 8);
+		setLong(size, value);
+		size += 8;
+	}
+
+	void putBytes(byte[] value, int offset, int length) {
+		ensure(size + length);
+		System.arraycopy(value, offset, bytes, size, length);
+		size += length;
+	}
+
+	void setByte(int position, int value) {
+		bytes[position] = (byte) value;
+	}
+
+	void setShort(int position, int value) {
+		bytes[position] = (byte) value;
+		bytes[position + 1] = (byte) (value >>> 8);
+	}
+
+	void setInt(int position, int value) {
+		bytes[position] = (byte) value;
+		bytes[position + 1] = (byte) (value >>> 8);
+		bytes[position + 2] = (byte) (value >>> 16);
+		bytes[position + 3] = (byte) (value >>> 24);
+	}
+
+	void setLong(int position, long value) {
+		setInt(position, (int) value);
+		setInt(position + 4, (int) (value >>> 32));
+	}
+
+	/**
+	 * 设置第index位(从低位开始)为1, 位图的长度按需扩展
+	 */
+	void setBit(int index) {
+		int position = index >>> 3;
+		if (position >= size) {
+			skip(position + 1 - size);
+		}
+		bytes[position] |= 1 << (index & 7);
+	}
+
+	void writeTo(OutputStream out) throws IOException {
+		out.write(bytes, 0, size);
+	}
+
+}
@@ -0,0 +1,365 @@
+package com.mxy.air.db.arrow;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mxy.air.db.DbException;
+import com.mxy.air.db.arrow.FlatBuffer.StructVector;
+import com.mxy.air.db.arrow.FlatBuffer.Table;
+
+/**
+ * Arrow IPC流格式(Streaming Format)写入器. 先写入Schema消息, 每累积batchSize行写入一个RecordBatch消息,
+ * 最后写入流结束标记. 每列的值直接写入小端字节序的列缓冲区, 不生成行对象. 可以由pyarrow.ipc.open_stream,
+ * DuckDB等读取
+ *
+ * @author mengxiangyun
+ *
+ */
+public class ArrowStreamWriter {
+
+	// 默认每个RecordBatch的行数
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+
+	// MetadataVersion.V5
+	private static final short METADATA_VERSION = 4;
+
+	// MessageHeader
+	private static final byte HEADER_SCHEMA = 1;
+	private static final byte HEADER_RECORD_BATCH = 3;
+
+	// 消息的开始标记
+	private static final int CONTINUATION = 0xFFFFFFFF;
+
+	/**
+	 * 列类型
+	 */
+	public enum Type {
+		INT32(2, 4), INT64(2, 8), FLOAT64(3, 8), BINARY(4, -1), UTF8(5, -1), BOOL(6, 0), DECIMAL(7, 16),
+		/*
+		 * 日期, 1970-01-01以来的天数
+		 */
+		DATE(8, 4),
+		/*
+		 * 不带时区的时间戳, 1970-01-01T00:00:00以来的微秒数
+		 */
+		TIMESTAMP(10, 8);
+
+		// Arrow Schema中Type联合的类型编号
+		private final byte typeId;
+
+		// 每个值的字节数, 变长类型为-1, 布尔类型按位保存为0
+		private final int width;
+
+		private Type(int typeId, int width) {
+			this.typeId = (byte) typeId;
+			this.width = width;
+		}
+
+	}
+
+	/**
+	 * 列定义
+	 */
+	public static class Field {
+
+		private final String name;
+
+		private final Type type;
+
+		private final int precision;
+
+		private final int scale;
+
+		public Field(String name, Type type) {
+			this(name, type, 0, 0);
+		}
+
+		/**
+		 * Decimal列
+		 */
+		public Field(String name, int precision, int scale) {
+			this(name, Type.DECIMAL, precision, scale);
+		}
+
+		private Field(String name, Type type, int precision, int scale) {
+			this.name = name;
+			this.type = type;
+			this.precision = precision;
+			this.scale = scale;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		private Table table() {
+			Table type = new Table();
+			switch (this.type) {
+			case INT32:
+			case INT64:
+				type.addInt(0, this.type.width * 8).addBool(1, true);
+				break;
+			case FLOAT64:
+				// Precision.DOUBLE
+				type.addShort(0, 2);
+				break;
+			case DECIMAL:
+				type.addInt(0, precision).addInt(1, scale).addInt(2, 128);
+				break;
+			case DATE:
+				// DateUnit.DAY
+				type.addShort(0, 0);
+				break;
+			case TIMESTAMP:
+				// TimeUnit.MICROSECOND
+				type.addShort(0, 2);
+				break;
+
+			default:
+				break;
+			}
+			return new Table().addString(0, name).addBool(1, true).addByte(2, this.type.typeId).addTable(3, type)
+					.addTables(5, new ArrayList<>());
+		}
+
+	}
+
+	/**
+	 * 一列当前批次的数据
+	 */
+	private static class Vector {
+
+		private final Field field;
+
+		// 有效位图, 第i位为1表示第i行的值不为null
+		private final ArrowBuffer validity = new ArrowBuffer();
+
+		// 变长类型每个值在data中的开始位置, 共rows+1个
+		private final ArrowBuffer offsets = new ArrowBuffer();
+
+		private final ArrowBuffer data = new ArrowBuffer();
+
+		private int nullCount;
+
+		private Vector(Field field) {
+			this.field = field;
+			reset();
+		}
+
+		private void reset() {
+			validity.clear();
+			offsets.clear();
+			data.clear();
+			nullCount = 0;
+			if (field.type.width < 0) {
+				offsets.putInt(0);
+			}
+		}
+
+	}
+
+	private final OutputStream out;
+
+	private final List<Field> fields;
+
+	private final Vector[] vectors;
+
+	private final int batchSize;
+
+	// 当前批次的行数
+	private int rows;
+
+	private boolean schemaWritten;
+
+	public ArrowStreamWriter(OutputStream out, List<Field> fields) {
+		this(out, fields, DEFAULT_BATCH_SIZE);
+	}
+
+	public ArrowStreamWriter(OutputStream out, List<Field> fields, int batchSize) {
+		this.out = out;
+		this.fields = fields;
+		this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+		vectors = new Vector[fields.size()];
+		for (int i = 0; i < vectors.length; i++) {
+			vectors[i] = new Vector(fields.get(i));
+		}
+	}
+
+	/*
+	 * 当前行每列的值通过以下方法设置一次, 然后调用endRow
+	 */
+
+	public void setNull(int column) {
+		Vector vector = vectors[column];
+		vector.nullCount++;
+		int width = vector.field.type.width;
+		if (width > 0) {
+			vector.data.skip(width);
+		} else if (width < 0) {
+			vector.offsets.putInt(vector.data.size());
+		}
+	}
+
+	public void setInt(int column, int value) {
+		Vector vector = valid(column);
+		vector.data.putInt(value);
+	}
+
+	public void setLong(int column, long value) {
+		Vector vector = valid(column);
+		vector.data.putLong(value);
+	}
+
+	public void setDouble(int column, double value) {
+		Vector vector = valid(column);
+		vector.data.putLong(Double.doubleToRawLongBits(value));
+	}
+
+	public void setBoolean(int column, boolean value) {
+		Vector vector = valid(column);
+		if (value) {
+			vector.data.setBit(rows);
+		}
+	}
+
+	public void setBytes(int column, byte[] value) {
+		Vector vector = valid(column);
+		vector.data.putBytes(value, 0, value.length);
+		vector.offsets.putInt(vector.data.size());
+	}
+
+	public void setString(int column, String value) {
+		setBytes(column, value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * 按列的scale四舍五入后以128位有符号整数保存
+	 */
+	public void setDecimal(int column, BigDecimal value) {
+		Vector vector = vectors[column];
+		BigInteger unscaled = value.setScale(vector.field.scale, RoundingMode.HALF_UP).unscaledValue();
+		if (unscaled.bitLength() > 127) {
+			throw new DbException(String.format("列 [%s] 的值 [%s] 超出Decimal的范围", vector.field.name, value));
+		}
+		valid(column);
+		byte[] bigEndian = unscaled.toByteArray();
+		byte sign = (byte) (unscaled.signum() < 0 ? -1 : 0);
+		for (int i = 0; i < 16; i++) {
+			vector.data.putByte(i < bigEndian.length ? bigEndian[bigEndian.length - 1 - i] : sign);
+		}
+	}
+
+	private Vector valid(int column) {
+		Vector vector = vectors[column];
+		vector.validity.setBit(rows);
+		return vector;
+	}
+
+	/**
+	 * 结束当前行, 达到批次行数时写入RecordBatch
+	 *
+	 * @throws IOException
+	 */
+	public void endRow() throws IOException {
+		rows++;
+		if (rows >= batchSize) {
+			writeBatch();
+		}
+	}
+
+	/**
+	 * 写入剩余的行和流结束标记, 不关闭输出流
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (rows > 0) {
+			writeBatch();
+		}
+		writeSchema();
+		ArrowBuffer end = new ArrowBuffer();
+		end.putInt(CONTINUATION);
+		end.putInt(0);
+		end.writeTo(out);
+		out.flush();
+	}
+
+	private void writeSchema() throws IOException {
+		if (schemaWritten) {
+			return;
+		}
+		schemaWritten = true;
+		List<Table> fieldTables = new ArrayList<>();
+		for (Field field : fields) {
+			fieldTables.add(field.table());
+		}
+		// Endianness.Little
+		Table schema = new Table().addShort(0, 0).addTables(1, fieldTables);
+		writeMessage(HEADER_SCHEMA, schema, 0);
+	}
+
+	private void writeBatch() throws IOException {
+		writeSchema();
+		// 每列的缓冲区: 有效位图, [偏移量], 数据, 在消息体中按8字节对齐
+		StructVector nodes = new StructVector(2);
+		StructVector buffers = new StructVector(2);
+		List<ArrowBuffer> bodyBuffers = new ArrayList<>();
+		List<Integer> lengths = new ArrayList<>();
+		long bodyLength = 0;
+		for (Vector vector : vectors) {
+			nodes.add(rows, vector.nullCount);
+			int bitmapLength = (rows + 7) / 8;
+			int width = vector.field.type.width;
+			bodyBuffers.add(vector.validity);
+			lengths.add(bitmapLength);
+			if (width < 0) {
+				bodyBuffers.add(vector.offsets);
+				lengths.add(vector.offsets.size());
+			}
+			bodyBuffers.add(vector.data);
+			lengths.add(width == 0 ? bitmapLength : vector.data.size());
+		}
+		for (int length : lengths) {
+			buffers.add(bodyLength, length);
+			bodyLength += FlatBuffer.align(length, 8);
+		}
+		Table recordBatch = new Table().addLong(0, rows).addStructs(1, nodes).addStructs(2, buffers);
+		writeMessage(HEADER_RECORD_BATCH, recordBatch, bodyLength);
+		for (int i = 0; i < bodyBuffers.size(); i++) {
+			ArrowBuffer buffer = bodyBuffers.get(i);
+			// 补0到8字节对齐, 位图只扩展到最后一个为1的位, 不足的部分同样补0
+			buffer.skip(Math.max(0, FlatBuffer.align(lengths.get(i), 8) - buffer.size()));
+			buffer.writeTo(out);
+		}
+		for (Vector vector : vectors) {
+			vector.reset();
+		}
+		rows = 0;
+	}
+
+	/**
+	 * 写入消息: 开始标记, 元数据长度, 按8字节对齐的Message元数据
+	 */
+	private void writeMessage(byte headerType, Table header, long bodyLength) throws IOException {
+		Table message = new Table().addShort(0, METADATA_VERSION).addByte(1, headerType).addTable(2, header)
+				.addLong(3, bodyLength);
+		ArrowBuffer metadata = FlatBuffer.finish(message);
+		metadata.align(8);
+		ArrowBuffer prefix = new ArrowBuffer();
+		prefix.putInt(CONTINUATION);
+		prefix.putInt(metadata.size());
+		prefix.writeTo(out);
+		metadata.writeTo(out);
+	}
+
+}
@@ -0,0 +1,233 @@
+package com.mxy.air.db.arrow;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 生成Arrow IPC元数据需要的FlatBuffers二进制. 只支持Arrow消息用到的部分: 表, 字符串, 表数组, 结构体数组.
+ * 与FlatBuffers官方的Builder从后向前写入不同, 这里从前向后写入, 子对象写在引用它的表之后, 偏移量都为正数
+ *
+ * @author mengxiangyun
+ *
+ */
+class FlatBuffer {
+
+	/**
+	 * 表, 字段按序号(slot)设置, 未设置的字段读取时为默认值
+	 */
+	static class Table {
+
+		// 按序号保存的字段, 标量为Number/Boolean, 引用为Table/String/TableVector/StructVector
+		private final List<Object> values = new ArrayList<>();
+
+		// 标量字段的字节数, 引用字段为4
+		private final List<Integer> sizes = new ArrayList<>();
+
+		private Table set(int slot, Object value, int size) {
+			while (values.size() <= slot) {
+				values.add(null);
+				sizes.add(0);
+			}
+			values.set(slot, value);
+			sizes.set(slot, size);
+			return this;
+		}
+
+		Table addByte(int slot, int value) {
+			return set(slot, (byte) value, 1);
+		}
+
+		Table addBool(int slot, boolean value) {
+			return set(slot, (byte) (value ? 1 : 0), 1);
+		}
+
+		Table addShort(int slot, int value) {
+			return set(slot, (short) value, 2);
+		}
+
+		Table addInt(int slot, int value) {
+			return set(slot, value, 4);
+		}
+
+		Table addLong(int slot, long value) {
+			return set(slot, value, 8);
+		}
+
+		Table addString(int slot, String value) {
+			return set(slot, value, 4);
+		}
+
+		Table addTable(int slot, Table value) {
+			return set(slot, value, 4);
+		}
+
+		Table addTables(int slot, List<Table> value) {
+			return set(slot, new TableVector(value), 4);
+		}
+
+		Table addStructs(int slot, StructVector value) {
+			return set(slot, value, 4);
+		}
+
+	}
+
+	private static class TableVector {
+
+		private final List<Table> tables;
+
+		private TableVector(List<Table> tables) {
+			this.tables = tables;
+		}
+
+	}
+
+	/**
+	 * 结构体数组, 每个结构体由若干个long组成, 如Arrow的FieldNode和Buffer
+	 */
+	static class StructVector {
+
+		private final int longsPerStruct;
+
+		private long[] values = new long[16];
+
+		private int size;
+
+		StructVector(int longsPerStruct) {
+			this.longsPerStruct = longsPerStruct;
+		}
+
+		StructVector add(long... struct) {
+			if (size + struct.length > values.length) {
+				values = Arrays.copyOf(values, Math.max(values.length * 2, size + struct.length));
+			}
+			System.arraycopy(struct, 0, values, size, struct.length);
+			size += struct.length;
+			return this;
+		}
+
+		private int count() {
+			return size / longsPerStruct;
+		}
+
+	}
+
+	private final ArrowBuffer buffer = new ArrowBuffer();
+
+	private FlatBuffer() {
+	}
+
+	/**
+	 * 生成以root为根表的FlatBuffers二进制
+	 *
+	 * @param root
+	 * @return 写入了二进制的缓冲区
+	 */
+	static ArrowBuffer finish(Table root) {
+		FlatBuffer flatBuffer = new FlatBuffer();
+		ArrowBuffer buffer = flatBuffer.buffer;
+		buffer.putInt(0);
+		int rootPosition = flatBuffer.write(root);
+		buffer.setInt(0, rootPosition);
+		return buffer;
+	}
+
+	/**
+	 * 写入表, vtable在表之前. 表的起始位置按8字节对齐, 字段按自身大小对齐
+	 *
+	 * @return 表的位置
+	 */
+	private int write(Table table) {
+		int slots = table.values.size();
+		// 字段在表中的偏移, 表以指向vtable的4字节偏移量开始, 字段按大小从大到小排列以减少填充
+		int[] offsets = new int[slots];
+		int tableSize = 4;
+		for (int size = 8; size >= 1; size /= 2) {
+			for (int slot = 0; slot < slots; slot++) {
+				if (table.values.get(slot) != null && table.sizes.get(slot) == size) {
+					tableSize = align(tableSize, size);
+					offsets[slot] = tableSize;
+					tableSize += size;
+				}
+			}
+		}
+		buffer.align(2);
+		int vtablePosition = buffer.size();
+		buffer.putShort(4 + 2 * slots);
+		buffer.putShort(tableSize);
+		for (int offset : offsets) {
+			buffer.putShort(offset);
+		}
+		buffer.align(8);
+		int tablePosition = buffer.size();
+		buffer.putInt(tablePosition - vtablePosition);
+		buffer.skip(tableSize - 4);
+		List<int[]> references = new ArrayList<>();
+		for (int slot = 0; slot < slots; slot++) {
+			Object value = table.values.get(slot);
+			int position = tablePosition + offsets[slot];
+			if (value == null) {
+				continue;
+			} else if (value instanceof Byte) {
+				buffer.setByte(position, (Byte) value);
+			} else if (value instanceof Short) {
+				buffer.setShort(position, (Short) value);
+			} else if (value instanceof Integer) {
+				buffer.setInt(position, (Integer) value);
+			} else if (value instanceof Long) {
+				buffer.setLong(position, (Long) value);
+			} else {
+				references.add(new int[] { slot, position });
+			}
+		}
+		// 引用的对象写在表之后, 偏移量为对象位置与字段位置之差
+		for (int[] reference : references) {
+			int target = writeReference(table.values.get(reference[0]));
+			buffer.setInt(reference[1], target - reference[1]);
+		}
+		return tablePosition;
+	}
+
+	private int writeReference(Object value) {
+		if (value instanceof Table) {
+			return write((Table) value);
+		}
+		buffer.align(4);
+		if (value instanceof String) {
+			int position = buffer.size();
+			byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+			buffer.putInt(bytes.length);
+			buffer.putBytes(bytes, 0, bytes.length);
+			buffer.putByte(0);
+			return position;
+		}
+		if (value instanceof TableVector) {
+			List<Table> tables = ((TableVector) value).tables;
+			int position = buffer.size();
+			buffer.putInt(tables.size());
+			buffer.skip(4 * tables.size());
+			for (int i = 0; i < tables.size(); i++) {
+				int slotPosition = position + 4 + 4 * i;
+				buffer.setInt(slotPosition, write(tables.get(i)) - slotPosition);
+			}
+			return position;
+		}
+		StructVector structs = (StructVector) value;
+		// 结构体包含long, 数组元素需要按8字节对齐, 长度位于元素之前
+		if (buffer.size() % 8 == 0) {
+			buffer.putInt(0);
+		}
+		int position = buffer.size();
+		buffer.putInt(structs.count());
+		for (int i = 0; i < structs.size; i++) {
+			buffer.putLong(structs.values[i]);
+		}
+		return position;
+	}
+
+	static int align(int position, int alignment) {
+		return (position + alignment - 1) / alignment * alignment;
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.mxy.air.db.builder;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.mxy.air.db.AirContext;
+import com.mxy.air.db.SQLBuilder;
+import com.mxy.air.json.JSONArray;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * 批量导入, 不生成SQL语句, 由数据库方言以原生批量导入协议写入数据
+ * 
+ * @author mengxiangyun
+ *
+ */
+public class Bulk extends SQLBuilder {
+
+	// 导入的数据
+	private List<Map<String, Object>> rows;
+
+	public Bulk() {
+		statementType = StatementType.INSERT;
+	}
+
+	public Bulk(String table, List<Map<String, Object>> rows) {
+		this();
+		this.table = table;
+		this.rows = rows;
+	}
+
+	public Bulk toBuild() {
+		if (db == null)
+			db = AirContext.getDefaultDb();
+		dialect = AirContext.getDialect(db);
+		// 配置
+		JSONObject columnsConfig = AirContext.getColumnsConfig(db, table);
+		// 导入的列为所有数据中出现过的数据库表字段
+		Set<String> bulkColumns = new LinkedHashSet<>();
+		for (Map<String, Object> row : rows) {
+			for (String column : row.keySet()) {
+				// 如果字段不是数据库表中的字段, 就跳过
+				if (columnsConfig.containsKey(column)) {
+					bulkColumns.add(column);
+				}
+			}
+		}
+		columns = bulkColumns.toArray(new String[] {});
+		return this;
+	}
+
+	/**
+	 * 按导入列的顺序逐行转换数据
+	 * 
+	 * @return
+	 */
+	public Iterator<Object[]> rowIterator() {
+		Iterator<Map<String, Object>> iterator = rows.iterator();
+		return new Iterator<Object[]>() {
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Object[] next() {
+				Map<String, Object> row = iterator.next();
+				Object[] values = new Object[columns.length];
+				for (int i = 0; i < columns.length; i++) {
+					Object value = row.get(columns[i]);
+					if (value instanceof JSONObject || value instanceof JSONArray) {
+						value = value.toString();
+					}
+					values[i] = value;
+				}
+				return values;
+			}
+
+		};
+	}
+
+	public List<Map<String, Object>> rows() {
+		return rows;
+	}
+
+	public Bulk rows(List<Map<String, Object>> rows) {
+		this.rows = rows;
+		return this;
+	}
+
+}
@@ -3,6 +3,7 @@ package com.mxy.air.db.builder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import com.google.common.base.Strings;
@@ -134,21 +135,15 @@ public class Condition {
 				break;
 			case IN:
 				conditionBuilder.append(aliasPrefix).append(column).append(" in (");
-				// 将所有元素替换为?占位符 a,b,c -> ?,?,?
-				String inString = value.toString().replaceAll("((?!,).)*", "?").replaceAll("(\\?)+", "?");
-				conditionBuilder.append(inString);
+				value = inValues(value);
+				conditionBuilder.append(String.join(",", Collections.nCopies(((Object[]) value).length, "?")));
 				conditionBuilder.append(")");
-
-				value = value.toString().split(",");
 				break;
 			case NOT_IN:
 				conditionBuilder.append(aliasPrefix).append(column).append(" not in (");
-				// 将所有元素替换为?占位符 a,b,c -> ?,?,?
-				String notInString = value.toString().replaceAll("((?!,).)*", "?").replaceAll("(\\?)+", "?");
-				conditionBuilder.append(notInString);
+				value = inValues(value);
+				conditionBuilder.append(String.join(",", Collections.nCopies(((Object[]) value).length, "?")));
 				conditionBuilder.append(")");
-
-				value = value.toString().split(",");
 				break;
 			case BETWEEN:
 				conditionBuilder.append(aliasPrefix).append(column).append(" between ? and ?");
@@ -177,6 +172,16 @@ public class Condition {
 		return sql;
 	}
 
+	/**
+	 * in条件的值, 逗号分隔的字符串 a,b,c 拆分为数组, 已经是数组时(如批量查询关联表时的关联字段值)保留原始类型
+	 */
+	private Object[] inValues(Object value) {
+		if (value instanceof Object[]) {
+			return (Object[]) value;
+		}
+		return value.toString().split(",");
+	}
+
 	/**
 	 * 
 	 * @param value 字段值
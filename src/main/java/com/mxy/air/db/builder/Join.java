@@ -29,6 +29,15 @@ public class Join {
 	// 表关联类型
 	private Association.Type associationType;
 
+	// 一对多或多对多关联的查询方式
+	private Association.Fetch fetch = Association.Fetch.JOIN;
+
+	// 一对多或多对多关联中每条主表记录最多的关联记录数, 为null时不限制
+	private Integer limit;
+
+	// 一对多或多对多关联中每条主表记录的关联记录的排序, 列为关联表的列
+	private String[] orders;
+
 	public Join() {}
 
 	public Join(String table, String alias, String column, String targetTable, String targetAlias, String targetColumn,
@@ -115,4 +124,37 @@ public class Join {
 		this.associationType = associationType;
 	}
 
+	public Association.Fetch getFetch() {
+		return fetch;
+	}
+
+	public void setFetch(Association.Fetch fetch) {
+		this.fetch = fetch;
+	}
+
+	public Integer getLimit() {
+		return limit;
+	}
+
+	public void setLimit(Integer limit) {
+		this.limit = limit;
+	}
+
+	public String[] getOrders() {
+		return orders;
+	}
+
+	public void setOrders(String[] orders) {
+		this.orders = orders;
+	}
+
+	/**
+	 * 是否为一对多或多对多关联
+	 * 
+	 * @return
+	 */
+	public boolean isMany() {
+		return associationType == Association.Type.ONE_TO_MANY || associationType == Association.Type.MANY_TO_MANY;
+	}
+
 }
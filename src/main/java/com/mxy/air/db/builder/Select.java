@@ -9,17 +9,31 @@ import java.util.stream.Collectors;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.mxy.air.db.AirContext;
+import com.mxy.air.db.DbException;
 import com.mxy.air.db.SQLBuilder;
+import com.mxy.air.db.config.DatacolorConfig;
 import com.mxy.air.db.config.TableConfig;
 import com.mxy.air.db.jdbc.Page;
 import com.mxy.air.json.JSONObject;
 
 public class Select extends SQLBuilder {
 
+	// 限制每条主表记录的关联记录数时, 关联表子查询中的行号列
+	public static final String ROW_NUMBER_COLUMN = "air_rn";
+
 	protected String countSql;
 
 	protected List<Object> whereParams = new ArrayList<>();
 
+	// 分页查询的总记录数是否随查询结果一起返回
+	protected boolean totalInResult;
+
+	// 主表的数据来源, 为null时为主表, 也可以为子查询
+	protected String source;
+
+	// 数据来源子查询中的参数, 在查询条件的参数之前
+	protected List<Object> sourceParams = new ArrayList<>();
+
 	public Select() {
 		statementType = StatementType.SELECT;
 	}
@@ -50,6 +64,7 @@ public class Select extends SQLBuilder {
 		if (db == null)
 			db = AirContext.getDefaultDb();
 		dialect = AirContext.getDialect(db);
+		totalInResult = false;
 		// 主表的配置
 		JSONObject tableConfig = AirContext.getTableConfig(db, table);
 		/*
@@ -89,13 +104,17 @@ public class Select extends SQLBuilder {
 			conditions.removeAll(primaryTableConditions);
 			Select primarySelect = new Select(table, null, Collections.emptyList(), null, primaryTableConditions, null,
 					null, limit);
+			primarySelect.from(source, sourceParams);
 			primarySelect.build();
 			tableBuilder.append(" from (").append(primarySelect.sql()).append(") ").append(alias);
 			countSql = primarySelect.getCountSql();
 			whereParams = primarySelect.getWhereParams();
 			params.addAll(primarySelect.params());
 		} else {
-			tableBuilder.append(" from ").append(table).append(" ").append(alias);
+			tableBuilder.append(" from ").append(source == null ? table : source).append(" ").append(alias);
+			if (source != null) {
+				params.addAll(sourceParams);
+			}
 		}
 		// 列字符串
 		StringBuilder columnBuilder = new StringBuilder();
@@ -113,7 +132,7 @@ public class Select extends SQLBuilder {
 			if (!isEmpty(joins)) { // 存在关联表查询
 				for (Join join : joins) {
 					// 拼接table字符串
-					tableBuilder.append(" ").append(join.getJoinType().text()).append(" ").append(join.getTargetTable())
+					tableBuilder.append(" ").append(join.getJoinType().text()).append(" ").append(joinSource(join))
 							.append(" ").append(join.getTargetAlias()).append(" on ").append(join.getAlias())
 							.append(".").append(join.getColumn()).append(" = ").append(join.getTargetAlias())
 							.append(".").append(join.getTargetColumn());
@@ -175,7 +194,7 @@ public class Select extends SQLBuilder {
 			if (!isEmpty(joins)) {
 				for (Join join : joins) {
 					// 拼接table字符串
-					tableBuilder.append(" ").append(join.getJoinType().text()).append(" ").append(join.getTargetTable())
+					tableBuilder.append(" ").append(join.getJoinType().text()).append(" ").append(joinSource(join))
 							.append(" ").append(join.getTargetAlias()).append(" on ").append(join.getAlias())
 							.append(".").append(join.getColumn()).append(" = ").append(join.getTargetAlias())
 							.append(".").append(join.getTargetColumn());
@@ -241,7 +260,7 @@ public class Select extends SQLBuilder {
 		tableString = tableBuilder.toString();
 		whereString = buildWhere();
 		groupString = buildGroup();
-		orderString = buildOrder();
+		orderString = buildOrder() + buildJoinOrder();
 		builder.append("select ");
 		builder.append(columnString);
 		builder.append(tableString);
@@ -252,13 +271,102 @@ public class Select extends SQLBuilder {
 		if (!isEmpty(limit) && !manyLimit) {
 			countSql = count();
 			whereParams = new ArrayList<>(params);
-			sql = dialect.processLimit(sql);
+			String totalSql = AirContext.getConfig().getBoolean(DatacolorConfig.WINDOW_COUNT)
+					? dialect.processLimitWithTotal(sql)
+					: null;
+			totalInResult = totalSql != null;
+			sql = totalInResult ? totalSql : dialect.processLimit(sql);
 			Object[] limitParams = dialect.processLimitParams(new Page(limit[0], limit[1]));
 			params.addAll(Arrays.asList(limitParams));
 		}
 		return this;
     }
 
+	/**
+	 * join的关联表, 限制了每条主表记录的关联记录数时为按关联字段分组取前n条记录的子查询.
+	 * 子查询对整个关联表排序编号, 通常由JoinFetcher按主表记录的关联字段值批量查询, 只有查询条件或排序中包含该关联表时使用
+	 */
+	private String joinSource(Join join) {
+		if (join.getLimit() == null) {
+			return join.getTargetTable();
+		}
+		if (!dialect.supportsWindowFunction()) {
+			throw new DbException(String.format("数据库不支持窗口函数, 关联表 [%s] 的limit需要批量查询, 查询条件和排序中不能包含该表",
+					join.getTargetTable()));
+		}
+		return partitionLimit(join.getTargetTable(), join.getTargetColumn(), join.getOrders(), join.getLimit());
+	}
+
+	/**
+	 * 一对多或多对多关联的排序, 在主表的排序之后, 使每条主表记录的关联记录按指定的顺序组装
+	 */
+	private String buildJoinOrder() {
+		List<String> joinOrders = new ArrayList<>();
+		if (!isEmpty(joins)) {
+			for (Join join : joins) {
+				if (join.getLimit() != null) {
+					joinOrders.add(join.getTargetAlias() + "." + ROW_NUMBER_COLUMN);
+				} else if (join.getOrders() != null) {
+					for (String order : join.getOrders()) {
+						joinOrders.add(join.getTargetAlias() + "." + order);
+					}
+				}
+			}
+		}
+		if (joinOrders.isEmpty()) {
+			return "";
+		}
+		return (isEmpty(orders) ? " order by " : ",") + String.join(",", joinOrders);
+	}
+
+	/**
+	 * 按分组字段分组, 每组按排序取前limit条记录的子查询, 行号为ROW_NUMBER_COLUMN列:
+	 * (select * from (select p.*, row_number() over (partition by p.分组字段 order by p.排序字段) air_rn from 表 p) w where air_rn &lt;= limit)
+	 * 
+	 * @param table
+	 *            表名
+	 * @param partitionColumn
+	 *            分组字段
+	 * @param orders
+	 *            组内的排序, 如 create_time desc, 为空时按分组字段排序
+	 * @param limit
+	 *            每组最多的记录数
+	 * @return
+	 */
+	public static String partitionLimit(String table, String partitionColumn, String[] orders, int limit) {
+		return partitionLimit(table, partitionColumn, orders, limit, 0);
+	}
+
+	/**
+	 * 只对指定分组字段值的记录编号的分组子查询, 分组字段值为参数:
+	 * (select * from (select p.*, row_number() over (...) air_rn from 表 p where p.分组字段 in (?,?)) w where air_rn &lt;= limit)
+	 * 
+	 * @param table
+	 * @param partitionColumn
+	 * @param orders
+	 * @param limit
+	 * @param keys
+	 *            分组字段值的个数, 0为不限制
+	 * @return
+	 */
+	public static String partitionLimit(String table, String partitionColumn, String[] orders, int limit, int keys) {
+		StringBuilder builder = new StringBuilder();
+		builder.append("(select * from (select air_p.*, row_number() over (partition by air_p.").append(partitionColumn)
+				.append(" order by ");
+		if (orders == null || orders.length == 0) {
+			builder.append("air_p.").append(partitionColumn);
+		} else {
+			builder.append(Arrays.stream(orders).map(order -> "air_p." + order).collect(Collectors.joining(",")));
+		}
+		builder.append(") ").append(ROW_NUMBER_COLUMN).append(" from ").append(table).append(" air_p");
+		if (keys > 0) {
+			builder.append(" where air_p.").append(partitionColumn).append(" in (")
+					.append(String.join(",", Collections.nCopies(keys, "?"))).append(")");
+		}
+		builder.append(") air_w where ").append(ROW_NUMBER_COLUMN).append(" <= ").append(limit).append(")");
+		return builder.toString();
+	}
+
 	public String count() {
 		StringBuilder builder = new StringBuilder();
 		builder.append("select count(1) from (").append("select ").append(columnString)
@@ -276,4 +384,30 @@ public class Select extends SQLBuilder {
 		return whereParams;
 	}
 
+	public boolean isTotalInResult() {
+		return totalInResult;
+	}
+
+	public String from() {
+		return source;
+	}
+
+	public Select from(String source) {
+		return from(source, new ArrayList<>());
+	}
+
+	/**
+	 * 
+	 * @param source
+	 *            数据来源子查询
+	 * @param sourceParams
+	 *            子查询中的参数
+	 * @return
+	 */
+	public Select from(String source, List<Object> sourceParams) {
+		this.source = source;
+		this.sourceParams = sourceParams;
+		return this;
+	}
+
 }
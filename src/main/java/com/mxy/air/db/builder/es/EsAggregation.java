@@ -0,0 +1,331 @@
+package com.mxy.air.db.builder.es;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.mxy.air.json.JSONArray;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * 分组查询转换为ES聚合. 分组字段为composite聚合的terms/date_histogram源, 通过after分页读取所有分组;
+ * 只有一个分组字段并且按统计值排序时使用terms聚合. count/sum/avg/min/max转换为分组下的统计聚合, 不返回文档(size为0)
+ *
+ * @author mengxiangyun
+ *
+ */
+public class EsAggregation {
+
+	// 聚合名称
+	private static final String GROUPS = "groups";
+
+	// 分组总数(近似值)的聚合名称
+	private static final String TOTAL = "total";
+
+	// 统计字段: count(*), sum(price) as total, count(distinct user_id) users
+	private static final Pattern METRIC = Pattern.compile(
+			"^(count|sum|avg|min|max)\\s*\\(\\s*(distinct\\s+)?([^()\\s]+)\\s*\\)(?:\\s+(?:as\\s+)?(\\S+))?$",
+			Pattern.CASE_INSENSITIVE);
+
+	// 按时间间隔分组: date_histogram(created_at, 1d)
+	private static final Pattern DATE_HISTOGRAM = Pattern
+			.compile("^date_histogram\\s*\\(\\s*([^,\\s]+)\\s*,\\s*([^)\\s]+)\\s*\\)$", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * 分组字段
+	 */
+	private static class Source {
+
+		// 请求中的分组字段
+		private final String expression;
+
+		private final String column;
+
+		// 时间间隔, 为null时按字段值分组
+		private final String interval;
+
+		private String order = "asc";
+
+		private Source(String expression, String column, String interval) {
+			this.expression = expression;
+			this.column = column;
+			this.interval = interval;
+		}
+
+	}
+
+	/**
+	 * 统计字段
+	 */
+	private static class Metric {
+
+		// 结果中的列名
+		private final String name;
+
+		// 聚合名称
+		private final String aggName;
+
+		private final String function;
+
+		private final String column;
+
+		private final boolean distinct;
+
+		private Metric(String name, String aggName, String function, String column, boolean distinct) {
+			this.name = name;
+			this.aggName = aggName;
+			this.function = function;
+			this.column = column;
+			this.distinct = distinct;
+		}
+
+		// count(*)直接取分组的文档数
+		private boolean isDocCount() {
+			return "count".equals(function) && "*".equals(column);
+		}
+
+		private JSONObject agg() {
+			String type = function;
+			if ("count".equals(function)) {
+				type = distinct ? "cardinality" : "value_count";
+			}
+			return new JSONObject().put(type, new JSONObject().put("field", column));
+		}
+
+		// terms聚合排序时的名称
+		private String orderKey() {
+			return isDocCount() ? "_count" : aggName;
+		}
+
+	}
+
+	private final JSONObject query;
+
+	private final List<Source> sources = new ArrayList<>();
+
+	private final List<Metric> metrics = new ArrayList<>();
+
+	// terms聚合的排序, 为null时使用composite聚合
+	private JSONObject termsOrder;
+
+	private EsAggregation(JSONObject query) {
+		this.query = query;
+	}
+
+	/**
+	 * 解析分组查询
+	 *
+	 * @param query
+	 *            ES查询条件
+	 * @param fields
+	 *            查询的字段, 只能为分组字段或统计字段
+	 * @param groups
+	 * @param orders
+	 * @return 不能转换为ES聚合时返回null
+	 */
+	static EsAggregation parse(JSONObject query, String[] fields, String[] groups, String[] orders) {
+		EsAggregation aggregation = new EsAggregation(query);
+		for (String group : groups) {
+			String expression = group.trim();
+			Matcher matcher = DATE_HISTOGRAM.matcher(expression);
+			aggregation.sources.add(matcher.matches() ? new Source(expression, matcher.group(1), matcher.group(2))
+					: new Source(expression, expression, null));
+		}
+		if (fields != null) {
+			for (String field : fields) {
+				field = field.trim();
+				if (aggregation.source(field) != null) {
+					continue;
+				}
+				Matcher matcher = METRIC.matcher(field);
+				if (!matcher.matches()) {
+					return null;
+				}
+				String name = matcher.group(4) != null ? matcher.group(4) : field;
+				aggregation.metrics.add(new Metric(name, "m" + aggregation.metrics.size(),
+						matcher.group(1).toLowerCase(), matcher.group(3), matcher.group(2) != null));
+			}
+		}
+		if (orders == null) {
+			return aggregation;
+		}
+		for (String order : orders) {
+			String[] columnOrder = order.trim().split(" +");
+			String direction = columnOrder.length > 1 ? columnOrder[1].toLowerCase() : "asc";
+			Source source = aggregation.source(columnOrder[0]);
+			if (source != null) {
+				source.order = direction;
+				continue;
+			}
+			Metric metric = aggregation.metric(columnOrder[0]);
+			// composite聚合只能按分组字段排序, 按统计值排序时只支持一个分组字段
+			if (metric == null || aggregation.sources.size() > 1 || aggregation.termsOrder != null) {
+				return null;
+			}
+			aggregation.termsOrder = new JSONObject().put(metric.orderKey(), direction);
+		}
+		return aggregation;
+	}
+
+	private Source source(String column) {
+		for (Source source : sources) {
+			if (source.column.equals(column) || source.expression.equals(column)) {
+				return source;
+			}
+		}
+		return null;
+	}
+
+	private Metric metric(String name) {
+		for (Metric metric : metrics) {
+			if (metric.name.equals(name)) {
+				return metric;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 是否使用terms聚合, terms聚合一次返回size个分组, 不能分页读取
+	 *
+	 * @return
+	 */
+	public boolean isTerms() {
+		return termsOrder != null;
+	}
+
+	/**
+	 * composite聚合的请求体
+	 *
+	 * @param after
+	 *            上一页最后一个分组的key, 第一页为null
+	 * @param size
+	 *            每页分组数
+	 * @param withTotal
+	 *            是否附带分组总数(近似值), 只有hasTotal()为true时有效
+	 * @return
+	 */
+	public JSONObject composite(JSONObject after, int size, boolean withTotal) {
+		JSONArray compositeSources = new JSONArray();
+		for (Source source : sources) {
+			JSONObject value = new JSONObject().put("field", source.column).put("order", source.order);
+			String type = "terms";
+			if (source.interval != null) {
+				type = "date_histogram";
+				value.put("interval", source.interval);
+			}
+			compositeSources.add(new JSONObject().put(source.column, new JSONObject().put(type, value)));
+		}
+		JSONObject composite = new JSONObject().put("size", size).put("sources", compositeSources);
+		if (after != null) {
+			composite.put("after", after);
+		}
+		JSONObject body = body(new JSONObject().put("composite", composite));
+		if (withTotal && hasTotal()) {
+			body.getObject("aggs").put(TOTAL, totalAgg());
+		}
+		return body;
+	}
+
+	/**
+	 * 能否通过cardinality聚合得到分组总数(近似值), 有按时间间隔分组的字段时不能
+	 *
+	 * @return
+	 */
+	public boolean hasTotal() {
+		return sources.stream().allMatch(source -> source.interval == null);
+	}
+
+	/**
+	 * 分组总数的cardinality聚合, 多个分组字段时按所有分组字段值的组合统计, 缺少任一分组字段的文档不计入(与composite聚合相同)
+	 */
+	private JSONObject totalAgg() {
+		if (sources.size() == 1) {
+			return new JSONObject().put("cardinality", new JSONObject().put("field", sources.get(0).column));
+		}
+		StringBuilder script = new StringBuilder();
+		List<String> values = new ArrayList<>();
+		for (Source source : sources) {
+			String doc = "doc['" + source.column + "']";
+			script.append("if (").append(doc).append(".size() == 0) { return null; } ");
+			values.add("String.valueOf(" + doc + ".value)");
+		}
+		script.append("return ").append(String.join(" + '|' + ", values)).append(";");
+		return new JSONObject().put("cardinality", new JSONObject().put("script",
+				new JSONObject().put("lang", "painless").put("source", script.toString())));
+	}
+
+	/**
+	 * terms聚合的请求体, 附带分组总数(近似值)
+	 *
+	 * @param size
+	 *            返回的分组数
+	 * @param shardSize
+	 *            每个分片返回的分组数, 0为ES默认值
+	 * @return
+	 */
+	public JSONObject terms(int size, int shardSize) {
+		Source source = sources.get(0);
+		JSONObject terms = new JSONObject().put("field", source.column).put("size", size).put("order", termsOrder);
+		if (shardSize > 0) {
+			terms.put("shard_size", Math.max(size, shardSize));
+		}
+		JSONObject body = body(new JSONObject().put("terms", terms));
+		body.getObject("aggs").put(TOTAL, totalAgg());
+		return body;
+	}
+
+	private JSONObject body(JSONObject groupAgg) {
+		if (!metrics.isEmpty()) {
+			JSONObject aggs = new JSONObject();
+			metrics.stream().filter(metric -> !metric.isDocCount())
+					.forEach(metric -> aggs.put(metric.aggName, metric.agg()));
+			if (!aggs.isEmpty()) {
+				groupAgg.put("aggs", aggs);
+			}
+		}
+		JSONObject body = new JSONObject().put("size", 0);
+		if (query != null) {
+			body.put("query", query);
+		}
+		return body.put("aggs", new JSONObject().put(GROUPS, groupAgg));
+	}
+
+	/**
+	 * terms聚合或附带分组总数的composite聚合的分组总数
+	 *
+	 * @param aggregations
+	 *            响应中的aggregations
+	 * @return
+	 */
+	public long total(JSONObject aggregations) {
+		return aggregations.getObject(TOTAL).getLong("value");
+	}
+
+	/**
+	 * 分组转换为记录, 包含分组字段和统计字段
+	 *
+	 * @param bucket
+	 * @return
+	 */
+	public Map<String, Object> row(JSONObject bucket) {
+		Map<String, Object> row = new LinkedHashMap<>();
+		Object key = bucket.get("key");
+		for (Source source : sources) {
+			row.put(source.column, key instanceof JSONObject ? ((JSONObject) key).get(source.column) : key);
+		}
+		for (Metric metric : metrics) {
+			if (metric.isDocCount()) {
+				row.put(metric.name, bucket.get("doc_count"));
+			} else {
+				JSONObject value = bucket.getObject(metric.aggName);
+				row.put(metric.name, value == null ? null : value.get("value"));
+			}
+		}
+		return row;
+	}
+
+}
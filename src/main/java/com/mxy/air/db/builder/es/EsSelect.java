@@ -1,18 +1,257 @@
 package com.mxy.air.db.builder.es;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
+import com.mxy.air.db.AirContext;
+import com.mxy.air.db.DbException;
 import com.mxy.air.db.SQLBuilder;
+import com.mxy.air.db.Structure.Operator;
 import com.mxy.air.db.builder.Condition;
 import com.mxy.air.db.builder.Join;
 import com.mxy.air.db.builder.Select;
+import com.mxy.air.db.config.DatacolorConfig.Es;
+import com.mxy.air.json.JSONArray;
+import com.mxy.air.json.JSONObject;
 
 public class EsSelect extends Select {
 
+	// 未分页时最多返回的文档数, 与index.max_result_window的默认值相同
+	public static final int MAX_SIZE = 10000;
+
+	// 请求中指定的查询字段, 构建SQL时未指定字段的columns会被替换为所有字段
+	private final String[] fields;
+
 	public EsSelect(String table, String alias, List<Join> joins, String[] columns, List<Condition> conditions,
 			String[] groups, String[] orders, long[] limit) {
 		super(table, alias, joins, columns, conditions, groups, orders, limit);
+		this.fields = columns;
+	}
+
+	/**
+	 * 是否可以直接转换为ES Query DSL查询
+	 *
+	 * @return
+	 */
+	public boolean isDsl() {
+		return isEmpty(groups) && isEmpty(joins);
+	}
+
+	/**
+	 * 分组查询转换为ES聚合
+	 *
+	 * @return 不能转换时(关联查询, 查询字段不是分组字段或count/sum/avg/min/max等)返回null, 仍通过SQL查询
+	 */
+	public EsAggregation aggregation() {
+		if (isEmpty(groups) || !isEmpty(joins)) {
+			return null;
+		}
+		return EsAggregation.parse(conditions.isEmpty() ? null : query(), fields, groups, orders);
+	}
+
+	private boolean isEmpty(List<Join> joins) {
+		return joins == null || joins.isEmpty();
+	}
+
+	/**
+	 * 将查询条件/列/排序/分页转换为ES Query DSL
+	 *
+	 * @return _search请求体
+	 */
+	public JSONObject dsl() {
+		JSONObject body = new JSONObject();
+		if (!conditions.isEmpty()) {
+			body.put("query", query());
+		}
+		if (!isEmpty(columns) && !Arrays.asList(columns).contains("*")) {
+			body.put("_source", new JSONArray(Arrays.asList(columns)));
+		}
+		if (!isEmpty(orders)) {
+			JSONArray sort = new JSONArray();
+			for (String order : orders) {
+				String[] columnOrder = order.trim().split(" +");
+				String direction = columnOrder.length > 1 ? columnOrder[1].toLowerCase() : "asc";
+				sort.add(new JSONObject().put(columnOrder[0], new JSONObject().put("order", direction)));
+			}
+			body.put("sort", sort);
+		}
+		if (!isEmpty(limit)) {
+			body.put("from", limit[0]);
+			body.put("size", limit[1] - limit[0]);
+			// 分页查询的总记录数取自同一次查询的hits.total, 配置了track_total_hits时超过阈值的总记录数为近似值
+			Object trackTotalHits = AirContext.getDataSource(db).get(Es.TRACK_TOTAL_HITS);
+			if (trackTotalHits != null) {
+				body.put("track_total_hits", trackTotalHits);
+			}
+		} else {
+			body.put("size", MAX_SIZE);
+			// 不分页时不需要总记录数
+			body.put("track_total_hits", false);
+		}
+		return body;
+	}
+
+	/**
+	 * 查询条件转换为ES查询, 没有条件时匹配所有文档
+	 *
+	 * @return
+	 */
+	public JSONObject query() {
+		if (conditions.isEmpty()) {
+			return new JSONObject().put("match_all", new JSONObject());
+		}
+		return query(conditions);
+	}
+
+	/**
+	 * 条件按SQL的优先级转换为bool查询, and优先于or: a and b or c -> should[must[a, b], c]
+	 *
+	 * @param conditions
+	 * @return
+	 */
+	private JSONObject query(Collection<?> conditions) {
+		List<List<JSONObject>> orGroups = new ArrayList<>();
+		List<JSONObject> andGroup = new ArrayList<>();
+		for (Object object : conditions) {
+			Condition condition = (Condition) object;
+			if (condition.getConnector() == Operator.OR && !andGroup.isEmpty()) {
+				orGroups.add(andGroup);
+				andGroup = new ArrayList<>();
+			}
+			andGroup.add(clause(condition));
+		}
+		orGroups.add(andGroup);
+		if (orGroups.size() == 1) {
+			return must(orGroups.get(0));
+		}
+		JSONArray should = new JSONArray();
+		orGroups.forEach(group -> should.add(must(group)));
+		return new JSONObject().put("bool", new JSONObject().put("should", should).put("minimum_should_match", 1));
+	}
+
+	private JSONObject must(List<JSONObject> clauses) {
+		if (clauses.size() == 1) {
+			return clauses.get(0);
+		}
+		return new JSONObject().put("bool", new JSONObject().put("filter", new JSONArray(clauses)));
+	}
+
+	/**
+	 * 单个条件转换为查询子句
+	 *
+	 * @param condition
+	 * @return
+	 */
+	private JSONObject clause(Condition condition) {
+		Object value = condition.getValue();
+		if (value instanceof Collection) {
+			return query((Collection<?>) value);
+		}
+		String column = condition.getColumn();
+		switch (condition.getOperator()) {
+		case EQUAL:
+			return match(column, value);
+		case NOT_EQUAL:
+			return not(match(column, value));
+		case GT:
+			return range(column, "gt", value);
+		case GTE:
+			return range(column, "gte", value);
+		case LT:
+			return range(column, "lt", value);
+		case LTE:
+			return range(column, "lte", value);
+		case IN:
+			return terms(column, split(value, ","));
+		case NOT_IN:
+			return not(terms(column, split(value, ",")));
+		case BETWEEN:
+			List<Object> between = split(value, "~");
+			return new JSONObject().put("range", new JSONObject().put(column,
+					new JSONObject().put("gte", esValue(between.get(0))).put("lte", esValue(between.get(1)))));
+		case LIKE:
+			return wildcard(column, value);
+		case NOT_LIKE:
+			return not(wildcard(column, value));
+
+		default:
+			throw new DbException(String.format("ES不支持运算符 [%s]", condition.getOperator()));
+		}
+	}
+
+	/**
+	 * 等于, text类型的字段按短语匹配, 其他类型精确匹配
+	 */
+	private JSONObject match(String column, Object value) {
+		String type = AirContext.getColumnType(db, table, column);
+		String query = "text".equals(type) ? "match_phrase" : "term";
+		return new JSONObject().put(query, new JSONObject().put(column, esValue(value)));
+	}
+
+	private JSONObject range(String column, String operator, Object value) {
+		return new JSONObject().put("range",
+				new JSONObject().put(column, new JSONObject().put(operator, esValue(value))));
+	}
+
+	private JSONObject terms(String column, List<Object> values) {
+		JSONArray array = new JSONArray();
+		values.forEach(v -> array.add(esValue(v)));
+		return new JSONObject().put("terms", new JSONObject().put(column, array));
+	}
+
+	/**
+	 * like转换为wildcard查询, % -> *, _ -> ?
+	 */
+	private JSONObject wildcard(String column, Object value) {
+		StringBuilder pattern = new StringBuilder();
+		for (char c : value.toString().toCharArray()) {
+			switch (c) {
+			case '%':
+				pattern.append('*');
+				break;
+			case '_':
+				pattern.append('?');
+				break;
+			case '*':
+			case '?':
+			case '\\':
+				pattern.append('\\').append(c);
+				break;
+
+			default:
+				pattern.append(c);
+				break;
+			}
+		}
+		return new JSONObject().put("wildcard", new JSONObject().put(column, pattern.toString()));
+	}
+
+	private JSONObject not(JSONObject clause) {
+		return new JSONObject().put("bool", new JSONObject().put("must_not", new JSONArray().add(clause)));
+	}
+
+	/**
+	 * 构建SQL时in/between的条件值已被拆分为数组
+	 */
+	private List<Object> split(Object value, String separator) {
+		if (value instanceof Object[]) {
+			return Arrays.asList((Object[]) value);
+		}
+		List<Object> values = new ArrayList<>();
+		for (String v : value.toString().split(separator)) {
+			values.add(v.trim());
+		}
+		return values;
+	}
+
+	private Object esValue(Object value) {
+		if (value instanceof Date) {
+			return ((Date) value).getTime();
+		}
+		return value;
 	}
 
 	@Override
@@ -36,12 +275,14 @@ public class EsSelect extends Select {
 			if (value instanceof Date) {
 				values[i] = "'" + value + "'";
 			} else if (value instanceof String) {
-				values[i] = "'" + value + "'";
+				// 转义单引号, 防止字符串值破坏SQL
+				values[i] = "'" + ((String) value).replace("'", "''") + "'";
 			} else if (value instanceof Boolean) {
 				values[i] = (Boolean) value ? 1 : 0;
 			}
 		}
-		return String.format(sql.replaceAll("\\?", "%s"), values);
+		// SQL中的%会被当作格式符, 先转义
+		return String.format(sql.replace("%", "%%").replaceAll("\\?", "%s"), values);
 	}
 
 	@Override
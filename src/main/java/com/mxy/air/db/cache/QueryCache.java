@@ -0,0 +1,295 @@
+package com.mxy.air.db.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mxy.air.db.AirContext;
+import com.mxy.air.db.PageResult;
+import com.mxy.air.db.config.TableConfig;
+import com.mxy.air.json.JSON;
+import com.mxy.air.json.JSONArray;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * 查询结果缓存. 缓存的键为查询语句和参数, 每个缓存记录查询涉及的所有表(主表和关联表)在查询前的版本号,
+ * 对这些表的写操作使版本号加1, 版本号不一致的缓存视为失效. 只缓存所有涉及的表都开启了缓存的查询,
+ * 缓存时间取这些表中最短的缓存时间. 超过最大缓存数量时按最近最少使用移除
+ *
+ * @author mengxiangyun
+ *
+ */
+public class QueryCache {
+
+	// 默认最大缓存数量
+	public static final long DEFAULT_MAX_SIZE = 10000;
+
+	// 默认缓存时间(秒)
+	public static final long DEFAULT_TTL = 60;
+
+	// 默认可以缓存的查询结果的最大记录数
+	public static final long DEFAULT_MAX_ROWS = 10000;
+
+	/**
+	 * 查询的缓存键, 在执行查询之前生成, 记录查询前涉及的表的版本号
+	 */
+	public static class Key {
+
+		private final String db;
+
+		private final String statement;
+
+		private final String[] tables;
+
+		private final long[] versions;
+
+		private final long ttl;
+
+		// 生成缓存键时的数据库表配置快照, 配置变化(如热加载)后缓存失效
+		private final JSONObject dbsConfig;
+
+		private Key(String db, String statement, String[] tables, long[] versions, long ttl, JSONObject dbsConfig) {
+			this.db = db;
+			this.statement = statement;
+			this.tables = tables;
+			this.versions = versions;
+			this.ttl = ttl;
+			this.dbsConfig = dbsConfig;
+		}
+
+		private String cacheKey() {
+			return db + "\n" + statement;
+		}
+
+	}
+
+	private static class Entry {
+
+		private final JSON result;
+
+		private final Key key;
+
+		// 过期时间(毫秒), 0为不过期
+		private final long expireAt;
+
+		private Entry(JSON result, Key key) {
+			this.result = result;
+			this.key = key;
+			this.expireAt = key.ttl > 0 ? System.currentTimeMillis() + key.ttl * 1000 : 0;
+		}
+
+	}
+
+	private final Cache<String, Entry> cache;
+
+	private final long ttl;
+
+	private final long maxRows;
+
+	// 每个表的版本号, key为 数据源.表名
+	private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+	// 每个数据源的版本号, 无法确定写操作的表时(如原生SQL)加1, 使该数据源的所有缓存失效
+	private final ConcurrentMap<String, AtomicLong> dbVersions = new ConcurrentHashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	// 因写操作, 过期或配置变化而失效的缓存数
+	private final LongAdder invalidations = new LongAdder();
+
+	/**
+	 *
+	 * @param maxSize
+	 *            最大缓存数量
+	 * @param ttl
+	 *            默认缓存时间(秒), 0为不过期, 只在写操作后失效
+	 * @param maxRows
+	 *            可以缓存的查询结果的最大记录数
+	 */
+	public QueryCache(long maxSize, long ttl, long maxRows) {
+		this.cache = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().build();
+		this.ttl = ttl;
+		this.maxRows = maxRows;
+	}
+
+	/**
+	 * 生成查询的缓存键, 需要在执行查询之前调用
+	 *
+	 * @param db
+	 * @param tables
+	 *            查询涉及的所有表
+	 * @param statement
+	 *            查询语句和参数
+	 * @return 有未开启缓存的表时返回null
+	 */
+	public Key key(String db, Collection<String> tables, String statement) {
+		long keyTtl = -1;
+		for (String table : tables) {
+			JSONObject tableConfig = AirContext.getTableConfig(db, table);
+			if (tableConfig == null || !Boolean.TRUE.equals(tableConfig.get(TableConfig.CACHE))) {
+				return null;
+			}
+			long tableTtl = tableConfig.containsKey(TableConfig.CACHE_TTL) ? tableConfig.getLong(TableConfig.CACHE_TTL)
+					: ttl;
+			if (keyTtl < 0 || (tableTtl > 0 && (keyTtl == 0 || tableTtl < keyTtl))) {
+				keyTtl = tableTtl;
+			}
+		}
+		String[] keyTables = tables.toArray(new String[] {});
+		// 数据源的版本号在最后
+		long[] keyVersions = new long[keyTables.length + 1];
+		for (int i = 0; i < keyTables.length; i++) {
+			keyVersions[i] = version(versions, db + "." + keyTables[i]).get();
+		}
+		keyVersions[keyTables.length] = version(dbVersions, db).get();
+		return new Key(db, statement, keyTables, keyVersions, Math.max(keyTtl, 0), AirContext.getDbsConfig());
+	}
+
+	/**
+	 * 获取缓存的查询结果
+	 *
+	 * @param key
+	 * @return 查询结果的副本, 不存在或已失效时返回null
+	 */
+	public JSON get(Key key) {
+		String cacheKey = key.cacheKey();
+		Entry entry = cache.getIfPresent(cacheKey);
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		if (!isValid(entry, key)) {
+			cache.asMap().remove(cacheKey, entry);
+			invalidations.increment();
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return (JSON) copy(entry.result);
+	}
+
+	/**
+	 * 缓存查询结果, 查询期间涉及的表发生了写操作, 或结果的记录数超过最大记录数时不缓存
+	 *
+	 * @param key
+	 * @param result
+	 */
+	public void put(Key key, JSON result) {
+		if (rows(result) > maxRows || !isCurrent(key)) {
+			return;
+		}
+		cache.put(key.cacheKey(), new Entry((JSON) copy(result), key));
+	}
+
+	/**
+	 * 表发生写操作后, 使涉及该表的缓存失效
+	 *
+	 * @param db
+	 * @param table
+	 */
+	public void invalidate(String db, String table) {
+		version(versions, db + "." + table).incrementAndGet();
+	}
+
+	/**
+	 * 使数据源的所有缓存失效
+	 *
+	 * @param db
+	 */
+	public void invalidateAll(String db) {
+		version(dbVersions, db).incrementAndGet();
+	}
+
+	/**
+	 * 缓存统计: 缓存数量, 命中数, 未命中数, 命中率, 按容量移除数, 失效数
+	 *
+	 * @return
+	 */
+	public JSONObject stats() {
+		long hitCount = hits.sum();
+		long missCount = misses.sum();
+		long requestCount = hitCount + missCount;
+		return new JSONObject().put("size", cache.size()).put("hits", hitCount).put("misses", missCount)
+				.put("hit_rate", requestCount == 0 ? 1.0 : (double) hitCount / requestCount)
+				.put("evictions", cache.stats().evictionCount()).put("invalidations", invalidations.sum());
+	}
+
+	private boolean isValid(Entry entry, Key key) {
+		if (entry.expireAt > 0 && System.currentTimeMillis() > entry.expireAt) {
+			return false;
+		}
+		if (entry.key.dbsConfig != key.dbsConfig) {
+			return false;
+		}
+		return isCurrent(entry.key);
+	}
+
+	/**
+	 * 缓存键中的版本号是否为当前版本
+	 */
+	private boolean isCurrent(Key key) {
+		for (int i = 0; i < key.tables.length; i++) {
+			if (version(versions, key.db + "." + key.tables[i]).get() != key.versions[i]) {
+				return false;
+			}
+		}
+		return version(dbVersions, key.db).get() == key.versions[key.tables.length];
+	}
+
+	private AtomicLong version(ConcurrentMap<String, AtomicLong> versions, String name) {
+		return versions.computeIfAbsent(name, k -> new AtomicLong());
+	}
+
+	/**
+	 * 查询结果的记录数, 分页结果为当前页的记录数
+	 */
+	private long rows(JSON result) {
+		if (result instanceof JSONArray) {
+			return ((JSONArray) result).size();
+		}
+		JSONObject object = (JSONObject) result;
+		if (object.containsKey(PageResult.ATTRIBUTE.DATA) && object.get(PageResult.ATTRIBUTE.DATA) instanceof JSONArray) {
+			return object.getArray(PageResult.ATTRIBUTE.DATA).size();
+		}
+		return 1;
+	}
+
+	/**
+	 * 复制查询结果中的对象和数组, 调用者修改返回的结果不影响缓存
+	 */
+	private static Object copy(Object value) {
+		if (value instanceof JSONObject) {
+			return new JSONObject(copyMap(((JSONObject) value).map()));
+		} else if (value instanceof JSONArray) {
+			return new JSONArray(copyList(((JSONArray) value).list()));
+		} else if (value instanceof Map) {
+			return copyMap((Map<?, ?>) value);
+		} else if (value instanceof List) {
+			return copyList((List<?>) value);
+		}
+		return value;
+	}
+
+	private static Map<String, Object> copyMap(Map<?, ?> map) {
+		Map<String, Object> copy = new LinkedHashMap<>();
+		map.forEach((k, v) -> copy.put(String.valueOf(k), copy(v)));
+		return copy;
+	}
+
+	private static List<Object> copyList(List<?> list) {
+		List<Object> copy = new ArrayList<>(list.size());
+		list.forEach(v -> copy.add(copy(v)));
+		return copy;
+	}
+
+}
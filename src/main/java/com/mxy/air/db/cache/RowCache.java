@@ -0,0 +1,313 @@
+package com.mxy.air.db.cache;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mxy.air.db.AirContext;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * 按主键缓存的数据库表记录. 按主键的详细查询读取缓存, 未命中时查询所有列并缓存;
+ * 写操作的条件为主键时只移除这些主键的记录, 否则移除该表的所有记录. 缓存的是数据库中的原始值, 读取时再按列配置渲染.
+ * 缓存数量和缓存记录的估算字节数都不超过配置的最大值, 超过时按最近最少使用移除
+ *
+ * @author mengxiangyun
+ *
+ */
+public class RowCache {
+
+	// 默认最大缓存记录数
+	public static final long DEFAULT_MAX_SIZE = 100000;
+
+	// 默认最大字节数
+	public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+	// 每条缓存记录的固定开销估算(字节), 包括键, 缓存项和Map
+	private static final int ENTRY_OVERHEAD = 128;
+
+	// 每个列的开销估算(字节), 包括Map的节点和列名引用
+	private static final int COLUMN_OVERHEAD = 48;
+
+	/**
+	 * 读取数据库之前的写操作版本, 写入缓存时版本未变才缓存, 防止缓存读取期间被修改的旧记录
+	 */
+	public static class Stamp {
+
+		private final long writes;
+
+		private final long dbEpoch;
+
+		private Stamp(long writes, long dbEpoch) {
+			this.writes = writes;
+			this.dbEpoch = dbEpoch;
+		}
+
+	}
+
+	private static class Entry {
+
+		private final Map<String, Object> row;
+
+		private final long tableEpoch;
+
+		private final long dbEpoch;
+
+		// 缓存时的数据库表配置快照, 配置变化(如热加载)后缓存失效
+		private final JSONObject dbsConfig;
+
+		private final int weight;
+
+		private Entry(Map<String, Object> row, long tableEpoch, long dbEpoch, JSONObject dbsConfig, int weight) {
+			this.row = row;
+			this.tableEpoch = tableEpoch;
+			this.dbEpoch = dbEpoch;
+			this.dbsConfig = dbsConfig;
+			this.weight = weight;
+		}
+
+	}
+
+	/**
+	 * 表的版本
+	 */
+	private static class TableState {
+
+		// 移除该表的所有记录时加1
+		private final AtomicLong epoch = new AtomicLong();
+
+		// 每次写操作加1
+		private final AtomicLong writes = new AtomicLong();
+
+	}
+
+	private final Cache<String, Entry> cache;
+
+	private final ConcurrentMap<String, TableState> tables = new ConcurrentHashMap<>();
+
+	// 每个数据源的版本, 无法确定写操作的表时(如原生SQL)加1
+	private final ConcurrentMap<String, AtomicLong> dbEpochs = new ConcurrentHashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 *
+	 * @param maxSize
+	 *            最大缓存记录数
+	 * @param maxBytes
+	 *            缓存记录的最大估算字节数
+	 */
+	public RowCache(long maxSize, long maxBytes) {
+		/*
+		 * Guava不能同时限制数量和权重, 每条记录的权重至少为 maxBytes/maxSize, 权重总和不超过maxBytes时记录数也不超过maxSize.
+		 * Guava按分段分配最大权重, 记录数很少时减少分段数, 防止单条记录超过分段的最大权重
+		 */
+		int minWeight = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxBytes / Math.max(1, maxSize)));
+		int concurrencyLevel = (int) Math.max(1, Math.min(4, maxSize / 20));
+		this.cache = CacheBuilder.newBuilder().concurrencyLevel(concurrencyLevel).maximumWeight(maxBytes)
+				.<String, Entry>weigher((key, entry) -> Math.max(minWeight, entry.weight)).recordStats().build();
+	}
+
+	/**
+	 * 读取数据库之前获取写操作版本
+	 *
+	 * @param db
+	 * @param table
+	 * @return
+	 */
+	public Stamp stamp(String db, String table) {
+		return new Stamp(state(db, table).writes.get(), dbEpoch(db).get());
+	}
+
+	/**
+	 *
+	 * @param db
+	 * @param table
+	 * @param id
+	 *            主键值
+	 * @return 记录的副本, 不存在或已失效时返回null
+	 */
+	public Map<String, Object> get(String db, String table, Object id) {
+		String key = key(db, table, id);
+		Entry entry = key == null ? null : cache.getIfPresent(key);
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		if (entry.tableEpoch != state(db, table).epoch.get() || entry.dbEpoch != dbEpoch(db).get()
+				|| entry.dbsConfig != AirContext.getDbsConfig()) {
+			cache.asMap().remove(key, entry);
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return new LinkedHashMap<>(entry.row);
+	}
+
+	/**
+	 * 缓存记录, 读取数据库期间该表发生了写操作时不缓存
+	 *
+	 * @param db
+	 * @param table
+	 * @param id
+	 *            主键值
+	 * @param row
+	 *            所有列的原始值
+	 * @param stamp
+	 *            读取数据库之前获取的写操作版本
+	 */
+	public void put(String db, String table, Object id, Map<String, Object> row, Stamp stamp) {
+		TableState state = state(db, table);
+		long dbEpoch = dbEpoch(db).get();
+		if (state.writes.get() != stamp.writes || dbEpoch != stamp.dbEpoch) {
+			return;
+		}
+		String key = key(db, table, id);
+		if (key == null) {
+			return;
+		}
+		cache.put(key, new Entry(new LinkedHashMap<>(row), state.epoch.get(), dbEpoch, AirContext.getDbsConfig(),
+				weight(key, row)));
+		// 写入缓存的同时发生了写操作, 移除可能是旧的记录
+		if (state.writes.get() != stamp.writes) {
+			cache.invalidate(key);
+		}
+	}
+
+	/**
+	 * 写操作后移除指定主键的记录
+	 *
+	 * @param db
+	 * @param table
+	 * @param id
+	 */
+	public void invalidate(String db, String table, Object id) {
+		String key = key(db, table, id);
+		if (key == null) {
+			invalidateTable(db, table);
+			return;
+		}
+		state(db, table).writes.incrementAndGet();
+		cache.invalidate(key);
+	}
+
+	/**
+	 * 写操作的主键无法确定时, 移除该表的所有记录
+	 *
+	 * @param db
+	 * @param table
+	 */
+	public void invalidateTable(String db, String table) {
+		TableState state = state(db, table);
+		state.writes.incrementAndGet();
+		state.epoch.incrementAndGet();
+	}
+
+	/**
+	 * 移除数据源的所有记录
+	 *
+	 * @param db
+	 */
+	public void invalidateAll(String db) {
+		dbEpoch(db).incrementAndGet();
+	}
+
+	/**
+	 * 新增记录后只更新写操作版本, 缓存中不存在新记录
+	 *
+	 * @param db
+	 * @param table
+	 */
+	public void touch(String db, String table) {
+		state(db, table).writes.incrementAndGet();
+	}
+
+	/**
+	 * 缓存统计: 缓存记录数(size), 估算字节数(bytes), 命中数(hits), 未命中数(misses), 命中率(hit_rate),
+	 * 按容量移除数(evictions)
+	 *
+	 * @return
+	 */
+	public JSONObject stats() {
+		long hitCount = hits.sum();
+		long missCount = misses.sum();
+		long requestCount = hitCount + missCount;
+		long bytes = cache.asMap().values().stream().mapToLong(entry -> entry.weight).sum();
+		return new JSONObject().put("size", cache.size()).put("bytes", bytes).put("hits", hitCount)
+				.put("misses", missCount).put("hit_rate", requestCount == 0 ? 1.0 : (double) hitCount / requestCount)
+				.put("evictions", cache.stats().evictionCount());
+	}
+
+	private TableState state(String db, String table) {
+		return tables.computeIfAbsent(db + "." + table, k -> new TableState());
+	}
+
+	private AtomicLong dbEpoch(String db) {
+		return dbEpochs.computeIfAbsent(db, k -> new AtomicLong());
+	}
+
+	/**
+	 * 缓存键, 数字和内容相同的字符串(如请求中的字符串"1"和数字1)视为相同的主键值.
+	 * 字符串不是数字的规范形式时(如"001", "1.0")返回null, 不缓存, 防止不同的字符串主键对应同一个缓存
+	 */
+	private static String key(String db, String table, Object id) {
+		String value;
+		if (id instanceof Number) {
+			value = new BigDecimal(id.toString()).stripTrailingZeros().toPlainString();
+		} else {
+			value = id.toString();
+			if (isNumber(value) && !new BigDecimal(value).stripTrailingZeros().toPlainString().equals(value)) {
+				return null;
+			}
+		}
+		return db + "\u0000" + table + "\u0000" + value;
+	}
+
+	private static boolean isNumber(String value) {
+		if (value.isEmpty() || value.length() > 40) {
+			return false;
+		}
+		try {
+			new BigDecimal(value);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * 估算记录占用的字节数
+	 */
+	private static int weight(String key, Map<String, Object> row) {
+		long bytes = ENTRY_OVERHEAD + key.length() * 2L;
+		for (Map.Entry<String, Object> column : row.entrySet()) {
+			bytes += COLUMN_OVERHEAD + size(column.getValue());
+		}
+		return (int) Math.min(Integer.MAX_VALUE, bytes);
+	}
+
+	private static long size(Object value) {
+		if (value == null) {
+			return 0;
+		} else if (value instanceof CharSequence) {
+			return 40 + ((CharSequence) value).length() * 2L;
+		} else if (value instanceof byte[]) {
+			return 16 + ((byte[]) value).length;
+		} else if (value instanceof BigDecimal) {
+			return 40 + ((BigDecimal) value).precision() / 2;
+		} else if (value instanceof Date) {
+			return 32;
+		}
+		return 24;
+	}
+
+}
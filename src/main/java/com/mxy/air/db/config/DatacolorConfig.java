@@ -31,6 +31,11 @@ public enum DatacolorConfig {
 	 */
 	LOG(false),
 
+	/*
+	 * 分页查询时使用 count(*) over() 随查询结果一起返回总记录数, 只执行一次查询. 需要数据库方言支持, 不支持时单独查询总记录数
+	 */
+	WINDOW_COUNT(false),
+
 	/*
 	 * 主数据源
 	 */
@@ -41,6 +46,31 @@ public enum DatacolorConfig {
 	 */
 	DB_TABLE_CONFIG_PATH("tables"),
 
+	/*
+	 * 数据库表结构快照路径, 配置后启动时从快照加载数据库表结构, 并在后台与数据库比对更新
+	 */
+	SCHEMA_SNAPSHOT_PATH(null),
+
+	/*
+	 * 数据库表配置热加载, 监听数据库表配置路径下的文件变化, 重新读取变化的数据库表配置
+	 */
+	HOT_RELOAD(false),
+
+	/*
+	 * 延迟加载数据库表结构, 配置后启动时不读取所有数据库表结构, 在第一次访问数据库表时读取该表的结构
+	 */
+	LAZY_SCHEMA(null),
+
+	/*
+	 * 查询结果缓存, 配置后缓存开启了缓存的表的查询结果, 写操作后失效
+	 */
+	CACHE(null),
+
+	/*
+	 * 按主键缓存数据库表记录, 配置后按主键的详细查询读取开启了记录缓存的表的缓存, 写操作时更新
+	 */
+	ROW_CACHE(null),
+
 	/*
 	 * 所有数据库表配置, 该属性项非配置文件配置, 是项目自动生成的属性, 目的是将数据库表的配置信息与项目全局的配置信息放在一个对象里
 	 * 全局配置
@@ -114,7 +144,126 @@ public enum DatacolorConfig {
 	}
 
 	public enum Es {
-		HTTPPORT
+		HTTPPORT,
+
+		/*
+		 * 索引mapping缓存时间(秒)
+		 */
+		MAPPING_TTL,
+
+		/*
+		 * 最大并发请求数, 超过时排队等待, 0为不限制
+		 */
+		MAX_IN_FLIGHT,
+
+		/*
+		 * _bulk请求每批最多的操作数
+		 */
+		BULK_ACTIONS,
+
+		/*
+		 * _bulk请求每批最大字节数
+		 */
+		BULK_BYTES,
+
+		/*
+		 * 同时发送的_bulk请求数
+		 */
+		BULK_CONCURRENCY,
+
+		/*
+		 * 写入时的文档类型, ES 7以后为空字符串
+		 */
+		DOC_TYPE,
+
+		/*
+		 * 分组查询时composite聚合每页的分组数
+		 */
+		COMPOSITE_SIZE,
+
+		/*
+		 * 分组查询按统计值排序时terms聚合每个分片返回的分组数
+		 */
+		SHARD_SIZE,
+
+		/*
+		 * 分页查询时精确统计总记录数的阈值, true为精确统计, 数字为阈值(ES 7及以上)
+		 */
+		TRACK_TOTAL_HITS,
+
+		/*
+		 * 查询合并时间窗口(毫秒), 窗口内的查询通过一次_msearch请求发送, 0为不合并
+		 */
+		MSEARCH_WINDOW,
+
+		/*
+		 * 每次_msearch请求最多合并的查询数
+		 */
+		MSEARCH_MAX_BATCH
+	}
+
+	/**
+	 * 查询结果缓存
+	 *
+	 */
+	public enum Cache {
+
+		/*
+		 * 最大缓存数量, 超过时按最近最少使用移除
+		 */
+		MAX_SIZE,
+
+		/*
+		 * 默认缓存时间(秒), 0为不过期, 只在写操作后失效
+		 */
+		TTL,
+
+		/*
+		 * 可以缓存的查询结果的最大记录数
+		 */
+		MAX_ROWS;
+
+	}
+
+	/**
+	 * 按主键缓存数据库表记录
+	 *
+	 */
+	public enum RowCache {
+
+		/*
+		 * 最大缓存记录数
+		 */
+		MAX_SIZE,
+
+		/*
+		 * 缓存记录的最大估算字节数
+		 */
+		MAX_BYTES;
+
+	}
+
+	/**
+	 * 延迟加载数据库表结构
+	 *
+	 */
+	public enum LazySchema {
+
+		/*
+		 * 每个数据源最多缓存的数据库表数量
+		 */
+		MAX_TABLES,
+
+		/*
+		 * 数据库表未被访问多少分钟后从缓存中移除, 0为不移除
+		 */
+		EXPIRE_MINUTES,
+
+		/*
+		 * 启动时预先加载的数据库表, 格式为 table 或 db.table
+		 */
+		PRELOAD;
+
 	}
 
 }
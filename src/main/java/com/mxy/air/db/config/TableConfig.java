@@ -31,7 +31,27 @@ public enum TableConfig {
 	/*
 	 * 注释, 数据库表的注释
 	 */
-	COMMENT;
+	COMMENT,
+
+	/*
+	 * 是否缓存该表的查询结果, 需要开启全局的查询结果缓存
+	 */
+	CACHE,
+
+	/*
+	 * 查询结果缓存时间(秒), 默认为全局的缓存时间
+	 */
+	CACHE_TTL,
+
+	/*
+	 * 是否按主键缓存该表的记录, 需要开启全局的记录缓存和配置主键
+	 */
+	ROW_CACHE,
+
+	/*
+	 * Elasticsearch索引的文档_id是否等于主键值, 为true时新增文档以主键值为_id, 按主键更新/删除时直接按_id操作
+	 */
+	ES_ID;
 
 	public enum Column {
 
@@ -96,7 +116,12 @@ public enum TableConfig {
 		/*
 		 * 关联类型, 一对一, 一对多, 多对一, 多对多
 		 */
-		TYPE;
+		TYPE,
+
+		/*
+		 * 一对多或多对多关联的查询方式, join或batch
+		 */
+		FETCH;
 
 		public enum Type {
 			ONE_TO_ONE("one_to_one"), ONE_TO_MANY("one_to_many"), MANY_TO_ONE("many_to_one"), MANY_TO_MANY(
@@ -122,6 +147,30 @@ public enum TableConfig {
 			}
 
 		}
+
+		/**
+		 * 一对多或多对多关联的查询方式
+		 */
+		public enum Fetch {
+			/*
+			 * 与主表通过SQL join一起查询
+			 */
+			JOIN,
+			/*
+			 * 先查询主表, 再按主表的关联字段值批量查询关联表(where 关联字段 in (...)), 在内存中组装
+			 */
+			BATCH;
+
+			public static Fetch from(String text) {
+				for (Fetch fetch : values()) {
+					if (fetch.toString().equalsIgnoreCase(text)) {
+						return fetch;
+					}
+				}
+				return null;
+			}
+
+		}
 	}
 
 	public enum Keyword {
@@ -0,0 +1,176 @@
+package com.mxy.air.db.es;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.client.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mxy.air.json.JSONArray;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * ES深度导出. 使用sliced scroll分片并行读取索引的所有匹配文档, 响应流式读取, 每读取一个文档即交给消费者处理,
+ * 不受index.max_result_window限制
+ *
+ * @author mengxiangyun
+ *
+ */
+public class EsExporter {
+
+	private static final Logger logger = LoggerFactory.getLogger(EsExporter.class);
+
+	// 默认每页文档数
+	public static final int DEFAULT_SIZE = 1000;
+
+	// 默认scroll上下文保持时间
+	public static final String DEFAULT_KEEP_ALIVE = "1m";
+
+	/**
+	 * 文档消费者, 同一时刻只有一个线程调用
+	 */
+	public interface HitConsumer {
+
+		void accept(JSONObject source) throws IOException;
+
+	}
+
+	private final EsHandler handler;
+
+	public EsExporter(EsHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * 导出索引中匹配查询条件的所有文档
+	 *
+	 * @param db
+	 * @param index
+	 * @param query
+	 *            ES原生JSON查询, 可包含query/_source/sort等, from/size由导出决定
+	 * @param slices
+	 *            并行读取的分片数
+	 * @param size
+	 *            每页文档数
+	 * @param keepAlive
+	 *            scroll上下文保持时间, 如1m
+	 * @param consumer
+	 * @return 导出的文档数
+	 * @throws IOException
+	 */
+	public long export(String db, String index, JSONObject query, int slices, int size, String keepAlive,
+			HitConsumer consumer) throws IOException {
+		int sliceCount = Math.max(1, slices);
+		AtomicLong count = new AtomicLong();
+		// 任一分片失败时其他分片停止读取
+		AtomicBoolean failed = new AtomicBoolean();
+		if (sliceCount == 1) {
+			exportSlice(db, index, query, 0, 1, size, keepAlive, consumer, count, failed);
+			return count.get();
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(sliceCount, r -> {
+			Thread thread = new Thread(r, "air-db-es-export");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<CompletableFuture<Void>> futures = new ArrayList<>();
+			for (int i = 0; i < sliceCount; i++) {
+				int slice = i;
+				futures.add(CompletableFuture.runAsync(() -> {
+					try {
+						exportSlice(db, index, query, slice, sliceCount, size, keepAlive, consumer, count, failed);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}, executor));
+			}
+			EsHandler.get(CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			executor.shutdownNow();
+		}
+		return count.get();
+	}
+
+	private void exportSlice(String db, String index, JSONObject query, int slice, int sliceCount, int size,
+			String keepAlive, HitConsumer consumer, AtomicLong count, AtomicBoolean failed) throws IOException {
+		JSONObject body = query == null ? new JSONObject() : new JSONObject(query.toString());
+		body.remove("from");
+		body.put("size", size);
+		if (sliceCount > 1) {
+			body.put("slice", new JSONObject().put("id", slice).put("max", sliceCount));
+		}
+		// 不需要排序时按_doc顺序读取效率最高
+		if (!body.containsKey("sort")) {
+			body.put("sort", new JSONArray().add("_doc"));
+		}
+		String scrollId = null;
+		// 逐个读取文档交给消费者, 不在内存中保存整页数据
+		HitConsumer hitConsumer = source -> {
+			synchronized (consumer) {
+				consumer.accept(source);
+			}
+		};
+		try {
+			EsResponseReader.Summary page = request(db, "POST", "/" + index + "/_search",
+					Collections.singletonMap("scroll", keepAlive), body, hitConsumer);
+			while (!failed.get()) {
+				scrollId = page.scrollId();
+				if (page.hits() == 0) {
+					break;
+				}
+				count.addAndGet(page.hits());
+				page = request(db, "POST", "/_search/scroll", Collections.emptyMap(),
+						new JSONObject().put("scroll", keepAlive).put("scroll_id", scrollId), hitConsumer);
+			}
+		} catch (IOException | RuntimeException e) {
+			failed.set(true);
+			throw e;
+		} finally {
+			clearScroll(db, scrollId);
+		}
+	}
+
+	private EsResponseReader.Summary request(String db, String method, String endpoint, Map<String, String> params,
+			JSONObject body, HitConsumer hitConsumer) throws IOException {
+		NStringEntity entity = new NStringEntity(body.toString(), ContentType.APPLICATION_JSON);
+		Response response = EsHandler.get(handler.performRequestAsync(db, method, endpoint, params, entity));
+		try (InputStream in = response.getEntity().getContent()) {
+			return EsResponseReader.read(in, hitConsumer, null);
+		}
+	}
+
+	/**
+	 * 释放scroll上下文
+	 *
+	 * @param db
+	 * @param scrollId
+	 */
+	private void clearScroll(String db, String scrollId) {
+		if (scrollId == null) {
+			return;
+		}
+		try {
+			request(db, "DELETE", "/_search/scroll", Collections.emptyMap(), new JSONObject().put("scroll_id", scrollId),
+					null);
+		} catch (IOException | RuntimeException e) {
+			logger.warn("释放ES scroll上下文失败", e);
+		}
+	}
+
+}
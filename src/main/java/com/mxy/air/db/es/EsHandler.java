@@ -1,65 +1,331 @@
 package com.mxy.air.db.es;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.nio.entity.NStringEntity;
 import org.apache.http.util.EntityUtils;
 import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestClient;
 
-import com.google.inject.Injector;
-import com.google.inject.Key;
-import com.google.inject.name.Names;
+import com.google.inject.Inject;
 import com.mxy.air.db.AirContext;
+import com.mxy.air.db.DataRenderer;
+import com.mxy.air.db.DbException;
+import com.mxy.air.db.PageResult;
+import com.mxy.air.db.builder.es.EsAggregation;
+import com.mxy.air.db.builder.es.EsSelect;
+import com.mxy.air.db.config.DatacolorConfig.Es;
+import com.mxy.air.db.es.EsExporter.HitConsumer;
 import com.mxy.air.json.JSON;
+import com.mxy.air.json.JSONArray;
 import com.mxy.air.json.JSONObject;
 
 public class EsHandler {
 
+	// composite聚合默认每页分组数
+	public static final int DEFAULT_COMPOSITE_SIZE = 1000;
+
+	@Inject
+	private DataRenderer renderer;
+
+	// 每个ES数据源的并发请求限制
+	private final Map<String, EsRequestLimiter> limiters = new ConcurrentHashMap<>();
+
+	// 每个ES数据源的查询合并
+	private final Map<String, EsMultiSearcher> multiSearchers = new ConcurrentHashMap<>();
+
 	public JSON handle(String db, String table, JSONObject nativeQuery) throws IOException {
-		Injector injector = AirContext.getInjector();
-		RestClient client = injector.getInstance(Key.get(RestClient.class, Names.named(db)));
-
-		//		if (!nativeQuery.containsKey("from")) {
-		//			nativeQuery.put("from", 0);
-		//		}
-		//		if (!nativeQuery.containsKey("size")) {
-		//			nativeQuery.put("size", 20);
-		//		}
-
-		NStringEntity nStringEntity = new NStringEntity(nativeQuery.toString(), ContentType.APPLICATION_JSON);
-		Response response = client.performRequest("GET", "/" + table + "/_search", new HashMap<>(),
-				nStringEntity);
-
-		//		RequestLine requestLine = response.getRequestLine();
-		//		HttpHost host = response.getHost();
-		//		int statusCode = response.getStatusLine().getStatusCode();
-		//		Header[] headers = response.getHeaders();
-		String responseBody = EntityUtils.toString(response.getEntity());
-		JSONObject responseObject = new JSONObject(responseBody);
-		return responseObject;
-		//		JSONObject hits = responseObject.getObject("hits");
-		//		long total = hits.getLong("total");
-		//		JSONArray objs = new JSONArray();
-		//		if (responseObject.containsKey("aggregations")) {
-		//			JSONObject aggs = (JSONObject) responseObject.getObject("aggregations").entrySet().iterator().next()
-		//					.getValue();
-		//			objs = aggs.getArray("buckets");
-		//		} else {
-		//			JSONArray hitsObjs = hits.getArray("hits");
-		//			Iterator<Object> iterator = hitsObjs.iterator();
-		//			while (iterator.hasNext()) {
-		//				JSONObject entity = (JSONObject) iterator.next();
-		//				objs.add(entity.getObject("_source"));
-		//			}
-		//		}
-		//		if (nativeQuery.containsKey("from") && nativeQuery.containsKey("size")) {
-		//			return PageResult.wrap(nativeQuery.getLong("from"), nativeQuery.getLong("size"), total, objs);
-		//		}
-		//		return objs;
-		
+		return get(handleAsync(db, table, nativeQuery));
+	}
+
+	/**
+	 * 异步执行ES原生JSON查询, 不阻塞调用线程. 数据源配置了msearch_window时, 与合并时间窗口内的其他查询通过一次_msearch请求发送
+	 *
+	 * @param db
+	 * @param table
+	 * @param nativeQuery
+	 * @return 查询结果
+	 */
+	public CompletableFuture<JSON> handleAsync(String db, String table, JSONObject nativeQuery) {
+		return multiSearcher(db).search(table, nativeQuery);
+	}
+
+	/**
+	 * 多个查询通过一次_msearch请求立即发送, 不等待合并时间窗口
+	 *
+	 * @param db
+	 * @param tables
+	 * @param nativeQueries
+	 *            与tables一一对应
+	 * @return 每个查询的结果, 单个查询失败时只有该查询以异常结束
+	 */
+	public List<CompletableFuture<JSON>> multiSearch(String db, List<String> tables, List<JSONObject> nativeQueries) {
+		List<EsMultiSearcher.Item> items = new ArrayList<>();
+		List<CompletableFuture<JSON>> futures = new ArrayList<>();
+		for (int i = 0; i < tables.size(); i++) {
+			EsMultiSearcher.Item item = new EsMultiSearcher.Item(tables.get(i), nativeQueries.get(i));
+			items.add(item);
+			futures.add(item.future());
+		}
+		if (!items.isEmpty()) {
+			multiSearcher(db).send(items);
+		}
+		return futures;
+	}
+
+	/**
+	 * 不经过合并直接发送_search请求
+	 */
+	CompletableFuture<JSONObject> searchAsync(String db, String index, JSONObject body) {
+		NStringEntity nStringEntity = new NStringEntity(body.toString(), ContentType.APPLICATION_JSON);
+		return performRequestAsync(db, "GET", "/" + index + "/_search", Collections.emptyMap(), nStringEntity)
+				.thenApply(response -> {
+					try {
+						return new JSONObject(EntityUtils.toString(response.getEntity()));
+					} catch (IOException e) {
+						throw new DbException(e);
+					}
+				});
+	}
+
+	private EsMultiSearcher multiSearcher(String db) {
+		return multiSearchers.computeIfAbsent(db, k -> new EsMultiSearcher(this, k, getInt(k, Es.MSEARCH_WINDOW, 0),
+				getInt(k, Es.MSEARCH_MAX_BATCH, EsMultiSearcher.DEFAULT_MAX_BATCH)));
+	}
+
+	/**
+	 * 将查询直接转换为ES Query DSL执行, 不经过SQL
+	 *
+	 * @param builder
+	 * @return 分页时返回分页结果, 总记录数取自同一次查询的hits.total, 不再单独查询总记录数
+	 * @throws IOException
+	 */
+	public JSON query(EsSelect builder) throws IOException {
+		List<Map<String, Object>> sources = new ArrayList<>();
+		EsResponseReader.Summary summary = search(builder.db(), builder.table(), builder.dsl(),
+				source -> sources.add(toMap(source)), null);
+		JSONArray data = renderer.render(sources, builder);
+		long[] limit = builder.limit();
+		if (limit == null) {
+			return data;
+		}
+		// 超过track_total_hits阈值时总记录数为阈值
+		return PageResult.wrap(limit[0], limit[1], summary.total(), data);
+	}
+
+	/**
+	 * 查询单个文档
+	 *
+	 * @param builder
+	 * @return 没有匹配的文档时返回空对象
+	 * @throws IOException
+	 */
+	public JSONObject detail(EsSelect builder) throws IOException {
+		JSONObject dsl = builder.dsl();
+		dsl.remove("from");
+		dsl.put("size", 1);
+		dsl.put("track_total_hits", false);
+		List<Map<String, Object>> sources = new ArrayList<>();
+		search(builder.db(), builder.table(), dsl, source -> sources.add(toMap(source)), null);
+		if (sources.isEmpty()) {
+			return new JSONObject();
+		}
+		Map<String, Object> detail = sources.get(0);
+		renderer.render(detail, AirContext.getColumnsConfig(builder.db(), builder.table()));
+		return new JSONObject(detail);
+	}
+
+	/**
+	 * 分组查询转换为ES聚合执行, 不经过SQL
+	 *
+	 * @param builder
+	 * @param aggregation
+	 * @return 分页时返回分页结果, 总记录数为分组总数
+	 * @throws IOException
+	 */
+	public JSON aggregate(EsSelect builder, EsAggregation aggregation) throws IOException {
+		long[] limit = builder.limit();
+		List<Map<String, Object>> rows = new ArrayList<>();
+		long start = limit == null ? 0 : limit[0];
+		long end = limit == null ? Long.MAX_VALUE : limit[1];
+		long[] index = { 0 };
+		Consumer<Map<String, Object>> pageConsumer = row -> {
+			if (index[0] >= start && index[0] < end) {
+				rows.add(row);
+			}
+			index[0]++;
+		};
+		long total;
+		if (aggregation.isTerms()) {
+			// terms聚合按统计值排序, 只能一次取出前limit[1]个分组
+			int size = limit == null ? EsSelect.MAX_SIZE : (int) limit[1];
+			int shardSize = getInt(builder.db(), Es.SHARD_SIZE, 0);
+			EsResponseReader.Summary summary = search(builder.db(), builder.table(),
+					aggregation.terms(size, shardSize), null, bucket -> pageConsumer.accept(aggregation.row(bucket)));
+			total = aggregation.total(summary.aggregations());
+		} else {
+			total = aggregate(builder, aggregation, pageConsumer, end);
+		}
+		JSONArray data = renderer.render(rows, builder);
+		if (limit == null) {
+			return data;
+		}
+		return PageResult.wrap(limit[0], limit[1], total, data);
+	}
+
+	/**
+	 * 通过composite聚合分页读取分组, 每读取一个分组即交给消费者处理. 读取了limit个分组后,
+	 * 能通过cardinality聚合得到分组总数时停止读取, 总数为近似值; 否则(按时间间隔分组, 分组数通常不多)继续读取所有分组计数
+	 *
+	 * @param builder
+	 * @param aggregation
+	 * @param consumer
+	 * @param limit
+	 *            需要读取的分组数, Long.MAX_VALUE为读取所有分组
+	 * @return 分组总数, 读取了所有分组时为精确值
+	 * @throws IOException
+	 */
+	public long aggregate(EsSelect builder, EsAggregation aggregation, Consumer<Map<String, Object>> consumer,
+			long limit) throws IOException {
+		boolean withTotal = limit != Long.MAX_VALUE && aggregation.hasTotal();
+		int size = getInt(builder.db(), Es.COMPOSITE_SIZE, DEFAULT_COMPOSITE_SIZE);
+		if (withTotal) {
+			size = (int) Math.max(1, Math.min(size, limit));
+		}
+		long count = 0;
+		long total = 0;
+		JSONObject after = null;
+		while (true) {
+			EsResponseReader.Summary summary = search(builder.db(), builder.table(),
+					aggregation.composite(after, size, withTotal && after == null), null,
+					bucket -> consumer.accept(aggregation.row(bucket)));
+			if (withTotal && after == null) {
+				total = aggregation.total(summary.aggregations());
+			}
+			count += summary.buckets();
+			if (summary.buckets() < size) {
+				return count;
+			}
+			if (withTotal && count >= limit) {
+				return Math.max(total, count);
+			}
+			// 下一页从最后一个分组之后开始
+			after = summary.lastBucketKey();
+		}
+	}
+
+	private int getInt(String db, Es key, int defaultValue) {
+		JSONObject dataSourceConfig = AirContext.getDataSource(db);
+		return dataSourceConfig.containsKey(key) ? dataSourceConfig.getInt(key) : defaultValue;
+	}
+
+	/**
+	 * 查询并流式读取响应, 合并查询时读取_msearch中的单个响应
+	 *
+	 * @param db
+	 * @param index
+	 * @param dsl
+	 * @param hitConsumer
+	 * @param bucketConsumer
+	 * @return
+	 * @throws IOException
+	 */
+	private EsResponseReader.Summary search(String db, String index, JSONObject dsl, HitConsumer hitConsumer,
+			HitConsumer bucketConsumer) throws IOException {
+		EsMultiSearcher multiSearcher = multiSearcher(db);
+		if (multiSearcher.isBatching()) {
+			JSONObject response = (JSONObject) get(multiSearcher.search(index, dsl));
+			return EsResponseReader.read(response, hitConsumer, bucketConsumer);
+		}
+		NStringEntity entity = new NStringEntity(dsl.toString(), ContentType.APPLICATION_JSON);
+		Response response = get(
+				performRequestAsync(db, "GET", "/" + index + "/_search", Collections.emptyMap(), entity));
+		try (InputStream in = response.getEntity().getContent()) {
+			return EsResponseReader.read(in, hitConsumer, bucketConsumer);
+		}
+	}
+
+	private Map<String, Object> toMap(JSONObject source) {
+		return new LinkedHashMap<>(source.toMap());
+	}
+
+	/**
+	 * 异步发送ES请求, 每个ES数据源的并发请求数不超过数据源配置的max_in_flight, 超过时排队等待
+	 *
+	 * @param db
+	 * @param method
+	 * @param endpoint
+	 * @param params
+	 * @param entity
+	 * @return 请求失败时以异常结束
+	 */
+	public CompletableFuture<Response> performRequestAsync(String db, String method, String endpoint,
+			Map<String, String> params, HttpEntity entity) {
+		RestClient client = AirContext.getEsClient(db);
+		EsRequestLimiter limiter = limiters.computeIfAbsent(db,
+				k -> new EsRequestLimiter(getInt(k, Es.MAX_IN_FLIGHT, 0)));
+		CompletableFuture<Response> future = new CompletableFuture<>();
+		limiter.submit(() -> {
+			try {
+				client.performRequestAsync(method, endpoint, params, entity, new ResponseListener() {
+
+					@Override
+					public void onSuccess(Response response) {
+						limiter.release();
+						future.complete(response);
+					}
+
+					@Override
+					public void onFailure(Exception exception) {
+						limiter.release();
+						future.completeExceptionally(exception);
+					}
+
+				});
+			} catch (RuntimeException e) {
+				limiter.release();
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * 等待异步请求完成
+	 *
+	 * @param future
+	 * @return
+	 * @throws IOException
+	 */
+	public static <T> T get(CompletableFuture<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DbException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new DbException(cause);
+		}
 	}
 
 }
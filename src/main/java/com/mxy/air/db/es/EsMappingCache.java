@@ -0,0 +1,151 @@
+package com.mxy.air.db.es;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.mxy.air.db.AirContext;
+import com.mxy.air.db.DbException;
+import com.mxy.air.db.config.TableConfig;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * ES索引mapping缓存. 索引的mapping在第一次访问时通过 GET /{index}/_mapping 读取, 与用户配置的数据库表配置合并后缓存,
+ * 超过缓存时间后重新读取. 索引名为通配符或别名时, 合并所有匹配索引的mapping
+ *
+ * @author mengxiangyun
+ *
+ */
+public class EsMappingCache {
+
+	// 默认mapping缓存时间(秒)
+	public static final long DEFAULT_TTL = 300;
+
+	private static final String MAPPINGS = "mappings";
+
+	private static final String PROPERTIES = "properties";
+
+	// 每个ES数据源的mapping缓存, key为索引名, value为数据库表配置, 不存在的索引为空对象
+	private final Map<String, LoadingCache<String, JSONObject>> caches = new HashMap<>();
+
+	/**
+	 *
+	 * @param ttls
+	 *            每个ES数据源的mapping缓存时间(秒)
+	 */
+	public EsMappingCache(Map<String, Long> ttls) {
+		for (Entry<String, Long> entry : ttls.entrySet()) {
+			String db = entry.getKey();
+			caches.put(db, CacheBuilder.newBuilder().expireAfterWrite(entry.getValue(), TimeUnit.SECONDS)
+					.build(new CacheLoader<String, JSONObject>() {
+
+						@Override
+						public JSONObject load(String index) throws Exception {
+							return EsMappingCache.this.load(db, index);
+						}
+
+					}));
+		}
+	}
+
+	public boolean contains(String db) {
+		return caches.containsKey(db);
+	}
+
+	/**
+	 * 获取索引的数据库表配置, 第一次访问或缓存过期时读取mapping
+	 *
+	 * @param db
+	 * @param index
+	 *            索引名, 可以为通配符或别名
+	 * @return 索引不存在时返回空对象
+	 */
+	public JSONObject get(String db, String index) {
+		try {
+			return caches.get(db).getUnchecked(index);
+		} catch (UncheckedExecutionException e) {
+			throw new DbException(String.format("读取ES索引 [%s] mapping失败", index), e.getCause());
+		}
+	}
+
+	public void invalidate(String db, String index) {
+		if (contains(db)) {
+			caches.get(db).invalidate(index);
+		}
+	}
+
+	private JSONObject load(String db, String index) throws IOException {
+		RestClient client = AirContext.getEsClient(db);
+		JSONObject properties = new JSONObject();
+		try {
+			// 只返回mappings, 不返回settings/aliases等
+			Response response = client.performRequest("GET", "/" + index + "/_mapping",
+					Collections.singletonMap("filter_path", "*." + MAPPINGS));
+			JSONObject indices = new JSONObject(EntityUtils.toString(response.getEntity()));
+			for (String name : indices.keySet()) {
+				merge(properties, indices.getObject(name).getObject(MAPPINGS));
+			}
+		} catch (ResponseException e) {
+			if (e.getResponse().getStatusLine().getStatusCode() != 404) {
+				throw e;
+			}
+		}
+		JSONObject userConfig = AirContext.getDbConfig(db).getObject(index);
+		if (userConfig == null && properties.size() == 0) {
+			return new JSONObject();
+		}
+		JSONObject tableConfig = userConfig == null ? new JSONObject() : new JSONObject(userConfig.toString());
+		// 用户配置的列配置优先
+		JSONObject columnsConfig = tableConfig.getObject(TableConfig.COLUMNS);
+		if (columnsConfig != null) {
+			properties.merge(columnsConfig);
+		}
+		tableConfig.put(TableConfig.COLUMNS, properties);
+		return tableConfig;
+	}
+
+	/**
+	 * 合并索引mapping中的字段, 同名字段以先出现的索引为准. ES 7以前mappings下为type, 之后mappings下直接为properties
+	 *
+	 * @param properties
+	 * @param mappings
+	 */
+	private void merge(JSONObject properties, JSONObject mappings) {
+		if (mappings == null) {
+			return;
+		}
+		if (mappings.containsKey(PROPERTIES)) {
+			putAbsent(properties, mappings.getObject(PROPERTIES));
+			return;
+		}
+		for (Object type : mappings.values()) {
+			if (type instanceof JSONObject) {
+				putAbsent(properties, ((JSONObject) type).getObject(PROPERTIES));
+			}
+		}
+	}
+
+	private void putAbsent(JSONObject properties, JSONObject typeProperties) {
+		if (typeProperties == null) {
+			return;
+		}
+		for (Entry<String, Object> entry : typeProperties.entrySet()) {
+			if (!properties.containsKey(entry.getKey())) {
+				properties.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+}
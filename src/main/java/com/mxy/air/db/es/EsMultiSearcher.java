@@ -0,0 +1,205 @@
+package com.mxy.air.db.es;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.util.EntityUtils;
+
+import com.mxy.air.db.DbException;
+import com.mxy.air.json.JSON;
+import com.mxy.air.json.JSONArray;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * ES查询合并. 同一个ES数据源在合并时间窗口内发出的查询通过一次_msearch请求发送, 响应拆分后分别返回给调用者,
+ * 单个查询失败不影响其他查询
+ *
+ * @author mengxiangyun
+ *
+ */
+class EsMultiSearcher {
+
+	// 默认每次_msearch请求最多合并的查询数
+	static final int DEFAULT_MAX_BATCH = 100;
+
+	private static final ContentType NDJSON = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+
+	// 合并时间窗口结束时发送查询
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "air-db-es-msearch");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * 等待发送的查询
+	 */
+	static class Item {
+
+		private final String index;
+
+		private final JSONObject body;
+
+		// 查询结果, 为ES的响应JSON对象
+		private final CompletableFuture<JSON> future = new CompletableFuture<>();
+
+		Item(String index, JSONObject body) {
+			this.index = index;
+			this.body = body;
+		}
+
+		CompletableFuture<JSON> future() {
+			return future;
+		}
+
+	}
+
+	private final EsHandler handler;
+
+	private final String db;
+
+	// 合并时间窗口(毫秒), 0为不合并
+	private final long windowMillis;
+
+	private final int maxBatch;
+
+	private List<Item> pending = new ArrayList<>();
+
+	EsMultiSearcher(EsHandler handler, String db, long windowMillis, int maxBatch) {
+		this.handler = handler;
+		this.db = db;
+		this.windowMillis = windowMillis;
+		this.maxBatch = Math.max(1, maxBatch);
+	}
+
+	/**
+	 * 是否合并查询
+	 *
+	 * @return
+	 */
+	boolean isBatching() {
+		return windowMillis > 0;
+	}
+
+	/**
+	 * 查询, 在合并时间窗口结束或合并的查询数达到上限时发送
+	 *
+	 * @param index
+	 * @param body
+	 * @return 查询结果, 查询失败时以异常结束
+	 */
+	CompletableFuture<JSON> search(String index, JSONObject body) {
+		Item item = new Item(index, body);
+		if (windowMillis <= 0) {
+			send(Collections.singletonList(item));
+			return item.future;
+		}
+		List<Item> batch = null;
+		synchronized (this) {
+			pending.add(item);
+			if (pending.size() >= maxBatch) {
+				batch = pending;
+				pending = new ArrayList<>();
+			} else if (pending.size() == 1) {
+				scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+		if (batch != null) {
+			send(batch);
+		}
+		return item.future;
+	}
+
+	private void flush() {
+		List<Item> batch;
+		synchronized (this) {
+			if (pending.isEmpty()) {
+				return;
+			}
+			batch = pending;
+			pending = new ArrayList<>();
+		}
+		send(batch);
+	}
+
+	/**
+	 * 立即发送查询, 超过合并上限时分多次_msearch请求发送
+	 *
+	 * @param items
+	 */
+	void send(List<Item> items) {
+		for (int from = 0; from < items.size(); from += maxBatch) {
+			sendBatch(items.subList(from, Math.min(from + maxBatch, items.size())));
+		}
+	}
+
+	/**
+	 * 通过一次请求发送查询, 只有一个查询时直接使用_search
+	 *
+	 * @param batch
+	 */
+	private void sendBatch(List<Item> batch) {
+		if (batch.size() == 1) {
+			Item item = batch.get(0);
+			handler.searchAsync(db, item.index, item.body).whenComplete((response, e) -> {
+				if (e != null) {
+					item.future.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+				} else {
+					item.future.complete(response);
+				}
+			});
+			return;
+		}
+		StringBuilder body = new StringBuilder();
+		for (Item item : batch) {
+			body.append(new JSONObject().put("index", item.index)).append('\n');
+			body.append(item.body).append('\n');
+		}
+		NStringEntity entity = new NStringEntity(body.toString(), NDJSON);
+		handler.performRequestAsync(db, "POST", "/_msearch", Collections.emptyMap(), entity)
+				.whenComplete((response, e) -> {
+					if (e != null) {
+						batch.forEach(item -> item.future.completeExceptionally(e));
+						return;
+					}
+					try {
+						JSONArray responses = new JSONObject(EntityUtils.toString(response.getEntity()))
+								.getArray("responses");
+						int size = responses == null ? 0 : responses.size();
+						for (int i = 0; i < batch.size(); i++) {
+							Item item = batch.get(i);
+							if (i >= size) {
+								item.future.completeExceptionally(new DbException(
+										String.format("ES查询索引 [%s] 失败: _msearch响应缺少该查询的结果", item.index)));
+								continue;
+							}
+							JSONObject itemResponse = responses.getObject(i);
+							if (itemResponse.containsKey("error")) {
+								Object error = itemResponse.get("error");
+								String reason = error instanceof JSONObject ? ((JSONObject) error).getString("reason")
+										: String.valueOf(error);
+								item.future.completeExceptionally(
+										new DbException(String.format("ES查询索引 [%s] 失败: %s", item.index, reason)));
+							} else {
+								item.future.complete(itemResponse);
+							}
+						}
+					} catch (IOException | RuntimeException ex) {
+						// 解析响应失败时结束所有未完成的查询, 防止调用者一直等待
+						batch.stream().filter(item -> !item.future.isDone())
+								.forEach(item -> item.future.completeExceptionally(ex));
+					}
+				});
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.mxy.air.db.es;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 单个ES集群的并发请求限制. 超过最大并发数的请求进入等待队列, 有请求完成时再发送, 不阻塞调用线程
+ *
+ * @author mengxiangyun
+ *
+ */
+class EsRequestLimiter {
+
+	// 最大并发请求数, 0为不限制
+	private final int maxInFlight;
+
+	// 正在执行的请求数
+	private int inFlight;
+
+	// 等待发送的请求
+	private final Deque<Runnable> pending = new ArrayDeque<>();
+
+	EsRequestLimiter(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * 发送请求, 请求完成后必须调用release
+	 *
+	 * @param request
+	 */
+	void submit(Runnable request) {
+		synchronized (this) {
+			if (maxInFlight > 0 && inFlight >= maxInFlight) {
+				pending.add(request);
+				return;
+			}
+			inFlight++;
+		}
+		request.run();
+	}
+
+	/**
+	 * 请求完成, 发送下一个等待的请求
+	 */
+	void release() {
+		Runnable next;
+		synchronized (this) {
+			next = pending.poll();
+			if (next == null) {
+				inFlight--;
+				return;
+			}
+		}
+		next.run();
+	}
+
+}
@@ -0,0 +1,234 @@
+package com.mxy.air.db.es;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.mxy.air.db.es.EsExporter.HitConsumer;
+import com.mxy.air.json.JSONArray;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * ES查询响应的流式读取. 逐个读取hits.hits[]._source和聚合的buckets[]并交给消费者处理, 跳过不需要的元数据字段,
+ * 不生成整个响应的字符串和JSON对象
+ *
+ * @author mengxiangyun
+ *
+ */
+class EsResponseReader {
+
+	private static final JsonFactory factory = new JsonFactory();
+
+	/**
+	 * 响应中除文档和分组以外的信息
+	 */
+	static class Summary {
+
+		// 总记录数, 响应中没有总记录数时为-1
+		private long total = -1;
+
+		private String scrollId;
+
+		// 读取的文档数
+		private int hits;
+
+		// 读取的分组数
+		private int buckets;
+
+		// composite聚合下一页的开始位置, 响应中的after_key, 没有after_key时(ES 6.3以前)为最后一个分组的key
+		private JSONObject afterKey;
+
+		// 最后一个对象类型(composite聚合)的分组key
+		private JSONObject lastBucketKey;
+
+		// 没有分组的聚合结果, 如cardinality
+		private final JSONObject aggregations = new JSONObject();
+
+		long total() {
+			return total;
+		}
+
+		String scrollId() {
+			return scrollId;
+		}
+
+		int hits() {
+			return hits;
+		}
+
+		int buckets() {
+			return buckets;
+		}
+
+		JSONObject lastBucketKey() {
+			return afterKey != null ? afterKey : lastBucketKey;
+		}
+
+		JSONObject aggregations() {
+			return aggregations;
+		}
+
+	}
+
+	private EsResponseReader() {
+	}
+
+	/**
+	 * 读取_search或scroll的响应
+	 *
+	 * @param in
+	 * @param hitConsumer
+	 *            文档的_source, 为null时跳过文档
+	 * @param bucketConsumer
+	 *            聚合的分组, 为null时跳过分组
+	 * @return
+	 * @throws IOException
+	 */
+	static Summary read(InputStream in, HitConsumer hitConsumer, HitConsumer bucketConsumer) throws IOException {
+		try (JsonParser parser = factory.createParser(in)) {
+			return read(parser, hitConsumer, bucketConsumer);
+		}
+	}
+
+	/**
+	 * 读取已解析的响应, 如_msearch中的单个响应
+	 */
+	static Summary read(JSONObject response, HitConsumer hitConsumer, HitConsumer bucketConsumer)
+			throws IOException {
+		try (JsonParser parser = factory.createParser(response.toString())) {
+			return read(parser, hitConsumer, bucketConsumer);
+		}
+	}
+
+	private static Summary read(JsonParser parser, HitConsumer hitConsumer, HitConsumer bucketConsumer)
+			throws IOException {
+		Summary summary = new Summary();
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new IOException("ES响应不是JSON对象");
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if ("_scroll_id".equals(name)) {
+				summary.scrollId = parser.getValueAsString();
+			} else if ("hits".equals(name) && token == JsonToken.START_OBJECT) {
+				readHits(parser, hitConsumer, summary);
+			} else if ("aggregations".equals(name) && token == JsonToken.START_OBJECT) {
+				readAggregations(parser, bucketConsumer, summary);
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return summary;
+	}
+
+	private static void readHits(JsonParser parser, HitConsumer hitConsumer, Summary summary) throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if ("total".equals(name)) {
+				// ES 7以前hits.total为数字, 之后为{"value": n, "relation": "eq"}
+				if (token == JsonToken.START_OBJECT) {
+					summary.total = readObject(parser).getLong("value");
+				} else if (token.isNumeric()) {
+					summary.total = parser.getLongValue();
+				}
+			} else if ("hits".equals(name) && token == JsonToken.START_ARRAY) {
+				while (parser.nextToken() == JsonToken.START_OBJECT) {
+					readHit(parser, hitConsumer);
+					summary.hits++;
+				}
+			} else {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	private static void readHit(JsonParser parser, HitConsumer hitConsumer) throws IOException {
+		JSONObject source = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if ("_source".equals(name) && token == JsonToken.START_OBJECT && hitConsumer != null) {
+				source = readObject(parser);
+			} else {
+				parser.skipChildren();
+			}
+		}
+		if (hitConsumer != null) {
+			hitConsumer.accept(source == null ? new JSONObject() : source);
+		}
+	}
+
+	private static void readAggregations(JsonParser parser, HitConsumer bucketConsumer, Summary summary)
+			throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String aggName = parser.getCurrentName();
+			parser.nextToken();
+			JSONObject aggregation = new JSONObject();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				if ("buckets".equals(name) && token == JsonToken.START_ARRAY) {
+					while (parser.nextToken() == JsonToken.START_OBJECT) {
+						JSONObject bucket = readObject(parser);
+						summary.buckets++;
+						// terms等聚合的分组key为字符串或数字, 只有composite聚合的key为对象
+						Object key = bucket.get("key");
+						if (key instanceof JSONObject) {
+							summary.lastBucketKey = (JSONObject) key;
+						}
+						if (bucketConsumer != null) {
+							bucketConsumer.accept(bucket);
+						}
+					}
+				} else {
+					Object value = readValue(parser, token);
+					if ("after_key".equals(name) && value instanceof JSONObject) {
+						summary.afterKey = (JSONObject) value;
+					}
+					aggregation.put(name, value);
+				}
+			}
+			summary.aggregations.put(aggName, aggregation);
+		}
+	}
+
+	private static JSONObject readObject(JsonParser parser) throws IOException {
+		JSONObject object = new JSONObject();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			object.put(name, readValue(parser, parser.nextToken()));
+		}
+		return object;
+	}
+
+	private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+		switch (token) {
+		case START_OBJECT:
+			return readObject(parser);
+		case START_ARRAY:
+			JSONArray array = new JSONArray();
+			JsonToken element;
+			while ((element = parser.nextToken()) != JsonToken.END_ARRAY) {
+				array.add(readValue(parser, element));
+			}
+			return array;
+		case VALUE_STRING:
+			return parser.getText();
+		case VALUE_NUMBER_INT:
+		case VALUE_NUMBER_FLOAT:
+			return parser.getNumberValue();
+		case VALUE_TRUE:
+			return true;
+		case VALUE_FALSE:
+			return false;
+
+		default:
+			return null;
+		}
+	}
+
+}
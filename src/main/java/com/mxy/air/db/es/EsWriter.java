@@ -0,0 +1,445 @@
+package com.mxy.air.db.es;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.ResponseException;
+
+import com.google.common.base.Strings;
+import com.mxy.air.db.AirContext;
+import com.mxy.air.db.DbException;
+import com.mxy.air.db.SQLBuilder;
+import com.mxy.air.db.Structure.Operator;
+import com.mxy.air.db.builder.Bulk;
+import com.mxy.air.db.builder.Condition;
+import com.mxy.air.db.builder.Delete;
+import com.mxy.air.db.builder.Insert;
+import com.mxy.air.db.builder.Update;
+import com.mxy.air.db.builder.es.EsSelect;
+import com.mxy.air.db.config.DatacolorConfig.Es;
+import com.mxy.air.db.config.TableConfig;
+import com.mxy.air.json.JSONArray;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * ES批量写入. 将写操作按数量和大小分批后通过_bulk API发送, 同时发送的批数有限制,
+ * 被ES拒绝(429)的操作延迟后重试, 每个操作的结果按原顺序返回.
+ * 按_id(或配置了es_id时按主键)更新/删除时转换为_bulk中的操作, 其他条件的更新/删除使用_update_by_query/_delete_by_query
+ *
+ * @author mengxiangyun
+ *
+ */
+public class EsWriter {
+
+	// 默认每批最多的操作数
+	public static final int DEFAULT_BULK_ACTIONS = 1000;
+
+	// 默认每批最大字节数
+	public static final long DEFAULT_BULK_BYTES = 5 * 1024 * 1024;
+
+	// 默认同时发送的批数
+	public static final int DEFAULT_BULK_CONCURRENCY = 4;
+
+	// 默认文档类型, ES 7以后不需要文档类型, 数据源配置doc_type为空字符串时不发送
+	public static final String DEFAULT_DOC_TYPE = "_doc";
+
+	// 被拒绝的操作最多重试次数
+	private static final int MAX_RETRIES = 3;
+
+	// 第一次重试前等待的时间, 之后每次加倍
+	private static final long RETRY_BACKOFF_MILLIS = 100;
+
+	private static final int TOO_MANY_REQUESTS = 429;
+
+	private static final ContentType NDJSON = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+
+	/**
+	 * 写操作类型
+	 */
+	public enum ActionType {
+		INDEX, UPDATE, DELETE
+	}
+
+	/**
+	 * 单个写操作
+	 */
+	public static class Action {
+
+		private final ActionType type;
+
+		private final String index;
+
+		// 文档id, 新增时为null则由ES生成
+		private final String id;
+
+		// 新增时为文档, 更新时为更新的字段, 删除时为null
+		private final JSONObject doc;
+
+		public Action(ActionType type, String index, String id, JSONObject doc) {
+			this.type = type;
+			this.index = index;
+			this.id = id;
+			this.doc = doc;
+		}
+
+		/**
+		 * _bulk请求体中的行
+		 */
+		private String lines(String docType) {
+			JSONObject meta = new JSONObject().put("_index", index);
+			if (!Strings.isNullOrEmpty(docType)) {
+				meta.put("_type", docType);
+			}
+			if (id != null) {
+				meta.put("_id", id);
+			}
+			StringBuilder builder = new StringBuilder();
+			builder.append(new JSONObject().put(type.toString().toLowerCase(), meta)).append('\n');
+			if (type == ActionType.INDEX) {
+				builder.append(doc).append('\n');
+			} else if (type == ActionType.UPDATE) {
+				builder.append(new JSONObject().put("doc", doc)).append('\n');
+			}
+			return builder.toString();
+		}
+
+	}
+
+	private final EsHandler handler;
+
+	public EsWriter(EsHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * 依次执行新增/更新/删除/批量导入, 相邻的可转换为_bulk操作的写操作合并为一次批量写入.
+	 * ES不支持事务, 前面的操作成功后后面的操作失败时, 前面的操作不会回滚
+	 *
+	 * @param db
+	 * @param builders
+	 *            已构建并处理过请求数据的SQLBuilder
+	 * @return 每个SQLBuilder的执行结果
+	 * @throws IOException
+	 */
+	public JSONArray write(String db, List<SQLBuilder> builders) throws IOException {
+		JSONObject[] results = new JSONObject[builders.size()];
+		// 等待批量写入的操作, 及每个SQLBuilder的操作在其中的范围
+		List<Action> pending = new ArrayList<>();
+		int[][] ranges = new int[builders.size()][];
+		for (int i = 0; i < builders.size(); i++) {
+			SQLBuilder builder = builders.get(i);
+			List<Action> actions = actions(builder);
+			if (actions != null) {
+				ranges[i] = new int[] { pending.size(), pending.size() + actions.size() };
+				pending.addAll(actions);
+				continue;
+			}
+			// 按查询更新/删除前先写入之前的操作, 保证执行顺序
+			flush(db, builders, pending, ranges, results);
+			results[i] = byQuery(db, builder);
+		}
+		flush(db, builders, pending, ranges, results);
+		return new JSONArray(Arrays.asList(results));
+	}
+
+	private void flush(String db, List<SQLBuilder> builders, List<Action> pending, int[][] ranges,
+			JSONObject[] results) throws IOException {
+		if (pending.isEmpty()) {
+			return;
+		}
+		List<JSONObject> items = bulk(db, pending);
+		for (int i = 0; i < builders.size(); i++) {
+			if (ranges[i] != null && results[i] == null) {
+				results[i] = result(builders.get(i), items.subList(ranges[i][0], ranges[i][1]));
+			}
+		}
+		pending.clear();
+	}
+
+	/**
+	 * SQLBuilder转换为_bulk操作
+	 *
+	 * @param builder
+	 * @return 不能转换时返回null
+	 */
+	private List<Action> actions(SQLBuilder builder) {
+		String index = builder.table();
+		String idColumn = idColumn(builder.db(), index);
+		List<Action> actions = new ArrayList<>();
+		if (builder instanceof Insert) {
+			actions.add(indexAction(index, idColumn, builder.values()));
+		} else if (builder instanceof Bulk) {
+			((Bulk) builder).rows().forEach(row -> actions.add(indexAction(index, idColumn, row)));
+		} else if (builder instanceof Update || builder instanceof Delete) {
+			List<Object> ids = ids(builder.conditions(), idColumn);
+			if (ids == null) {
+				return null;
+			}
+			JSONObject doc = builder instanceof Update ? new JSONObject(builder.values()) : null;
+			ActionType type = builder instanceof Update ? ActionType.UPDATE : ActionType.DELETE;
+			ids.forEach(id -> actions.add(new Action(type, index, String.valueOf(id), doc)));
+		} else {
+			throw new DbException(String.format("ES不支持写操作 [%s]", builder.getClass().getSimpleName()));
+		}
+		return actions;
+	}
+
+	/**
+	 * 新增文档的操作, idColumn为null时文档_id由ES生成
+	 */
+	private Action indexAction(String index, String idColumn, Map<String, Object> values) {
+		JSONObject doc = new JSONObject(values);
+		Object id = idColumn == null ? null : doc.get(idColumn);
+		// _id是元数据字段, 不能出现在文档中
+		if ("_id".equals(idColumn)) {
+			doc.remove(idColumn);
+		}
+		return new Action(ActionType.INDEX, index, id == null ? null : String.valueOf(id), doc);
+	}
+
+	/**
+	 * 条件只有_id(或等于_id的主键)的等于或in时, 取出_id的值
+	 *
+	 * @param conditions
+	 * @param idColumn
+	 * @return 不是按_id操作时返回null
+	 */
+	private List<Object> ids(List<Condition> conditions, String idColumn) {
+		if (idColumn == null || conditions == null || conditions.size() != 1) {
+			return null;
+		}
+		Condition condition = conditions.get(0);
+		Object value = condition.getValue();
+		if (!idColumn.equals(condition.getColumn()) || value == null || value instanceof Collection) {
+			return null;
+		}
+		if (condition.getOperator() == Operator.EQUAL) {
+			return Collections.singletonList(value);
+		}
+		if (condition.getOperator() != Operator.IN) {
+			return null;
+		}
+		// 构建SQL时in的条件值已被拆分为数组
+		if (value instanceof Object[]) {
+			return Arrays.asList((Object[]) value);
+		}
+		List<Object> ids = new ArrayList<>();
+		for (String id : value.toString().split(",")) {
+			ids.add(id.trim());
+		}
+		return ids;
+	}
+
+	/**
+	 * 按查询条件更新/删除
+	 */
+	private JSONObject byQuery(String db, SQLBuilder builder) throws IOException {
+		List<Condition> conditions = builder.conditions() == null ? new ArrayList<>() : builder.conditions();
+		EsSelect select = new EsSelect(builder.table(), null, null, null, conditions, null, null, null);
+		select.db(db);
+		JSONObject body = new JSONObject().put("query", select.query());
+		String endpoint = "/" + builder.table() + "/_delete_by_query";
+		if (builder instanceof Update) {
+			endpoint = "/" + builder.table() + "/_update_by_query";
+			body.put("script", new JSONObject().put("lang", "painless").put("source", "ctx._source.putAll(params.doc)")
+					.put("params", new JSONObject().put("doc", new JSONObject(builder.values()))));
+		}
+		NStringEntity entity = new NStringEntity(body.toString(), ContentType.APPLICATION_JSON);
+		JSONObject response = new JSONObject(EntityUtils.toString(EsHandler
+				.get(handler.performRequestAsync(db, "POST", endpoint, Collections.emptyMap(), entity)).getEntity()));
+		return new JSONObject("count", response.getLong(builder instanceof Update ? "updated" : "deleted"));
+	}
+
+	/**
+	 * 由_bulk中每个操作的结果生成SQLBuilder的执行结果, 与关系数据库的执行结果格式相同
+	 */
+	private JSONObject result(SQLBuilder builder, List<JSONObject> items) {
+		if (builder instanceof Insert) {
+			JSONObject item = items.get(0);
+			if (!isSuccess(item)) {
+				return new JSONObject("error", item.getString("error"));
+			}
+			// 主键值由请求数据给出, 文档_id只在主键为_id时返回
+			JSONObject result = new JSONObject(builder.values());
+			if (!hasPrimaryKey(builder.db(), builder.table())) {
+				result.put("_id", item.getString("_id"));
+			}
+			return result;
+		}
+		long count = items.stream().filter(EsWriter::isSuccess).count();
+		JSONObject result = new JSONObject("count", count);
+		if (builder instanceof Bulk && count < items.size()) {
+			JSONArray errors = new JSONArray();
+			for (int i = 0; i < items.size(); i++) {
+				JSONObject item = items.get(i);
+				if (!isSuccess(item)) {
+					errors.add(new JSONObject().put("index", i).put("status", item.getInt("status")).put("error",
+							item.getString("error")));
+				}
+			}
+			result.put("errors", errors);
+		}
+		return result;
+	}
+
+	/**
+	 * 文档_id对应的字段. 数据库表未配置主键时为_id; 配置了主键并且es_id为true时为主键;
+	 * 否则文档_id与主键无关(如由ES生成), 返回null, 按主键更新/删除时使用按查询更新/删除
+	 */
+	private String idColumn(String db, String index) {
+		JSONObject tableConfig = AirContext.getTableConfig(db, index);
+		if (!tableConfig.containsKey(TableConfig.PRIMARY_KEY)) {
+			return "_id";
+		}
+		return Boolean.TRUE.equals(tableConfig.get(TableConfig.ES_ID)) ? tableConfig.getString(TableConfig.PRIMARY_KEY)
+				: null;
+	}
+
+	private boolean hasPrimaryKey(String db, String index) {
+		return AirContext.getTableConfig(db, index).containsKey(TableConfig.PRIMARY_KEY);
+	}
+
+	/**
+	 * 批量执行写操作
+	 *
+	 * @param db
+	 * @param actions
+	 * @return 每个操作的结果, 与actions顺序相同, 包含_id/status, 成功时包含result, 失败时包含error
+	 * @throws IOException
+	 */
+	public List<JSONObject> bulk(String db, List<Action> actions) throws IOException {
+		JSONObject dataSourceConfig = AirContext.getDataSource(db);
+		int maxActions = dataSourceConfig.containsKey(Es.BULK_ACTIONS) ? dataSourceConfig.getInt(Es.BULK_ACTIONS)
+				: DEFAULT_BULK_ACTIONS;
+		long maxBytes = dataSourceConfig.containsKey(Es.BULK_BYTES) ? dataSourceConfig.getLong(Es.BULK_BYTES)
+				: DEFAULT_BULK_BYTES;
+		int concurrency = dataSourceConfig.containsKey(Es.BULK_CONCURRENCY)
+				? dataSourceConfig.getInt(Es.BULK_CONCURRENCY) : DEFAULT_BULK_CONCURRENCY;
+		String docType = dataSourceConfig.containsKey(Es.DOC_TYPE) ? dataSourceConfig.getString(Es.DOC_TYPE)
+				: DEFAULT_DOC_TYPE;
+		// 每个操作的请求行只生成一次, 重试时复用
+		String[] lines = new String[actions.size()];
+		List<Integer> pending = new ArrayList<>();
+		for (int i = 0; i < actions.size(); i++) {
+			lines[i] = actions.get(i).lines(docType);
+			pending.add(i);
+		}
+		JSONObject[] results = new JSONObject[actions.size()];
+		for (int retry = 0; !pending.isEmpty() && retry <= MAX_RETRIES; retry++) {
+			if (retry > 0) {
+				try {
+					Thread.sleep(RETRY_BACKOFF_MILLIS << (retry - 1));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new DbException(e);
+				}
+			}
+			pending = send(db, lines, pending, results, Math.max(1, maxActions), maxBytes, Math.max(1, concurrency));
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * 分批发送操作
+	 *
+	 * @return 被拒绝需要重试的操作
+	 */
+	private List<Integer> send(String db, String[] lines, List<Integer> pending, JSONObject[] results,
+			int maxActions, long maxBytes, int concurrency) throws IOException {
+		List<Integer> rejected = Collections.synchronizedList(new ArrayList<>());
+		List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+		List<Integer> chunk = new ArrayList<>();
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < pending.size(); i++) {
+			int index = pending.get(i);
+			chunk.add(index);
+			body.append(lines[index]);
+			// 按字符数估算请求体大小
+			boolean last = i == pending.size() - 1;
+			if (!last && chunk.size() < maxActions
+					&& body.length() + lines[pending.get(i + 1)].length() <= maxBytes) {
+				continue;
+			}
+			// 同时发送的批数达到上限时等待最早的一批完成
+			if (inFlight.size() >= concurrency) {
+				EsHandler.get(inFlight.remove(0));
+			}
+			inFlight.add(sendChunk(db, body.toString(), new ArrayList<>(chunk), results, rejected));
+			chunk.clear();
+			body.setLength(0);
+		}
+		for (CompletableFuture<Void> future : inFlight) {
+			EsHandler.get(future);
+		}
+		Collections.sort(rejected);
+		return rejected;
+	}
+
+	private CompletableFuture<Void> sendChunk(String db, String body, List<Integer> chunk, JSONObject[] results,
+			List<Integer> rejected) {
+		NStringEntity entity = new NStringEntity(body, NDJSON);
+		return handler.performRequestAsync(db, "POST", "/_bulk", Collections.emptyMap(), entity)
+				.handle((response, e) -> {
+					if (e != null) {
+						Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+						// 整批被拒绝时所有操作重试
+						if (cause instanceof ResponseException && ((ResponseException) cause).getResponse()
+								.getStatusLine().getStatusCode() == TOO_MANY_REQUESTS) {
+							chunk.forEach(index -> results[index] = error(TOO_MANY_REQUESTS, cause.getMessage()));
+							rejected.addAll(chunk);
+							return null;
+						}
+						throw new CompletionException(cause);
+					}
+					JSONArray items;
+					try {
+						items = new JSONObject(EntityUtils.toString(response.getEntity())).getArray("items");
+					} catch (IOException ioe) {
+						throw new CompletionException(ioe);
+					}
+					for (int i = 0; i < chunk.size(); i++) {
+						JSONObject item = (JSONObject) items.getObject(i).values().iterator().next();
+						JSONObject result = new JSONObject().put("_id", item.getString("_id")).put("status",
+								item.getInt("status"));
+						if (item.containsKey("error")) {
+							Object error = item.get("error");
+							result.put("error", error instanceof JSONObject ? ((JSONObject) error).getString("reason")
+									: String.valueOf(error));
+						} else {
+							result.put("result", item.getString("result"));
+						}
+						results[chunk.get(i)] = result;
+						if (item.getInt("status") == TOO_MANY_REQUESTS) {
+							rejected.add(chunk.get(i));
+						}
+					}
+					return null;
+				});
+	}
+
+	private JSONObject error(int status, String message) {
+		return new JSONObject().put("status", status).put("error", message);
+	}
+
+	/**
+	 * 操作是否成功
+	 *
+	 * @param result
+	 * @return
+	 */
+	public static boolean isSuccess(JSONObject result) {
+		return result != null && !result.containsKey("error") && result.getInt("status") < 300;
+	}
+
+}
@@ -0,0 +1,144 @@
+package com.mxy.air.db.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 批量导入的通用实现, 供不支持原生批量导入协议的数据库方言使用
+ *
+ * @author mengxiangyun
+ *
+ */
+public class BulkLoadHelper {
+
+	// 单条多行insert语句的最大参数个数
+	public static final int MAX_STATEMENT_PARAMS = 2000;
+
+	// JDBC批处理每批的行数
+	public static final int BATCH_ROWS = 1000;
+
+	/**
+	 * 生成insert语句的前缀, 如: insert into `table` (`column1`, `column2`) values
+	 *
+	 * @param dialect
+	 * @param table
+	 * @param columns
+	 * @return
+	 */
+	public static String insertPrefix(Dialect dialect, String table, String[] columns) {
+		String symbol = dialect.getKeywordSymbol();
+		StringBuilder builder = new StringBuilder();
+		builder.append("insert into ").append(symbol).append(table).append(symbol).append(" (");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(symbol).append(columns[i]).append(symbol);
+		}
+		builder.append(") values ");
+		return builder.toString();
+	}
+
+	/**
+	 * 多行insert语句分批导入, insert into table (...) values (?, ?), (?, ?) ...
+	 *
+	 * @param conn
+	 *            数据库连接, 由调用者关闭
+	 * @param dialect
+	 * @param table
+	 * @param columns
+	 * @param rows
+	 * @return 导入的行数
+	 * @throws SQLException
+	 */
+	public static long multiRowInsert(Connection conn, Dialect dialect, String table, String[] columns,
+			Iterator<Object[]> rows) throws SQLException {
+		String prefix = insertPrefix(dialect, table, columns);
+		String rowPlaceholder = "(" + String.join(", ", Collections.nCopies(columns.length, "?")) + ")";
+		int statementRows = Math.max(1, MAX_STATEMENT_PARAMS / Math.max(1, columns.length));
+		List<Object[]> chunk = new ArrayList<>(statementRows);
+		// 整批数据的语句重复使用, 只有最后不足一批的数据单独生成语句
+		PreparedStatement fullStmt = null;
+		long count = 0;
+		try {
+			while (rows.hasNext()) {
+				chunk.add(rows.next());
+				if (chunk.size() < statementRows && rows.hasNext()) {
+					continue;
+				}
+				String sql = prefix + String.join(", ", Collections.nCopies(chunk.size(), rowPlaceholder));
+				if (chunk.size() == statementRows) {
+					if (fullStmt == null) {
+						fullStmt = conn.prepareStatement(sql);
+					}
+					count += executeChunk(fullStmt, chunk);
+				} else {
+					try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+						count += executeChunk(stmt, chunk);
+					}
+				}
+				chunk.clear();
+			}
+		} finally {
+			if (fullStmt != null) {
+				fullStmt.close();
+			}
+		}
+		return count;
+	}
+
+	private static int executeChunk(PreparedStatement stmt, List<Object[]> chunk) throws SQLException {
+		int index = 1;
+		for (Object[] row : chunk) {
+			for (Object value : row) {
+				stmt.setObject(index++, value);
+			}
+		}
+		return stmt.executeUpdate();
+	}
+
+	/**
+	 * 单行insert语句JDBC批处理导入, 用于不支持多行insert语法的数据库
+	 *
+	 * @param conn
+	 *            数据库连接, 由调用者关闭
+	 * @param dialect
+	 * @param table
+	 * @param columns
+	 * @param rows
+	 * @return 导入的行数
+	 * @throws SQLException
+	 */
+	public static long batchInsert(Connection conn, Dialect dialect, String table, String[] columns,
+			Iterator<Object[]> rows) throws SQLException {
+		String sql = insertPrefix(dialect, table, columns) + "("
+				+ String.join(", ", Collections.nCopies(columns.length, "?")) + ")";
+		long count = 0;
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			int batchRows = 0;
+			while (rows.hasNext()) {
+				Object[] row = rows.next();
+				for (int i = 0; i < row.length; i++) {
+					stmt.setObject(i + 1, row[i]);
+				}
+				stmt.addBatch();
+				// 部分驱动批处理返回SUCCESS_NO_INFO, 以添加的行数计数
+				count++;
+				if (++batchRows == BATCH_ROWS) {
+					stmt.executeBatch();
+					batchRows = 0;
+				}
+			}
+			if (batchRows > 0) {
+				stmt.executeBatch();
+			}
+		}
+		return count;
+	}
+
+}
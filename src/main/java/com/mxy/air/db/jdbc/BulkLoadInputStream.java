@@ -0,0 +1,131 @@
+package com.mxy.air.db.jdbc;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.Iterator;
+
+/**
+ * 将行数据编码为数据库批量导入的文本格式, 按需逐行编码, 不在内存中保存全部数据.
+ * 格式: 列之间以制表符分隔, 行之间以换行符分隔, null值为\N, 反斜杠/制表符/换行符/回车符以反斜杠转义.
+ * 该格式同时兼容MySQL LOAD DATA的默认格式和PostgreSQL COPY的text格式
+ *
+ * @author mengxiangyun
+ *
+ */
+public class BulkLoadInputStream extends InputStream {
+
+	private static final String NULL = "\\N";
+
+	private final Iterator<Object[]> rows;
+
+	// 当前行编码后的数据
+	private byte[] buffer = new byte[0];
+
+	// 当前行读取位置
+	private int position;
+
+	// 已编码的行数
+	private long rowCount;
+
+	public BulkLoadInputStream(Iterator<Object[]> rows) {
+		this.rows = rows;
+	}
+
+	@Override
+	public int read() {
+		if (!fill()) {
+			return -1;
+		}
+		return buffer[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		int read = 0;
+		while (read < len && fill()) {
+			int length = Math.min(len - read, buffer.length - position);
+			System.arraycopy(buffer, position, b, off + read, length);
+			position += length;
+			read += length;
+		}
+		return read == 0 ? -1 : read;
+	}
+
+	/**
+	 * 当前行读取完毕时编码下一行
+	 *
+	 * @return 是否还有数据
+	 */
+	private boolean fill() {
+		while (position >= buffer.length) {
+			if (!rows.hasNext()) {
+				return false;
+			}
+			buffer = encode(rows.next());
+			position = 0;
+			rowCount++;
+		}
+		return true;
+	}
+
+	private byte[] encode(Object[] row) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < row.length; i++) {
+			if (i > 0) {
+				builder.append('\t');
+			}
+			Object value = row[i];
+			if (value == null) {
+				builder.append(NULL);
+			} else {
+				escape(builder, toText(value));
+			}
+		}
+		builder.append('\n');
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private String toText(Object value) {
+		if (value instanceof Boolean) {
+			return (Boolean) value ? "1" : "0";
+		} else if (value instanceof Date && !(value instanceof java.sql.Date || value instanceof java.sql.Time
+				|| value instanceof Timestamp)) {
+			return new Timestamp(((Date) value).getTime()).toString();
+		}
+		return value.toString();
+	}
+
+	private void escape(StringBuilder builder, String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '\\':
+				builder.append("\\\\");
+				break;
+			case '\t':
+				builder.append("\\t");
+				break;
+			case '\n':
+				builder.append("\\n");
+				break;
+			case '\r':
+				builder.append("\\r");
+				break;
+
+			default:
+				builder.append(c);
+				break;
+			}
+		}
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+}
@@ -1,5 +1,14 @@
 package com.mxy.air.db.jdbc;
 
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+
+import com.mxy.air.db.schema.ColumnInfo;
+import com.mxy.air.db.schema.MetaDataReader;
+
 /**
  * 数据库方言
  * 
@@ -7,6 +16,11 @@ package com.mxy.air.db.jdbc;
  *
  */
 public interface Dialect {
+
+	/**
+	 * 带总记录数的分页查询中, 总记录数所在的列
+	 */
+	public static final String TOTAL_COLUMN = "air_total";
 	
 	/**
 	 * 生成分页查询sql, 参数用占位符替代
@@ -29,6 +43,46 @@ public interface Dialect {
 	 * @return
 	 */
 	public Object[] processLimitParams(Page page);
+
+	/**
+	 * 生成带总记录数的分页查询sql, 总记录数作为TOTAL_COLUMN列随每行数据返回, 一次查询同时得到分页数据和总记录数.
+	 * 参数与processLimitParams相同
+	 * 
+	 * @param sql
+	 *            原始sql
+	 * @return 不支持时返回null, 由调用者单独查询总记录数
+	 */
+	default String processLimitWithTotal(String sql) {
+		return null;
+	}
+
+	/**
+	 * 是否支持窗口函数(row_number() over (partition by ...)), 用于限制一对多关联中每条主表记录的关联记录数.
+	 * 不支持时按每条主表记录分别查询关联表
+	 * 
+	 * @return
+	 */
+	default boolean supportsWindowFunction() {
+		return false;
+	}
+
+	/**
+	 * 分页sql附加到查询结果中的列, 如行号和总记录数, 这些列需要从查询结果中删除
+	 * 
+	 * @return
+	 */
+	default String[] limitColumns() {
+		return new String[0];
+	}
+
+	/**
+	 * 根据数据库元数据初始化方言, 如根据数据库版本选择不同的SQL语法
+	 * 
+	 * @param metaData
+	 * @throws SQLException
+	 */
+	default void initialize(DatabaseMetaData metaData) throws SQLException {
+	}
 	
 	/**
 	 * 关键字转义符号
@@ -38,4 +92,49 @@ public interface Dialect {
 		return "";
 	}
 
+	/**
+	 * 批量导入数据. 默认使用多行insert语句分批写入, 支持原生批量导入协议的数据库应重写该方法
+	 * 
+	 * @param conn
+	 *            数据库连接, 由调用者关闭
+	 * @param table
+	 *            数据库表
+	 * @param columns
+	 *            导入的列
+	 * @param rows
+	 *            导入的数据, 每行的值与columns顺序一致
+	 * @return 导入的行数
+	 * @throws SQLException
+	 */
+	default long bulkLoad(Connection conn, String table, String[] columns, Iterator<Object[]> rows)
+			throws SQLException {
+		return BulkLoadHelper.multiRowInsert(conn, this, table, columns, rows);
+	}
+
+	/**
+	 * 读取当前数据库的所有表结构, 默认通过JDBC DatabaseMetaData读取, 数据库方言可以重写为查询系统表以提升速度
+	 * 
+	 * @param conn
+	 *            数据库连接, 由调用者关闭
+	 * @return
+	 * @throws SQLException
+	 */
+	default List<ColumnInfo> readSchema(Connection conn) throws SQLException {
+		return MetaDataReader.read(conn);
+	}
+
+	/**
+	 * 读取当前数据库中单个表的表结构, 用于延迟加载数据库表结构
+	 * 
+	 * @param conn
+	 *            数据库连接, 由调用者关闭
+	 * @param table
+	 *            表名
+	 * @return 表不存在时返回空集合
+	 * @throws SQLException
+	 */
+	default List<ColumnInfo> readTableSchema(Connection conn, String table) throws SQLException {
+		return MetaDataReader.read(conn, table);
+	}
+
 }
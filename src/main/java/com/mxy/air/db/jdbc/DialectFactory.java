@@ -8,19 +8,26 @@ import java.util.Map.Entry;
 
 import javax.sql.DataSource;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.mxy.air.db.DbException;
 import com.mxy.air.db.jdbc.dialect.ElasticsearchDialect;
 import com.mxy.air.db.jdbc.dialect.MySQLDialect;
 import com.mxy.air.db.jdbc.dialect.OracleDialect;
+import com.mxy.air.db.jdbc.dialect.PostgreSQLDialect;
 
 public class DialectFactory {
 
+	private static final Logger logger = LoggerFactory.getLogger(DialectFactory.class);
+
 	// 数据库方言集合. key: 数据库关键字 value: 数据库方言类
 	private static Map<String, Class<? extends Dialect>> dialectMap = new HashMap<>();
 
 	static {
 		dialectMap.put("mysql", MySQLDialect.class);
 		dialectMap.put("oracle", OracleDialect.class);
+		dialectMap.put("postgresql", PostgreSQLDialect.class);
 		dialectMap.put("elasticsearch", ElasticsearchDialect.class);
 	}
 
@@ -35,13 +42,33 @@ public class DialectFactory {
 		try (Connection connection = dataSource.getConnection()) {
 			DatabaseMetaData metaData = connection.getMetaData();
 			String url = metaData.getURL();
-			return getDialect(url);
+			Dialect dialect = getDialect(url);
+			if (dialect != null) {
+				dialect.initialize(metaData);
+			}
+			return dialect;
 		} catch (Exception e) {
-			e.printStackTrace();
+			logger.error("获取数据库方言失败", e);
 		}
 		return null;
 	}
 
+	/**
+	 * 根据数据源的数据库元数据初始化方言, 如数据库版本
+	 * 
+	 * @param dialect
+	 *            数据库方言
+	 * @param dataSource
+	 *            数据源
+	 */
+	public static void initialize(Dialect dialect, DataSource dataSource) {
+		try (Connection connection = dataSource.getConnection()) {
+			dialect.initialize(connection.getMetaData());
+		} catch (Exception e) {
+			logger.error("初始化数据库方言失败", e);
+		}
+	}
+
 	/**
 	 * 通过url判断数据库类型
 	 * 
@@ -5,6 +5,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Iterator;
 
 import javax.sql.DataSource;
 
@@ -433,4 +434,36 @@ public class JdbcRunner extends AbstractJdbcRunner {
 		return result;
 	}
 
+	/**
+	 * 批量导入数据, 导入方式由数据库方言决定
+	 * 
+	 * @param conn
+	 *            数据库连接
+	 * @param closeConn
+	 *            是否关闭连接
+	 * @param dialect
+	 *            数据库方言
+	 * @param table
+	 *            数据库表
+	 * @param columns
+	 *            导入的列
+	 * @param rows
+	 *            导入的数据
+	 * @return 导入的行数
+	 * @throws SQLException
+	 */
+	public long bulkLoad(Connection conn, boolean closeConn, Dialect dialect, String table, String[] columns,
+			Iterator<Object[]> rows) throws SQLException {
+		long count = 0;
+		try {
+			count = dialect.bulkLoad(conn, table, columns, rows);
+		} catch (SQLException e) {
+			this.rethrow(e, "bulk load " + table, (Object[]) columns);
+		} finally {
+			if (closeConn)
+				close(conn);
+		}
+		return count;
+	}
+
 }
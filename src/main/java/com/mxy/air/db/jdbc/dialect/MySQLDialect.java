@@ -1,7 +1,21 @@
 package com.mxy.air.db.jdbc.dialect;
 
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Strings;
+import com.mxy.air.db.jdbc.BulkLoadInputStream;
 import com.mxy.air.db.jdbc.Dialect;
 import com.mxy.air.db.jdbc.Page;
+import com.mxy.air.db.schema.ColumnInfo;
+import com.mxy.air.db.schema.MetaDataReader;
 
 /**
  * MySQL limit 偏移量从0开始
@@ -11,6 +25,51 @@ import com.mxy.air.db.jdbc.Page;
  */
 public class MySQLDialect implements Dialect {
 
+	/*
+	 * 支持 setLocalInfileInputStream 的驱动Statement类, 依次为 Connector/J 8.x 和 5.x.
+	 * 通过反射调用, 避免对MySQL驱动的编译依赖
+	 */
+	private static final String[] LOCAL_INFILE_STATEMENTS = { "com.mysql.cj.jdbc.JdbcStatement",
+			"com.mysql.jdbc.Statement" };
+
+	private static final String SCHEMA_SQL = "select t.table_name, t.table_comment, c.column_name, c.data_type, c.column_key, c.column_comment from information_schema.tables t join information_schema.columns c on t.table_schema = c.table_schema and t.table_name = c.table_name where t.table_schema = ?";
+
+	// 支持窗口函数的最低版本
+	private static final int WINDOW_FUNCTION_VERSION = 8;
+
+	// MariaDB支持窗口函数的最低版本 10.2
+	private static final int MARIADB_WINDOW_FUNCTION_MAJOR_VERSION = 10;
+	private static final int MARIADB_WINDOW_FUNCTION_MINOR_VERSION = 2;
+
+	// MariaDB的版本号, 使用MySQL驱动时有 5.5.5- 前缀, 如 5.5.5-10.1.38-MariaDB
+	private static final Pattern MARIADB_VERSION = Pattern.compile("(?:5\\.5\\.5-)?(\\d+)\\.(\\d+)");
+
+	// 是否支持窗口函数, 未知时按不支持处理
+	private boolean windowFunction;
+
+	@Override
+	public void initialize(DatabaseMetaData metaData) throws SQLException {
+		String productName = Strings.nullToEmpty(metaData.getDatabaseProductName());
+		String productVersion = Strings.nullToEmpty(metaData.getDatabaseProductVersion());
+		if (productName.toLowerCase().contains("mariadb") || productVersion.toLowerCase().contains("mariadb")) {
+			// MariaDB的主版本号10同样满足MySQL的版本, 但10.2以下不支持窗口函数
+			Matcher matcher = MARIADB_VERSION.matcher(productVersion);
+			if (matcher.lookingAt()) {
+				int major = Integer.parseInt(matcher.group(1));
+				int minor = Integer.parseInt(matcher.group(2));
+				windowFunction = major > MARIADB_WINDOW_FUNCTION_MAJOR_VERSION || major == MARIADB_WINDOW_FUNCTION_MAJOR_VERSION
+						&& minor >= MARIADB_WINDOW_FUNCTION_MINOR_VERSION;
+			}
+			return;
+		}
+		windowFunction = metaData.getDatabaseMajorVersion() >= WINDOW_FUNCTION_VERSION;
+	}
+
+	@Override
+	public boolean supportsWindowFunction() {
+		return windowFunction;
+	}
+
 	public String processLimit(String sql) {
 		return sql + " limit ?,?";
 	}
@@ -23,4 +82,55 @@ public class MySQLDialect implements Dialect {
 		return "`";
 	}
 
+	/**
+	 * 通过 LOAD DATA LOCAL INFILE 导入数据, 数据以流的形式交给驱动, 不生成临时文件.
+	 * 需要在连接url中开启 allowLoadLocalInfile=true, 驱动不支持时使用多行insert语句导入
+	 */
+	@Override
+	public long bulkLoad(Connection conn, String table, String[] columns, Iterator<Object[]> rows)
+			throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			Object localInfileStatement = null;
+			for (String className : LOCAL_INFILE_STATEMENTS) {
+				try {
+					Class<?> statementClass = Class.forName(className);
+					if (stmt.isWrapperFor(statementClass)) {
+						localInfileStatement = stmt.unwrap(statementClass);
+						statementClass.getMethod("setLocalInfileInputStream", InputStream.class)
+								.invoke(localInfileStatement, new BulkLoadInputStream(rows));
+						break;
+					}
+				} catch (ClassNotFoundException e) {
+					// 驱动版本不匹配, 继续尝试下一个
+				} catch (ReflectiveOperationException e) {
+					throw new SQLException(e);
+				}
+			}
+			if (localInfileStatement == null) {
+				return Dialect.super.bulkLoad(conn, table, columns, rows);
+			}
+			StringBuilder builder = new StringBuilder();
+			builder.append("load data local infile 'air-db.tsv' into table `").append(table)
+					.append("` character set utf8mb4 (");
+			for (int i = 0; i < columns.length; i++) {
+				if (i > 0) {
+					builder.append(", ");
+				}
+				builder.append("`").append(columns[i]).append("`");
+			}
+			builder.append(")");
+			return stmt.executeUpdate(builder.toString());
+		}
+	}
+
+	@Override
+	public List<ColumnInfo> readSchema(Connection conn) throws SQLException {
+		return MetaDataReader.query(conn, SCHEMA_SQL, conn.getCatalog());
+	}
+
+	@Override
+	public List<ColumnInfo> readTableSchema(Connection conn, String table) throws SQLException {
+		return MetaDataReader.query(conn, SCHEMA_SQL + " and t.table_name = ?", conn.getCatalog(), table);
+	}
+
 }
@@ -1,17 +1,104 @@
 package com.mxy.air.db.jdbc.dialect;
 
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+
+import com.mxy.air.db.jdbc.BulkLoadHelper;
 import com.mxy.air.db.jdbc.Dialect;
 import com.mxy.air.db.jdbc.Page;
+import com.mxy.air.db.schema.ColumnInfo;
+import com.mxy.air.db.schema.MetaDataReader;
 
+/**
+ * oracle 12c及以上版本使用 offset fetch 分页, 以下版本使用 rownum 分页
+ * 
+ * @author mengxiangyun
+ *
+ */
 public class OracleDialect implements Dialect {
 
+	// 支持 offset fetch 语法的最低版本
+	private static final int OFFSET_FETCH_VERSION = 12;
+
+	// rownum 分页的行号列, 使用保留的 air_ 前缀, 不与数据库表的列重名
+	private static final String ROWNUM_COLUMN = "air_rownum";
+
+	// 当前用户下所有表的列, 表注释, 列注释和主键
+	private static final String SCHEMA_SQL = "select c.table_name, tc.comments, c.column_name, c.data_type, case when pk.column_name is null then null else 'PRI' end, cc.comments"
+			+ " from user_tab_columns c"
+			+ " left join user_tab_comments tc on tc.table_name = c.table_name"
+			+ " left join user_col_comments cc on cc.table_name = c.table_name and cc.column_name = c.column_name"
+			+ " left join (select cols.table_name, cols.column_name from user_constraints cons join user_cons_columns cols on cons.constraint_name = cols.constraint_name where cons.constraint_type = 'P') pk"
+			+ " on pk.table_name = c.table_name and pk.column_name = c.column_name";
+
+	// 数据库主版本号, 未知时为0, 按低版本处理
+	private int majorVersion;
+
+	@Override
+	public void initialize(DatabaseMetaData metaData) throws SQLException {
+		majorVersion = metaData.getDatabaseMajorVersion();
+	}
+
+	private boolean offsetFetch() {
+		return majorVersion >= OFFSET_FETCH_VERSION;
+	}
+
 	public String processLimit(String sql) {
+		if (offsetFetch()) {
+			return sql + " offset ? rows fetch next ? rows only";
+		}
 		// oracle rownum 从1开始
-		return "select * from (select a.*, rownum rn from (" + sql + ") a where rownum <= ?) where rn >= ?";
+		return "select * from (select a.*, rownum " + ROWNUM_COLUMN + " from (" + sql + ") a where rownum <= ?) where "
+				+ ROWNUM_COLUMN + " >= ?";
 	}
 
 	public Object[] processLimitParams(Page page) {
+		if (offsetFetch()) {
+			return new Object[] { page.getStart(), page.getPageSize() };
+		}
 		return new Object[] {page.getEnd(), page.getStart() + 1};
 	}
 
+	@Override
+	public String processLimitWithTotal(String sql) {
+		if (offsetFetch()) {
+			return "select a.*, count(*) over() " + TOTAL_COLUMN + " from (" + sql
+					+ ") a offset ? rows fetch next ? rows only";
+		}
+		// 低版本 count(*) over() 会使 rownum 无法提前终止扫描, 单独查询总记录数
+		return null;
+	}
+
+	@Override
+	public boolean supportsWindowFunction() {
+		return true;
+	}
+
+	@Override
+	public String[] limitColumns() {
+		return offsetFetch() ? new String[] { TOTAL_COLUMN } : new String[] { ROWNUM_COLUMN };
+	}
+
+	/**
+	 * oracle 不支持多行values语法, 使用JDBC批处理导入
+	 */
+	@Override
+	public long bulkLoad(Connection conn, String table, String[] columns, Iterator<Object[]> rows)
+			throws SQLException {
+		return BulkLoadHelper.batchInsert(conn, this, table, columns, rows);
+	}
+
+	@Override
+	public List<ColumnInfo> readSchema(Connection conn) throws SQLException {
+		return MetaDataReader.query(conn, SCHEMA_SQL);
+	}
+
+	@Override
+	public List<ColumnInfo> readTableSchema(Connection conn, String table) throws SQLException {
+		return MetaDataReader.query(conn, SCHEMA_SQL + " where c.table_name = ?", table);
+	}
+
 }
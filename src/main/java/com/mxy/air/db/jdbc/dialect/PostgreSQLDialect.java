@@ -0,0 +1,93 @@
+package com.mxy.air.db.jdbc.dialect;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+
+import com.mxy.air.db.jdbc.BulkLoadInputStream;
+import com.mxy.air.db.jdbc.Dialect;
+import com.mxy.air.db.jdbc.Page;
+
+/**
+ * PostgreSQL offset 偏移量从0开始
+ * 
+ * @author mengxiangyun
+ *
+ */
+public class PostgreSQLDialect implements Dialect {
+
+	/*
+	 * 通过反射调用驱动的 CopyManager, 避免对PostgreSQL驱动的编译依赖
+	 */
+	private static final String PG_CONNECTION = "org.postgresql.PGConnection";
+
+	public String processLimit(String sql) {
+		return sql + " limit ? offset ?";
+	}
+
+	public Object[] processLimitParams(Page page) {
+		return new Object[] { page.getPageSize(), page.getStart() };
+	}
+
+	@Override
+	public String processLimitWithTotal(String sql) {
+		return "select a.*, count(*) over() " + TOTAL_COLUMN + " from (" + sql + ") a limit ? offset ?";
+	}
+
+	@Override
+	public boolean supportsWindowFunction() {
+		return true;
+	}
+
+	@Override
+	public String[] limitColumns() {
+		return new String[] { TOTAL_COLUMN };
+	}
+
+	public String getKeywordSymbol() {
+		return "\"";
+	}
+
+	/**
+	 * 通过 COPY FROM STDIN 导入数据, 驱动不支持时使用多行insert语句导入
+	 */
+	@Override
+	public long bulkLoad(Connection conn, String table, String[] columns, Iterator<Object[]> rows)
+			throws SQLException {
+		Class<?> connectionClass;
+		try {
+			connectionClass = Class.forName(PG_CONNECTION);
+		} catch (ClassNotFoundException e) {
+			return Dialect.super.bulkLoad(conn, table, columns, rows);
+		}
+		if (!conn.isWrapperFor(connectionClass)) {
+			return Dialect.super.bulkLoad(conn, table, columns, rows);
+		}
+		StringBuilder builder = new StringBuilder();
+		builder.append("copy \"").append(table).append("\" (");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append("\"").append(columns[i]).append("\"");
+		}
+		builder.append(") from stdin");
+		try {
+			Object copyManager = connectionClass.getMethod("getCopyAPI").invoke(conn.unwrap(connectionClass));
+			Object count = copyManager.getClass().getMethod("copyIn", String.class, InputStream.class)
+					.invoke(copyManager, builder.toString(), new BulkLoadInputStream(rows));
+			return (long) count;
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+			throw new SQLException(cause);
+		} catch (ReflectiveOperationException e) {
+			throw new SQLException(e);
+		}
+	}
+
+}
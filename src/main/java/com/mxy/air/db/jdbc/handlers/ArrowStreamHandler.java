@@ -0,0 +1,266 @@
+package com.mxy.air.db.jdbc.handlers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mxy.air.db.arrow.ArrowStreamWriter;
+import com.mxy.air.db.arrow.ArrowStreamWriter.Field;
+import com.mxy.air.db.arrow.ArrowStreamWriter.Type;
+import com.mxy.air.db.config.TableConfig;
+import com.mxy.air.db.jdbc.ResultSetHandler;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * 逐行读取ResultSet并以Arrow IPC流格式写入输出流. 列类型取自ResultSetMetaData, 驱动无法确定类型时取自表配置的type.
+ * 列值通过getLong/getDouble等方法读取后直接写入列缓冲区, 不生成行对象. 写入中的IO异常以UncheckedIOException抛出
+ *
+ * @author mengxiangyun
+ *
+ */
+public class ArrowStreamHandler implements ResultSetHandler<Long> {
+
+	// Arrow Decimal128的最大精度
+	private static final int MAX_DECIMAL_PRECISION = 38;
+
+	private final OutputStream out;
+
+	private final JSONObject columnsConfig;
+
+	// 不写入的列, 如分页SQL附加的列
+	private final String[] excludeColumns;
+
+	private final int batchSize;
+
+	/**
+	 * @param out
+	 *            输出流, 写入完成后不关闭
+	 * @param columnsConfig
+	 *            表的列配置, 可以为null
+	 * @param excludeColumns
+	 *            不写入的列
+	 * @param batchSize
+	 *            每个RecordBatch的行数
+	 */
+	public ArrowStreamHandler(OutputStream out, JSONObject columnsConfig, String[] excludeColumns, int batchSize) {
+		this.out = out;
+		this.columnsConfig = columnsConfig;
+		this.excludeColumns = excludeColumns == null ? new String[0] : excludeColumns;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * 返回写入的行数
+	 */
+	@Override
+	public Long handle(ResultSet rs) throws SQLException {
+		ResultSetMetaData meta = rs.getMetaData();
+		List<Field> fields = new ArrayList<>();
+		// 写入的列在ResultSet中的序号
+		List<Integer> indexes = new ArrayList<>();
+		for (int i = 1; i <= meta.getColumnCount(); i++) {
+			String label = meta.getColumnLabel(i);
+			String name = label == null || label.isEmpty() ? meta.getColumnName(i) : label;
+			if (isExcluded(name)) {
+				continue;
+			}
+			fields.add(field(meta, i, name));
+			indexes.add(i);
+		}
+		ArrowStreamWriter writer = new ArrowStreamWriter(out, fields, batchSize);
+		long count = 0;
+		try {
+			while (rs.next()) {
+				for (int column = 0; column < fields.size(); column++) {
+					read(rs, indexes.get(column), fields.get(column).getType(), writer, column);
+				}
+				writer.endRow();
+				count++;
+			}
+			writer.finish();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return count;
+	}
+
+	private boolean isExcluded(String name) {
+		for (String excludeColumn : excludeColumns) {
+			// 部分数据库返回大写的列名
+			if (excludeColumn.equalsIgnoreCase(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 列类型映射为Arrow类型
+	 */
+	private Field field(ResultSetMetaData meta, int index, String name) throws SQLException {
+		switch (meta.getColumnType(index)) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+			return new Field(name, Type.INT32);
+		case Types.INTEGER:
+			// 无符号整数可能超出int的范围
+			return new Field(name, meta.isSigned(index) ? Type.INT32 : Type.INT64);
+		case Types.BIGINT:
+			return meta.isSigned(index) ? new Field(name, Type.INT64) : new Field(name, 20, 0);
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return new Field(name, Type.FLOAT64);
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+			int precision = meta.getPrecision(index);
+			int scale = meta.getScale(index);
+			// 未指定精度(如Oracle的NUMBER)或超出Decimal128的范围时使用double
+			if (precision <= 0 || precision > MAX_DECIMAL_PRECISION || scale < 0 || scale > precision) {
+				return new Field(name, Type.FLOAT64);
+			}
+			return new Field(name, precision, scale);
+		case Types.BIT:
+			return new Field(name, meta.getPrecision(index) > 1 ? Type.BINARY : Type.BOOL);
+		case Types.BOOLEAN:
+			return new Field(name, Type.BOOL);
+		case Types.DATE:
+			return new Field(name, Type.DATE);
+		case Types.TIMESTAMP:
+		case Types.TIMESTAMP_WITH_TIMEZONE:
+			return new Field(name, Type.TIMESTAMP);
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			return new Field(name, Type.BINARY);
+		case Types.OTHER:
+		case Types.JAVA_OBJECT:
+		case Types.NULL:
+			return new Field(name, configType(name));
+
+		default:
+			return new Field(name, Type.UTF8);
+		}
+	}
+
+	/**
+	 * 驱动无法确定类型时, 按表配置的列类型映射
+	 */
+	private Type configType(String column) {
+		JSONObject columnConfig = columnsConfig == null ? null : columnsConfig.getObject(column);
+		String type = columnConfig == null ? null : columnConfig.getString(TableConfig.Column.TYPE);
+		if (type == null) {
+			return Type.UTF8;
+		}
+		type = type.toLowerCase();
+		if (type.contains("int")) {
+			return Type.INT64;
+		} else if (type.contains("decimal") || type.contains("numeric") || type.contains("double")
+				|| type.contains("float") || type.contains("real")) {
+			return Type.FLOAT64;
+		} else if (type.startsWith("bool")) {
+			return Type.BOOL;
+		} else if (type.equals("date")) {
+			return Type.DATE;
+		} else if (type.startsWith("datetime") || type.startsWith("timestamp")) {
+			return Type.TIMESTAMP;
+		}
+		return Type.UTF8;
+	}
+
+	/**
+	 * 读取当前行的列值并写入列缓冲区
+	 */
+	private void read(ResultSet rs, int index, Type type, ArrowStreamWriter writer, int column)
+			throws SQLException {
+		switch (type) {
+		case INT32:
+			int intValue = rs.getInt(index);
+			if (rs.wasNull()) {
+				writer.setNull(column);
+			} else {
+				writer.setInt(column, intValue);
+			}
+			break;
+		case INT64:
+			long longValue = rs.getLong(index);
+			if (rs.wasNull()) {
+				writer.setNull(column);
+			} else {
+				writer.setLong(column, longValue);
+			}
+			break;
+		case FLOAT64:
+			double doubleValue = rs.getDouble(index);
+			if (rs.wasNull()) {
+				writer.setNull(column);
+			} else {
+				writer.setDouble(column, doubleValue);
+			}
+			break;
+		case BOOL:
+			boolean booleanValue = rs.getBoolean(index);
+			if (rs.wasNull()) {
+				writer.setNull(column);
+			} else {
+				writer.setBoolean(column, booleanValue);
+			}
+			break;
+		case DECIMAL:
+			BigDecimal decimal = rs.getBigDecimal(index);
+			if (decimal == null) {
+				writer.setNull(column);
+			} else {
+				writer.setDecimal(column, decimal);
+			}
+			break;
+		case DATE:
+			Date date = rs.getDate(index);
+			if (date == null) {
+				writer.setNull(column);
+			} else {
+				writer.setInt(column, (int) date.toLocalDate().toEpochDay());
+			}
+			break;
+		case TIMESTAMP:
+			Timestamp timestamp = rs.getTimestamp(index);
+			if (timestamp == null) {
+				writer.setNull(column);
+			} else {
+				// 不带时区, 按数据库中的本地时间计算
+				long seconds = timestamp.toLocalDateTime().toEpochSecond(ZoneOffset.UTC);
+				writer.setLong(column, seconds * 1_000_000 + timestamp.getNanos() / 1000);
+			}
+			break;
+		case BINARY:
+			byte[] bytes = rs.getBytes(index);
+			if (bytes == null) {
+				writer.setNull(column);
+			} else {
+				writer.setBytes(column, bytes);
+			}
+			break;
+
+		default:
+			String string = rs.getString(index);
+			if (string == null) {
+				writer.setNull(column);
+			} else {
+				writer.setString(column, string);
+			}
+			break;
+		}
+	}
+
+}
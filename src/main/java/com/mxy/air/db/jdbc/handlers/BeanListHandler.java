@@ -0,0 +1,379 @@
+package com.mxy.air.db.jdbc.handlers;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+import com.mxy.air.db.DbException;
+import com.mxy.air.db.jdbc.ResultSetHandler;
+
+/**
+ * 将ResultSet的每一行映射为指定类型的对象. 列名忽略大小写和下划线后与属性名匹配(user_name -> userName).
+ * 类有无参构造方法时通过setter方法或字段赋值, 否则通过参数个数与列数相同的构造方法创建对象.
+ * 每个类型和查询结果列的组合只生成一次映射, setter方法通过LambdaMetafactory生成, 字段和构造方法通过MethodHandle调用,
+ * 不在每行使用反射
+ *
+ * @author mengxiangyun
+ *
+ */
+public class BeanListHandler<T> implements ResultSetHandler<List<T>> {
+
+	// 映射缓存, 保存在类型上(卸载类加载器时随类型一起回收), key为查询结果列和列的位置
+	private static final ClassValue<Map<List<Object>, Mapping>> mappings =
+			new ClassValue<Map<List<Object>, Mapping>>() {
+				@Override
+				protected Map<List<Object>, Mapping> computeValue(Class<?> type) {
+					return new ConcurrentHashMap<>();
+				}
+			};
+
+	private final Class<T> type;
+
+	// 不映射的列, 如分页sql附加的行号和总记录数
+	private final String[] excludeColumns;
+
+	// 最多映射的行数, 0为不限制
+	private final int maxRows;
+
+	public BeanListHandler(Class<T> type) {
+		this(type, null, 0);
+	}
+
+	/**
+	 * 
+	 * @param type
+	 * @param excludeColumns
+	 *            不映射的列, 忽略大小写
+	 * @param maxRows
+	 *            最多映射的行数, 达到后不再读取ResultSet, 0为不限制
+	 */
+	public BeanListHandler(Class<T> type, String[] excludeColumns, int maxRows) {
+		this.type = type;
+		this.excludeColumns = excludeColumns == null ? new String[0] : excludeColumns;
+		this.maxRows = maxRows;
+	}
+
+	@Override
+	public List<T> handle(ResultSet rs) throws SQLException {
+		ResultSetMetaData meta = rs.getMetaData();
+		// 映射的列和列在ResultSet中的位置
+		List<String> labels = new ArrayList<>();
+		List<Integer> indexes = new ArrayList<>();
+		for (int i = 1; i <= meta.getColumnCount(); i++) {
+			String label = meta.getColumnLabel(i);
+			label = label == null || label.isEmpty() ? meta.getColumnName(i) : label;
+			if (!isExcluded(label)) {
+				labels.add(label);
+				indexes.add(i);
+			}
+		}
+		List<Object> key = new ArrayList<>(labels);
+		key.add(indexes);
+		Mapping mapping = mappings.get(type).computeIfAbsent(key,
+				k -> new Mapping(type, labels.toArray(new String[0]), indexes.stream().mapToInt(i -> i).toArray()));
+		List<T> rows = new ArrayList<>();
+		while ((maxRows <= 0 || rows.size() < maxRows) && rs.next()) {
+			rows.add(type.cast(mapping.toBean(rs)));
+		}
+		return rows;
+	}
+
+	private boolean isExcluded(String label) {
+		for (String excludeColumn : excludeColumns) {
+			// 部分数据库返回大写的列名
+			if (excludeColumn.equalsIgnoreCase(label)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 列名和属性名统一为小写并去掉下划线
+	 */
+	private static String normalize(String name) {
+		return name.replace("_", "").toLowerCase();
+	}
+
+	/**
+	 * 一个类型和一组查询结果列的映射
+	 */
+	private static class Mapping {
+
+		// 无参构造方法, 通过构造方法参数创建对象时为null
+		private MethodHandle constructor;
+
+		// 参数为Object[]的构造方法, 数组元素与查询结果列一一对应
+		private MethodHandle argsConstructor;
+
+		// 每列的目标类型, 不映射的列为null
+		private final Class<?>[] types;
+
+		// 每列在ResultSet中的位置
+		private final int[] indexes;
+
+		// 每列的赋值方法, 不映射的列为null
+		private final List<BiConsumer<Object, Object>> setters = new ArrayList<>();
+
+		private Mapping(Class<?> type, String[] labels, int[] indexes) {
+			this.indexes = indexes;
+			types = new Class<?>[labels.length];
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			try {
+				Constructor<?> noArgs = findNoArgsConstructor(type);
+				if (noArgs != null) {
+					noArgs.setAccessible(true);
+					constructor = lookup.unreflectConstructor(noArgs).asType(MethodType.methodType(Object.class));
+					Map<String, Method> methods = setterMethods(type);
+					Map<String, Field> fields = fields(type);
+					for (int i = 0; i < labels.length; i++) {
+						String name = normalize(labels[i]);
+						setters.add(setter(lookup, methods.get(name), fields.get(name), i));
+					}
+				} else {
+					Constructor<?> argsCtor = findArgsConstructor(type, labels);
+					argsCtor.setAccessible(true);
+					Class<?>[] parameterTypes = argsCtor.getParameterTypes();
+					System.arraycopy(parameterTypes, 0, types, 0, parameterTypes.length);
+					argsConstructor = lookup.unreflectConstructor(argsCtor)
+							.asSpreader(Object[].class, parameterTypes.length)
+							.asType(MethodType.methodType(Object.class, Object[].class));
+				}
+			} catch (ReflectiveOperationException e) {
+				throw new DbException(String.format("类型 [%s] 映射失败", type.getName()), e);
+			}
+		}
+
+		private Object toBean(ResultSet rs) throws SQLException {
+			try {
+				if (argsConstructor != null) {
+					Object[] args = new Object[types.length];
+					for (int i = 0; i < types.length; i++) {
+						args[i] = convert(rs.getObject(indexes[i]), types[i]);
+					}
+					return argsConstructor.invokeExact(args);
+				}
+				Object bean = constructor.invokeExact();
+				for (int i = 0; i < types.length; i++) {
+					BiConsumer<Object, Object> setter = setters.get(i);
+					if (setter != null) {
+						setter.accept(bean, convert(rs.getObject(indexes[i]), types[i]));
+					}
+				}
+				return bean;
+			} catch (SQLException | RuntimeException e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new DbException(e);
+			}
+		}
+
+		/**
+		 * 列的赋值方法, 优先使用public的setter方法, 其次使用字段
+		 */
+		private BiConsumer<Object, Object> setter(MethodHandles.Lookup lookup, Method method, Field field, int index)
+				throws ReflectiveOperationException {
+			if (method != null && Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+				types[index] = method.getParameterTypes()[0];
+				MethodHandle handle = lookup.unreflect(method);
+				// 生成的实现类由本类的类加载器加载, 目标类对本类的类加载器不可见时使用MethodHandle
+				if (!isVisible(method.getDeclaringClass()) || !isVisible(wrap(types[index]))) {
+					return invoker(handle);
+				}
+				try {
+					CallSite site = LambdaMetafactory.metafactory(lookup, "accept",
+							MethodType.methodType(BiConsumer.class), MethodType.methodType(void.class, Object.class,
+									Object.class),
+							handle, MethodType.methodType(void.class, method.getDeclaringClass(), wrap(types[index])));
+					@SuppressWarnings("unchecked")
+					BiConsumer<Object, Object> setter = (BiConsumer<Object, Object>) site.getTarget().invoke();
+					return setter;
+				} catch (Throwable e) {
+					return invoker(handle);
+				}
+			}
+			if (field != null) {
+				types[index] = field.getType();
+				field.setAccessible(true);
+				return invoker(lookup.unreflectSetter(field));
+			}
+			return null;
+		}
+
+		private BiConsumer<Object, Object> invoker(MethodHandle handle) {
+			MethodHandle generic = handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+			return (bean, value) -> {
+				try {
+					generic.invokeExact(bean, value);
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Throwable e) {
+					throw new DbException(e);
+				}
+			};
+		}
+
+		private static Constructor<?> findNoArgsConstructor(Class<?> type) {
+			for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+				if (constructor.getParameterCount() == 0) {
+					return constructor;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * 参数个数与列数相同的构造方法, 编译时保留了参数名(-parameters)时按参数名与列对应, 否则按顺序对应
+		 */
+		private static Constructor<?> findArgsConstructor(Class<?> type, String[] labels) {
+			for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+				if (constructor.getParameterCount() != labels.length) {
+					continue;
+				}
+				Parameter[] parameters = constructor.getParameters();
+				boolean match = true;
+				for (int i = 0; i < parameters.length && match; i++) {
+					match = !parameters[i].isNamePresent()
+							|| normalize(parameters[i].getName()).equals(normalize(labels[i]));
+				}
+				if (match) {
+					return constructor;
+				}
+			}
+			throw new DbException(String.format("类型 [%s] 没有无参构造方法或与查询列 %s 对应的构造方法", type.getName(),
+					Arrays.toString(labels)));
+		}
+
+		private static Map<String, Method> setterMethods(Class<?> type) {
+			Map<String, Method> methods = new HashMap<>();
+			for (Method method : type.getMethods()) {
+				if (method.getName().startsWith("set") && method.getParameterCount() == 1
+						&& !Modifier.isStatic(method.getModifiers())) {
+					methods.putIfAbsent(normalize(method.getName().substring(3)), method);
+				}
+			}
+			return methods;
+		}
+
+		private static Map<String, Field> fields(Class<?> type) {
+			Map<String, Field> fields = new HashMap<>();
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					int modifiers = field.getModifiers();
+					if (!Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers)) {
+						fields.putIfAbsent(normalize(field.getName()), field);
+					}
+				}
+			}
+			return fields;
+		}
+
+	}
+
+	private static boolean isVisible(Class<?> type) {
+		try {
+			return Class.forName(type.getName(), false, BeanListHandler.class.getClassLoader()) == type;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	private static Class<?> wrap(Class<?> type) {
+		return MethodType.methodType(type).wrap().returnType();
+	}
+
+	/**
+	 * 列值转换为目标类型
+	 *
+	 * @param value
+	 * @param type
+	 * @return
+	 */
+	static Object convert(Object value, Class<?> type) {
+		if (type == null) {
+			return null;
+		}
+		if (value == null) {
+			// 基本类型不能为null, 使用默认值
+			return type.isPrimitive() ? defaultValue(type) : null;
+		}
+		Class<?> target = wrap(type);
+		if (target.isInstance(value)) {
+			return value;
+		}
+		if (value instanceof Number) {
+			Number number = (Number) value;
+			if (target == Integer.class) {
+				return number.intValue();
+			} else if (target == Long.class) {
+				return number.longValue();
+			} else if (target == Double.class) {
+				return number.doubleValue();
+			} else if (target == Float.class) {
+				return number.floatValue();
+			} else if (target == Short.class) {
+				return number.shortValue();
+			} else if (target == Byte.class) {
+				return number.byteValue();
+			} else if (target == Boolean.class) {
+				return number.intValue() != 0;
+			} else if (target == BigDecimal.class) {
+				return new BigDecimal(number.toString());
+			} else if (target == BigInteger.class) {
+				return new BigInteger(number.toString());
+			}
+		}
+		if (value instanceof Timestamp && target == LocalDateTime.class) {
+			return ((Timestamp) value).toLocalDateTime();
+		}
+		if (value instanceof java.sql.Date && target == LocalDate.class) {
+			return ((java.sql.Date) value).toLocalDate();
+		}
+		if (target == String.class) {
+			return value.toString();
+		}
+		return value;
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return false;
+		} else if (type == char.class) {
+			return '\0';
+		} else if (type == long.class) {
+			return 0L;
+		} else if (type == double.class) {
+			return 0D;
+		} else if (type == float.class) {
+			return 0F;
+		} else if (type == short.class) {
+			return (short) 0;
+		} else if (type == byte.class) {
+			return (byte) 0;
+		}
+		return 0;
+	}
+
+}
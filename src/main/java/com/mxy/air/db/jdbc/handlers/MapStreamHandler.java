@@ -0,0 +1,40 @@
+package com.mxy.air.db.jdbc.handlers;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.mxy.air.db.jdbc.ResultSetHandler;
+import com.mxy.air.db.jdbc.RowProcessor;
+
+/**
+ * 逐行读取ResultSet, 每行转换为Map后交给消费者处理, 不保存所有行
+ * 
+ * @author mengxiangyun
+ *
+ */
+public class MapStreamHandler implements ResultSetHandler<Long> {
+
+	private final RowProcessor processor;
+
+	private final Consumer<Map<String, Object>> consumer;
+
+	public MapStreamHandler(RowProcessor processor, Consumer<Map<String, Object>> consumer) {
+		this.processor = processor;
+		this.consumer = consumer;
+	}
+
+	/**
+	 * 返回读取的行数
+	 */
+	public Long handle(ResultSet rs) throws SQLException {
+		long count = 0;
+		while (rs.next()) {
+			consumer.accept(processor.toMap(rs));
+			count++;
+		}
+		return count;
+	}
+
+}
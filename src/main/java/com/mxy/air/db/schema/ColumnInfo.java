@@ -0,0 +1,93 @@
+package com.mxy.air.db.schema;
+
+import java.util.Objects;
+
+import com.google.common.base.Strings;
+
+/**
+ * 数据库表的列信息, 每个对象对应数据库表结构中的一列
+ * 
+ * @author mengxiangyun
+ *
+ */
+public class ColumnInfo {
+
+	// 主键列的标识
+	public static final String PRIMARY_KEY = "PRI";
+
+	// 表名
+	private final String tableName;
+
+	// 表注释
+	private final String tableComment;
+
+	// 列名
+	private final String columnName;
+
+	// 数据类型, 小写
+	private final String dataType;
+
+	// 列键类型, 主键为PRI
+	private final String columnKey;
+
+	// 列注释
+	private final String columnComment;
+
+	public ColumnInfo(String tableName, String tableComment, String columnName, String dataType, String columnKey,
+			String columnComment) {
+		this.tableName = Strings.nullToEmpty(tableName);
+		this.tableComment = Strings.nullToEmpty(tableComment);
+		this.columnName = Strings.nullToEmpty(columnName);
+		this.dataType = Strings.nullToEmpty(dataType).toLowerCase();
+		this.columnKey = Strings.nullToEmpty(columnKey);
+		this.columnComment = Strings.nullToEmpty(columnComment);
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public String getTableComment() {
+		return tableComment;
+	}
+
+	public String getColumnName() {
+		return columnName;
+	}
+
+	public String getDataType() {
+		return dataType;
+	}
+
+	public String getColumnKey() {
+		return columnKey;
+	}
+
+	public String getColumnComment() {
+		return columnComment;
+	}
+
+	public boolean isPrimaryKey() {
+		return PRIMARY_KEY.equals(columnKey);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(tableName, tableComment, columnName, dataType, columnKey, columnComment);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ColumnInfo)) {
+			return false;
+		}
+		ColumnInfo other = (ColumnInfo) obj;
+		return tableName.equals(other.tableName) && tableComment.equals(other.tableComment)
+				&& columnName.equals(other.columnName) && dataType.equals(other.dataType)
+				&& columnKey.equals(other.columnKey) && columnComment.equals(other.columnComment);
+	}
+
+}
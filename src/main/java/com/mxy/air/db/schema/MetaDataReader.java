@@ -0,0 +1,133 @@
+package com.mxy.air.db.schema;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 读取数据库表结构
+ * 
+ * @author mengxiangyun
+ *
+ */
+public class MetaDataReader {
+
+	private static final String[] TABLE_TYPES = { "TABLE", "VIEW" };
+
+	/**
+	 * 通过JDBC DatabaseMetaData读取当前数据库(catalog/schema)的表结构, 适用于所有数据库
+	 * 
+	 * @param conn
+	 * @return
+	 * @throws SQLException
+	 */
+	public static List<ColumnInfo> read(Connection conn) throws SQLException {
+		return read(conn, null);
+	}
+
+	/**
+	 * 通过JDBC DatabaseMetaData读取当前数据库(catalog/schema)中单个表的表结构
+	 * 
+	 * @param conn
+	 * @param table
+	 *            表名, 为null时读取所有表
+	 * @return
+	 * @throws SQLException
+	 */
+	public static List<ColumnInfo> read(Connection conn, String table) throws SQLException {
+		DatabaseMetaData metaData = conn.getMetaData();
+		String catalog = conn.getCatalog();
+		String schema = getSchema(conn);
+		String tablePattern = table == null ? "%" : escape(table, metaData.getSearchStringEscape());
+		// 所有表及表注释
+		Map<String, String> tableComments = new LinkedHashMap<>();
+		try (ResultSet rs = metaData.getTables(catalog, schema, tablePattern, TABLE_TYPES)) {
+			while (rs.next()) {
+				tableComments.put(rs.getString("TABLE_NAME"), rs.getString("REMARKS"));
+			}
+		}
+		// 所有表的主键
+		Map<String, Set<String>> primaryKeys = new HashMap<>();
+		for (String tableName : tableComments.keySet()) {
+			try (ResultSet rs = metaData.getPrimaryKeys(catalog, schema, tableName)) {
+				while (rs.next()) {
+					primaryKeys.computeIfAbsent(tableName, k -> new HashSet<>()).add(rs.getString("COLUMN_NAME"));
+				}
+			}
+		}
+		// 所有列, 一次读取
+		List<ColumnInfo> columns = new ArrayList<>();
+		try (ResultSet rs = metaData.getColumns(catalog, schema, tablePattern, "%")) {
+			while (rs.next()) {
+				String tableName = rs.getString("TABLE_NAME");
+				if (!tableComments.containsKey(tableName)) {
+					continue;
+				}
+				String column = rs.getString("COLUMN_NAME");
+				boolean primaryKey = primaryKeys.containsKey(tableName)
+						&& primaryKeys.get(tableName).contains(column);
+				columns.add(new ColumnInfo(tableName, tableComments.get(tableName), column, rs.getString("TYPE_NAME"),
+						primaryKey ? ColumnInfo.PRIMARY_KEY : "", rs.getString("REMARKS")));
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * 通过数据库的系统表查询表结构, 查询结果的列依次为: 表名, 表注释, 列名, 数据类型, 列键类型, 列注释
+	 * 
+	 * @param conn
+	 * @param sql
+	 * @param params
+	 * @return
+	 * @throws SQLException
+	 */
+	public static List<ColumnInfo> query(Connection conn, String sql, Object... params) throws SQLException {
+		List<ColumnInfo> columns = new ArrayList<>();
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			for (int i = 0; i < params.length; i++) {
+				stmt.setObject(i + 1, params[i]);
+			}
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					columns.add(new ColumnInfo(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+							rs.getString(5), rs.getString(6)));
+				}
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * 转义表名中的通配符, 按表名精确匹配
+	 * 
+	 * @param table
+	 * @param escape
+	 * @return
+	 */
+	private static String escape(String table, String escape) {
+		if (escape == null || escape.isEmpty()) {
+			return table;
+		}
+		return table.replace(escape, escape + escape).replace("_", escape + "_").replace("%", escape + "%");
+	}
+
+	private static String getSchema(Connection conn) {
+		try {
+			return conn.getSchema();
+		} catch (SQLException | AbstractMethodError e) {
+			// 旧版本驱动不支持getSchema
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,152 @@
+package com.mxy.air.db.schema;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.mxy.air.db.AirContext;
+import com.mxy.air.db.DbException;
+import com.mxy.air.db.config.DatacolorConfig.Datasource;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * 延迟加载的数据库表配置. 数据库表的结构在第一次访问时读取, 与用户配置的数据库表配置合并后缓存.
+ * 同一个表的并发加载只会读取一次数据库, 超过缓存数量或长时间未访问的表将被移除, 再次访问时重新加载.
+ * 不存在的表不缓存, 之后创建的表在下次访问时即可读取
+ * 
+ * @author mengxiangyun
+ *
+ */
+public class SchemaCache {
+
+	// 默认每个数据源最多缓存的数据库表数量
+	public static final long DEFAULT_MAX_TABLES = 10000;
+
+	// 每个数据源的数据库表配置缓存, key为表名, value为数据库表配置
+	private final Map<String, LoadingCache<String, JSONObject>> caches = new HashMap<>();
+
+	/**
+	 * 
+	 * @param dbs
+	 *            延迟加载的数据源
+	 * @param maxTables
+	 *            每个数据源最多缓存的数据库表数量, 0为不限制
+	 * @param expireMinutes
+	 *            数据库表未被访问多少分钟后移除, 0为不移除
+	 */
+	public SchemaCache(Collection<String> dbs, long maxTables, long expireMinutes) {
+		for (String db : dbs) {
+			CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+			if (maxTables > 0) {
+				builder.maximumSize(maxTables);
+			}
+			if (expireMinutes > 0) {
+				builder.expireAfterAccess(expireMinutes, TimeUnit.MINUTES);
+			}
+			caches.put(db, builder.build(new CacheLoader<String, JSONObject>() {
+
+				@Override
+				public JSONObject load(String table) throws Exception {
+					return SchemaCache.this.load(db, table);
+				}
+
+			}));
+		}
+	}
+
+	/**
+	 * 数据源是否延迟加载
+	 * 
+	 * @param db
+	 * @return
+	 */
+	public boolean contains(String db) {
+		return caches.containsKey(db);
+	}
+
+	/**
+	 * 获取数据库表配置, 第一次访问时加载
+	 * 
+	 * @param db
+	 * @param table
+	 * @return 表不存在时返回空对象
+	 */
+	public JSONObject get(String db, String table) {
+		try {
+			return caches.get(db).getUnchecked(table);
+		} catch (InvalidCacheLoadException e) {
+			// 表不存在时加载结果为null, 不缓存
+			return new JSONObject();
+		} catch (UncheckedExecutionException e) {
+			throw new DbException(String.format("读取数据库表 [%s] 结构失败", table), e.getCause());
+		}
+	}
+
+	/**
+	 * 预先加载数据库表
+	 * 
+	 * @param db
+	 * @param tables
+	 */
+	public void preload(String db, Collection<String> tables) {
+		tables.forEach(table -> get(db, table));
+	}
+
+	/**
+	 * 移除数据库表配置, 下次访问时重新加载
+	 * 
+	 * @param db
+	 * @param table
+	 */
+	public void invalidate(String db, String table) {
+		if (contains(db)) {
+			caches.get(db).invalidate(table);
+		}
+	}
+
+	/**
+	 * 移除数据源的所有数据库表配置
+	 * 
+	 * @param db
+	 */
+	public void invalidateAll(String db) {
+		if (contains(db)) {
+			caches.get(db).invalidateAll();
+		}
+	}
+
+	/**
+	 * 读取单个表的结构, 合并到用户配置的数据库表配置的副本中
+	 * 
+	 * @param db
+	 * @param table
+	 * @return 表不存在时返回null
+	 * @throws SQLException
+	 */
+	private JSONObject load(String db, String table) throws SQLException {
+		JSONObject userConfig = AirContext.getDbConfig(db).getObject(table);
+		DataSource dataSource = (DataSource) AirContext.getDataSource(db).get(Datasource.SOURCE);
+		List<ColumnInfo> columns;
+		try (Connection conn = dataSource.getConnection()) {
+			columns = AirContext.getDialect(db).readTableSchema(conn, table);
+		}
+		if (userConfig == null && columns.isEmpty()) {
+			return null;
+		}
+		JSONObject tableConfig = userConfig == null ? new JSONObject() : new JSONObject(userConfig.toString());
+		columns.forEach(column -> SchemaLoader.apply(tableConfig, column));
+		return tableConfig;
+	}
+
+}
@@ -0,0 +1,216 @@
+package com.mxy.air.db.schema;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mxy.air.db.AirContext;
+import com.mxy.air.db.DbException;
+import com.mxy.air.db.config.DatacolorConfig.Datasource;
+import com.mxy.air.db.config.TableConfig;
+import com.mxy.air.db.config.TableConfig.Column;
+import com.mxy.air.json.JSONObject;
+
+/**
+ * 数据库表结构加载器, 并行读取多个数据源的表结构, 并合并到数据库表配置中.
+ * 配置了快照路径时, 启动时优先从快照加载, 然后在后台读取数据库表结构与快照比对, 有变化时更新数据库表配置和快照
+ * 
+ * @author mengxiangyun
+ *
+ */
+public class SchemaLoader {
+
+	private static final Logger logger = LoggerFactory.getLogger(SchemaLoader.class);
+
+	// 最大并行读取的数据源数量
+	private static final int MAX_THREADS = 16;
+
+	// 快照目录, 为null时不使用快照
+	private final Path snapshotDir;
+
+	public SchemaLoader(Path snapshotDir) {
+		this.snapshotDir = snapshotDir;
+	}
+
+	/**
+	 * 加载数据源的数据库表结构
+	 * 
+	 * @param dbs
+	 *            数据源名称
+	 */
+	public void load(Collection<String> dbs) {
+		if (dbs.isEmpty()) {
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(dbs.size(), MAX_THREADS), r -> {
+			Thread thread = new Thread(r, "air-db-schema");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// 所有数据源同时开始读取数据库表结构
+		Map<String, CompletableFuture<List<ColumnInfo>>> schemas = new LinkedHashMap<>();
+		for (String db : dbs) {
+			schemas.put(db, CompletableFuture.supplyAsync(() -> readSchema(db), executor));
+		}
+		List<CompletableFuture<Void>> validations = new ArrayList<>();
+		for (Map.Entry<String, CompletableFuture<List<ColumnInfo>>> entry : schemas.entrySet()) {
+			String db = entry.getKey();
+			JSONObject dbTableConfig = AirContext.getDbConfig(db);
+			if (dbTableConfig.size() == 0) {
+				AirContext.addDbTableConfig(db, dbTableConfig);
+			}
+			List<ColumnInfo> snapshot = readSnapshot(db);
+			if (snapshot == null) {
+				try {
+					List<ColumnInfo> columns = entry.getValue().join();
+					apply(dbTableConfig, columns);
+					writeSnapshot(db, columns);
+				} catch (CompletionException e) {
+					logger.error(String.format("读取数据源 [%s] 的数据库表结构失败", db), e.getCause());
+				}
+			} else {
+				// 用户配置的副本, 数据库表结构变化时基于该副本重新生成数据库表配置
+				JSONObject userConfig = new JSONObject(dbTableConfig.toString());
+				apply(dbTableConfig, snapshot);
+				validations.add(entry.getValue().thenAccept(columns -> {
+					if (new HashSet<>(columns).equals(new HashSet<>(snapshot))) {
+						return;
+					}
+					logger.info("数据源 [{}] 的数据库表结构已变化, 更新数据库表配置和快照", db);
+					// 与热加载发布的配置互斥, 校验期间配置已被替换时基于当前配置合并, 不覆盖热加载的结果
+					synchronized (AirContext.class) {
+						JSONObject current = AirContext.getDbConfig(db);
+						JSONObject rebuilt = current == dbTableConfig ? userConfig : new JSONObject(current.toString());
+						apply(rebuilt, columns);
+						AirContext.addDbTableConfig(db, rebuilt);
+					}
+					writeSnapshot(db, columns);
+				}).exceptionally(e -> {
+					logger.error(String.format("校验数据源 [%s] 的数据库表结构快照失败", db), e);
+					return null;
+				}));
+			}
+		}
+		CompletableFuture.allOf(validations.toArray(new CompletableFuture<?>[0]))
+				.whenComplete((r, e) -> executor.shutdown());
+	}
+
+	/**
+	 * 读取数据源的数据库表结构, 读取方式由数据库方言决定
+	 * 
+	 * @param db
+	 * @return
+	 */
+	private List<ColumnInfo> readSchema(String db) {
+		DataSource dataSource = (DataSource) AirContext.getDataSource(db).get(Datasource.SOURCE);
+		try (Connection conn = dataSource.getConnection()) {
+			return AirContext.getDialect(db).readSchema(conn);
+		} catch (SQLException e) {
+			throw new DbException(e);
+		}
+	}
+
+	private List<ColumnInfo> readSnapshot(String db) {
+		if (snapshotDir == null) {
+			return null;
+		}
+		try {
+			return SchemaSnapshot.read(snapshotDir.resolve(db + SchemaSnapshot.SUFFIX), getUrl(db));
+		} catch (IOException e) {
+			logger.warn(String.format("读取数据源 [%s] 的数据库表结构快照失败", db), e);
+			return null;
+		}
+	}
+
+	private void writeSnapshot(String db, List<ColumnInfo> columns) {
+		if (snapshotDir == null) {
+			return;
+		}
+		try {
+			SchemaSnapshot.write(snapshotDir.resolve(db + SchemaSnapshot.SUFFIX), getUrl(db), columns);
+		} catch (IOException e) {
+			logger.warn(String.format("写入数据源 [%s] 的数据库表结构快照失败", db), e);
+		}
+	}
+
+	private String getUrl(String db) {
+		return AirContext.getDataSource(db).getString(Datasource.URL);
+	}
+
+	/**
+	 * 将数据库表结构合并到数据库表配置中
+	 * 
+	 * @param dbTableConfig
+	 *            数据源的数据库表配置
+	 * @param columns
+	 *            数据库表结构
+	 */
+	public static void apply(JSONObject dbTableConfig, List<ColumnInfo> columns) {
+		for (ColumnInfo columnInfo : columns) {
+			String tableName = columnInfo.getTableName();
+			// 获取数据库表配置
+			JSONObject tableConfig = null;
+			if (dbTableConfig.containsKey(tableName)) {
+				tableConfig = dbTableConfig.getObject(tableName);
+			} else {
+				tableConfig = new JSONObject();
+				dbTableConfig.put(tableName, tableConfig);
+			}
+			apply(tableConfig, columnInfo);
+		}
+	}
+
+	/**
+	 * 将单个列的结构合并到数据库表配置中
+	 * 
+	 * @param tableConfig
+	 *            数据库表配置
+	 * @param columnInfo
+	 *            列结构
+	 */
+	public static void apply(JSONObject tableConfig, ColumnInfo columnInfo) {
+		String column = columnInfo.getColumnName();
+		// 主键
+		if (columnInfo.isPrimaryKey()) {
+			tableConfig.put(TableConfig.PRIMARY_KEY, column);
+		}
+		// 数据库表注释
+		tableConfig.put(TableConfig.COMMENT, columnInfo.getTableComment());
+		// 获取所有列配置
+		JSONObject columnsConfig = null;
+		if (tableConfig.containsKey(TableConfig.COLUMNS)) {
+			columnsConfig = tableConfig.getObject(TableConfig.COLUMNS);
+		} else {
+			columnsConfig = new JSONObject();
+			tableConfig.put(TableConfig.COLUMNS, columnsConfig);
+		}
+		// 获取列配置
+		JSONObject columnConfig = null;
+		if (columnsConfig.containsKey(column)) {
+			columnConfig = columnsConfig.getObject(column);
+		} else {
+			columnConfig = new JSONObject();
+			columnsConfig.put(column, columnConfig);
+		}
+		// 更新列配置
+		columnConfig.put(Column.TYPE, columnInfo.getDataType());
+		columnConfig.put(Column.COMMENT, columnInfo.getColumnComment());
+	}
+
+}
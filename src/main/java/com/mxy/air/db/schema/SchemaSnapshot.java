@@ -0,0 +1,110 @@
+package com.mxy.air.db.schema;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 数据库表结构快照, 以二进制格式保存在本地磁盘, 启动时直接读取快照, 避免每次启动都读取数据库表结构
+ * 格式: 标识, 版本, 数据源url, 列数, 每列的表名/表注释/列名/数据类型/列键类型/列注释
+ * 
+ * @author mengxiangyun
+ *
+ */
+public class SchemaSnapshot {
+
+	// 文件标识 "AIRS"
+	private static final int MAGIC = 0x41495253;
+
+	// 格式版本, 格式变化时递增, 旧版本的快照将被忽略
+	private static final int VERSION = 1;
+
+	// 快照文件后缀
+	public static final String SUFFIX = ".schema";
+
+	/**
+	 * 读取快照
+	 * 
+	 * @param file
+	 *            快照文件
+	 * @param url
+	 *            数据源url, 与快照中的url不一致时快照无效
+	 * @return 快照不存在或无效时返回null
+	 * @throws IOException
+	 */
+	public static List<ColumnInfo> read(Path file, String url) throws IOException {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			if (!readString(in).equals(url == null ? "" : url)) {
+				return null;
+			}
+			int size = in.readInt();
+			List<ColumnInfo> columns = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				columns.add(new ColumnInfo(readString(in), readString(in), readString(in), readString(in),
+						readString(in), readString(in)));
+			}
+			return columns;
+		}
+	}
+
+	/**
+	 * 写入快照, 先写入临时文件再替换, 保证快照文件完整
+	 * 
+	 * @param file
+	 * @param url
+	 * @param columns
+	 * @throws IOException
+	 */
+	public static void write(Path file, String url, List<ColumnInfo> columns) throws IOException {
+		Path dir = file.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				writeString(out, url == null ? "" : url);
+				out.writeInt(columns.size());
+				for (ColumnInfo column : columns) {
+					writeString(out, column.getTableName());
+					writeString(out, column.getTableComment());
+					writeString(out, column.getColumnName());
+					writeString(out, column.getDataType());
+					writeString(out, column.getColumnKey());
+					writeString(out, column.getColumnComment());
+				}
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
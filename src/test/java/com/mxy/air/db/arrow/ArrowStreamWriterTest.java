@@ -0,0 +1,163 @@
+package com.mxy.air.db.arrow;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.DecimalVector;
+import org.apache.arrow.vector.TimeStampMicroVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.junit.Test;
+
+import com.mxy.air.db.arrow.ArrowStreamWriter.Field;
+import com.mxy.air.db.arrow.ArrowStreamWriter.Type;
+
+/**
+ * 使用Arrow Java实现读取ArrowStreamWriter写入的流, 验证Schema和每列的值
+ *
+ * @author mengxiangyun
+ *
+ */
+public class ArrowStreamWriterTest {
+
+	private static final List<Field> FIELDS = Arrays.asList(new Field("id", Type.INT64),
+			new Field("enabled", Type.BOOL), new Field("price", 10, 2), new Field("name", Type.UTF8),
+			new Field("created", Type.TIMESTAMP));
+
+	// 每行的值, 依次为 id, enabled, price, name, created
+	private static final Object[][] ROWS = {
+			{ 1L, true, new BigDecimal("12.34"), "苹果", LocalDateTime.of(2020, 1, 2, 3, 4, 5, 6000) },
+			{ 2L, false, new BigDecimal("-0.05"), "", LocalDateTime.of(1969, 12, 31, 23, 59, 59) },
+			{ 3L, null, null, null, null },
+			{ 4L, true, new BigDecimal("99999999.99"), "banana", LocalDateTime.of(2038, 1, 19, 3, 14, 8) },
+			{ 5L, false, new BigDecimal("-12345678.90"), "a,\"b\"\nc", LocalDateTime.of(1970, 1, 1, 0, 0) } };
+
+	@Test
+	public void roundTrip() throws IOException {
+		// 每批2行, 最后一批不满
+		byte[] stream = write(2);
+		try (BufferAllocator allocator = new RootAllocator();
+				ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(stream), allocator)) {
+			VectorSchemaRoot root = reader.getVectorSchemaRoot();
+			Schema schema = root.getSchema();
+			assertEquals(FIELDS.size(), schema.getFields().size());
+			assertEquals(new ArrowType.Int(64, true), schema.findField("id").getType());
+			assertEquals(ArrowType.Bool.INSTANCE, schema.findField("enabled").getType());
+			assertEquals(new ArrowType.Decimal(10, 2, 128), schema.findField("price").getType());
+			assertEquals(ArrowType.Utf8.INSTANCE, schema.findField("name").getType());
+			assertEquals(new ArrowType.Timestamp(TimeUnit.MICROSECOND, null), schema.findField("created").getType());
+			schema.getFields().forEach(field -> assertTrue(field.isNullable()));
+
+			List<Integer> batchSizes = new ArrayList<>();
+			int row = 0;
+			while (reader.loadNextBatch()) {
+				batchSizes.add(root.getRowCount());
+				for (int i = 0; i < root.getRowCount(); i++, row++) {
+					assertRow(ROWS[row], root, i);
+				}
+			}
+			assertEquals(Arrays.asList(2, 2, 1), batchSizes);
+			assertEquals(ROWS.length, row);
+		}
+	}
+
+	@Test
+	public void emptyStream() throws IOException {
+		try (BufferAllocator allocator = new RootAllocator();
+				ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(write(0, 10)), allocator)) {
+			assertEquals(FIELDS.size(), reader.getVectorSchemaRoot().getSchema().getFields().size());
+			assertFalse(reader.loadNextBatch());
+		}
+	}
+
+	private byte[] write(int batchSize) throws IOException {
+		return write(ROWS.length, batchSize);
+	}
+
+	private byte[] write(int rows, int batchSize) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ArrowStreamWriter writer = new ArrowStreamWriter(out, FIELDS, batchSize);
+		for (int i = 0; i < rows; i++) {
+			Object[] row = ROWS[i];
+			writer.setLong(0, (Long) row[0]);
+			if (row[1] == null) {
+				writer.setNull(1);
+			} else {
+				writer.setBoolean(1, (Boolean) row[1]);
+			}
+			if (row[2] == null) {
+				writer.setNull(2);
+			} else {
+				writer.setDecimal(2, (BigDecimal) row[2]);
+			}
+			if (row[3] == null) {
+				writer.setNull(3);
+			} else {
+				writer.setString(3, (String) row[3]);
+			}
+			if (row[4] == null) {
+				writer.setNull(4);
+			} else {
+				writer.setLong(4, micros((LocalDateTime) row[4]));
+			}
+			writer.endRow();
+		}
+		writer.finish();
+		return out.toByteArray();
+	}
+
+	private void assertRow(Object[] expected, VectorSchemaRoot root, int index) {
+		assertEquals(expected[0], ((BigIntVector) root.getVector("id")).get(index));
+
+		BitVector enabled = (BitVector) root.getVector("enabled");
+		if (expected[1] == null) {
+			assertTrue(enabled.isNull(index));
+		} else {
+			assertEquals(expected[1], enabled.get(index) == 1);
+		}
+
+		DecimalVector price = (DecimalVector) root.getVector("price");
+		assertEquals(expected[2], price.getObject(index));
+
+		VarCharVector name = (VarCharVector) root.getVector("name");
+		if (expected[3] == null) {
+			assertNull(name.get(index));
+		} else {
+			assertArrayEquals(((String) expected[3]).getBytes(StandardCharsets.UTF_8), name.get(index));
+		}
+
+		TimeStampMicroVector created = (TimeStampMicroVector) root.getVector("created");
+		if (expected[4] == null) {
+			assertTrue(created.isNull(index));
+		} else {
+			assertEquals(micros((LocalDateTime) expected[4]), created.get(index));
+		}
+	}
+
+	private static long micros(LocalDateTime dateTime) {
+		return dateTime.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + dateTime.getNano() / 1000;
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.mxy.air.db.es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.mxy.air.json.JSONObject;
+
+/**
+ * 流式读取ES查询响应中的聚合分组
+ *
+ * @author mengxiangyun
+ *
+ */
+public class EsResponseReaderTest {
+
+	@Test
+	public void termsBuckets() throws IOException {
+		String response = "{\"took\":3,\"hits\":{\"total\":7,\"hits\":[]},\"aggregations\":{"
+				+ "\"groups\":{\"doc_count_error_upper_bound\":0,\"sum_other_doc_count\":0,\"buckets\":["
+				+ "{\"key\":\"beijing\",\"doc_count\":4,\"amount\":{\"value\":10.5}},"
+				+ "{\"key\":2,\"doc_count\":3,\"amount\":{\"value\":2.0}}]},"
+				+ "\"total\":{\"value\":2}}}";
+		List<JSONObject> buckets = new ArrayList<>();
+		EsResponseReader.Summary summary = EsResponseReader.read(stream(response), null, buckets::add);
+		assertEquals(2, summary.buckets());
+		assertEquals(2, buckets.size());
+		assertEquals("beijing", buckets.get(0).getString("key"));
+		assertEquals(4L, buckets.get(0).getLong("doc_count"));
+		// terms聚合的key不是对象, 没有下一页
+		assertNull(summary.lastBucketKey());
+		assertEquals(2L, summary.aggregations().getObject("total").getLong("value"));
+		assertEquals(7L, summary.total());
+	}
+
+	@Test
+	public void compositeAfterKey() throws IOException {
+		String response = "{\"aggregations\":{\"groups\":{\"after_key\":{\"city\":\"shanghai\"},\"buckets\":["
+				+ "{\"key\":{\"city\":\"beijing\"},\"doc_count\":4},"
+				+ "{\"key\":{\"city\":\"shanghai\"},\"doc_count\":1}]}}}";
+		EsResponseReader.Summary summary = EsResponseReader.read(stream(response), null, null);
+		assertEquals(2, summary.buckets());
+		assertEquals("shanghai", summary.lastBucketKey().getString("city"));
+	}
+
+	@Test
+	public void compositeWithoutAfterKey() throws IOException {
+		// ES 6.3以前的composite聚合响应没有after_key
+		String response = "{\"aggregations\":{\"groups\":{\"buckets\":["
+				+ "{\"key\":{\"city\":\"beijing\",\"day\":1},\"doc_count\":4}]}}}";
+		EsResponseReader.Summary summary = EsResponseReader.read(stream(response), null, null);
+		assertEquals("beijing", summary.lastBucketKey().getString("city"));
+		assertEquals(1L, summary.lastBucketKey().getLong("day"));
+	}
+
+	private static InputStream stream(String json) {
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+}